@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectsforge.utils.tasksexecutor.RecursiveTask;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
+import org.projectsforge.utils.tasksexecutor.SchedulingMode;
+import org.projectsforge.utils.tasksexecutor.WaitStrategy;
+
+/**
+ * The gain of the affinity keys on a partitioned workload: each task updates a
+ * whole partition of an array, and the tasks updating the same partition run
+ * on the same thread when the partition is used as the affinity key, so that
+ * the partition stays in the caches of its core.
+ * 
+ * @author Sébastien Aupetit
+ * @see RecursiveTask#setAffinityKey(Object)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class AffinityBenchmark {
+
+  /**
+   * The task updating a partition.
+   */
+  static final class PartitionTask extends RecursiveTask {
+
+    /** The partition. */
+    private final double[] partition;
+
+    PartitionTask(final double[] partition, final Integer affinityKey) {
+      this.partition = partition;
+      setAffinityKey(affinityKey);
+    }
+
+    @Override
+    protected void run() throws Exception {
+      final double[] values = partition;
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = values[i] * 0.999 + 1.0;
+      }
+    }
+  }
+
+  /** Indicate if the partition is used as the affinity key of the tasks. */
+  @Param({ "true", "false" })
+  public boolean affinity;
+
+  /** The number of doubles of a partition. */
+  @Param({ "32768", "131072" })
+  public int partitionSize;
+
+  /** The number of partitions per thread. */
+  @Param({ "2" })
+  public int partitionsPerThread;
+
+  /** The number of updates of each partition per invocation. */
+  @Param({ "4" })
+  public int passes;
+
+  /** The number of threads (0 for the number of processors). */
+  @Param({ "0" })
+  public int threadCount;
+
+  /** The partitions. */
+  private double[][] partitions;
+
+  /** The executor. */
+  private RecursiveTaskExecutor executor;
+
+  /**
+   * Update every partition {@link #passes} times.
+   * 
+   * @return a value of the array
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   */
+  @Benchmark
+  public double updatePartitions() throws RecursiveTaskExecutorException {
+    final PartitionTask[] tasks = new PartitionTask[partitions.length * passes];
+    for (int i = 0; i < tasks.length; ++i) {
+      final int index = i % partitions.length;
+      tasks[i] = new PartitionTask(partitions[index], affinity ? Integer.valueOf(index) : null);
+    }
+    executor.execute(tasks);
+    return partitions[0][0];
+  }
+
+  /**
+   * Build the partitions and the executor.
+   */
+  @Setup
+  public void setUp() {
+    final int threads = (threadCount > 0) ? threadCount : Runtime.getRuntime().availableProcessors();
+    partitions = new double[threads * partitionsPerThread][partitionSize];
+    executor = new RecursiveTaskExecutor(new ThreadGroup("AffinityBenchmark"), threads, SchedulingMode.WORK_STEALING,
+        WaitStrategy.PARK);
+  }
+}
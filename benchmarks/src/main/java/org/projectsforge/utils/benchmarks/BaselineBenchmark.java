@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The execution of the trees of {@link RecursiveTaskExecutorBenchmark} by a
+ * plain recursion and by a plain {@link ForkJoinPool}.
+ * 
+ * @author Sébastien Aupetit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class BaselineBenchmark {
+
+  /**
+   * The action executing a node of the tree.
+   */
+  static final class NodeAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The node. */
+    private final transient Node node;
+
+    /** The result of the work. */
+    double result;
+
+    NodeAction(final Node node) {
+      this.node = node;
+    }
+
+    @Override
+    protected void compute() {
+      result = Node.work(node.work);
+      final Node[] children = node.children;
+      if (children.length > 0) {
+        final NodeAction[] actions = new NodeAction[children.length];
+        for (int i = 0; i < children.length; ++i) {
+          actions[i] = new NodeAction(children[i]);
+        }
+        RecursiveAction.invokeAll(actions);
+        for (final NodeAction action : actions) {
+          result += action.result;
+        }
+      }
+    }
+  }
+
+  /**
+   * Execute a tree sequentially.
+   * 
+   * @param node the root of the tree
+   * @return the sum of the results of the nodes
+   */
+  private static double recurse(final Node node) {
+    double result = Node.work(node.work);
+    for (final Node child : node.children) {
+      result += recurse(child);
+    }
+    return result;
+  }
+
+  /** The shape of the tree. */
+  @Param({ "WIDE", "DEEP", "UNBALANCED", "TINY" })
+  public TreeShape shape;
+
+  /** The number of threads of the pool (0 for the number of processors). */
+  @Param({ "0" })
+  public int threadCount;
+
+  /** The root of the tree. */
+  private Node root;
+
+  /** The pool. */
+  private ForkJoinPool pool;
+
+  /**
+   * Execute the tree with the pool.
+   * 
+   * @return the sum of the results of the tasks
+   */
+  @Benchmark
+  public double forkJoinPool() {
+    final NodeAction action = new NodeAction(root);
+    pool.invoke(action);
+    return action.result;
+  }
+
+  /**
+   * Execute the tree by a plain recursion.
+   * 
+   * @return the sum of the results of the tasks
+   */
+  @Benchmark
+  public double sequential() {
+    return recurse(root);
+  }
+
+  /**
+   * Build the tree and the pool.
+   */
+  @Setup
+  public void setUp() {
+    root = shape.build();
+    pool = new ForkJoinPool((threadCount > 0) ? threadCount : Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Shutdown the pool.
+   */
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The entry point of the benchmarks jar. It accepts the JMH command line
+ * options but writes the results as JSON in <code>jmh-result.json</code>
+ * unless another result format or file is requested, so that the results can
+ * be compared between runs.
+ * 
+ * @author Sébastien Aupetit
+ */
+public final class BenchmarkMain {
+
+  /**
+   * The main method.
+   * 
+   * @param args the JMH command line options
+   * @throws Exception the exception
+   */
+  public static void main(final String[] args) throws Exception {
+    final CommandLineOptions options = new CommandLineOptions(args);
+    if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+        || options.shouldListProfilers() || options.shouldListResultFormats()) {
+      Main.main(args);
+      return;
+    }
+    final ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+    if (!options.getResultFormat().hasValue()) {
+      builder.resultFormat(ResultFormatType.JSON);
+    }
+    if (!options.getResult().hasValue()) {
+      builder.result("jmh-result.json");
+    }
+    new Runner(builder.build()).run();
+  }
+
+  /**
+   * Instantiates a new benchmark main.
+   */
+  private BenchmarkMain() {
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectsforge.utils.events.EventDispatcher;
+import org.projectsforge.utils.events.EventListenerList;
+
+/**
+ * The cost of a notification with the loop and cast pattern over
+ * {@link EventListenerList#getListenerList()} compared to the generated
+ * dispatcher of {@link EventDispatcher}. The listeners are of three classes so
+ * that the loop is megamorphic, as with real listeners.
+ * 
+ * @author Sébastien Aupetit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class EventDispatchBenchmark {
+
+  /**
+   * The listener interface.
+   */
+  public interface Listener {
+
+    /**
+     * Notify a value.
+     * 
+     * @param value the value
+     */
+    void valueChanged(int value);
+  }
+
+  /**
+   * A listener summing the values.
+   */
+  static final class SumListener implements Listener {
+
+    long sum;
+
+    @Override
+    public void valueChanged(final int value) {
+      sum += value;
+    }
+  }
+
+  /**
+   * A listener keeping the maximum value.
+   */
+  static final class MaxListener implements Listener {
+
+    int max;
+
+    @Override
+    public void valueChanged(final int value) {
+      if (value > max) {
+        max = value;
+      }
+    }
+  }
+
+  /**
+   * A listener counting the values.
+   */
+  static final class CountListener implements Listener {
+
+    int count;
+
+    @Override
+    public void valueChanged(final int value) {
+      count++;
+    }
+  }
+
+  /** The number of listeners. */
+  @Param({ "1", "4", "16" })
+  public int listenerCount;
+
+  /** The listeners notified by a loop and casts. */
+  private EventListenerList<Listener> list;
+
+  /** The listeners notified by a dispatcher. */
+  private EventDispatcher<Listener> dispatcher;
+
+  /** The notified value. */
+  private int value;
+
+  /**
+   * Notify the listeners with the generated dispatcher.
+   * 
+   * @return the notified value
+   */
+  @Benchmark
+  public int dispatcher() {
+    final int current = value++;
+    dispatcher.fire().valueChanged(current);
+    return current;
+  }
+
+  /**
+   * Notify the listeners with a loop and casts.
+   * 
+   * @return the notified value
+   */
+  @Benchmark
+  public int loopAndCast() {
+    final int current = value++;
+    for (final Object listener : list.getListenerList()) {
+      ((Listener) listener).valueChanged(current);
+    }
+    return current;
+  }
+
+  /**
+   * Register the same listeners in both lists.
+   */
+  @Setup
+  public void setUp() {
+    list = new EventListenerList<>();
+    dispatcher = new EventDispatcher<>(Listener.class);
+    for (int i = 0; i < listenerCount; ++i) {
+      final Listener listener;
+      switch (i % 3) {
+        case 0:
+          listener = new SumListener();
+          break;
+        case 1:
+          listener = new MaxListener();
+          break;
+        default:
+          listener = new CountListener();
+          break;
+      }
+      list.add(listener);
+      dispatcher.add(listener);
+    }
+  }
+}
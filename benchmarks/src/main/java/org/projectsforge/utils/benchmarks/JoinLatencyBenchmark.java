@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectsforge.utils.tasksexecutor.RecursiveTask;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
+import org.projectsforge.utils.tasksexecutor.SchedulingMode;
+import org.projectsforge.utils.tasksexecutor.WaitStrategy;
+
+/**
+ * The latency of the join of a batch of small sibling tasks: the sampled time
+ * is dominated by the wake-up of the threads and of the joining thread, so it
+ * compares the wait strategies of each scheduling mode.
+ * 
+ * @author Sébastien Aupetit
+ * @see WaitStrategy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class JoinLatencyBenchmark {
+
+  /**
+   * A small task.
+   */
+  static final class TinyTask extends RecursiveTask {
+
+    /** The work of the task. */
+    private final int work;
+
+    /** The result of the work. */
+    double result;
+
+    TinyTask(final int work) {
+      this.work = work;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      result = Node.work(work);
+    }
+  }
+
+  /** The scheduling mode and the wait strategy of the executor. */
+  @Param({ "GLOBAL_LIST/POLLING", "GLOBAL_LIST/PARK", "GLOBAL_LIST/YIELD", "GLOBAL_LIST/SPIN",
+      "WORK_STEALING/POLLING", "WORK_STEALING/PARK", "WORK_STEALING/YIELD", "WORK_STEALING/SPIN" })
+  public String executorName;
+
+  /** The number of sibling tasks. */
+  @Param({ "64" })
+  public int taskCount;
+
+  /** The work of each task. */
+  @Param({ "1000" })
+  public int work;
+
+  /** The number of threads (0 for the number of processors). */
+  @Param({ "0" })
+  public int threadCount;
+
+  /** The tasks. */
+  private TinyTask[] tasks;
+
+  /** The executor. */
+  private RecursiveTaskExecutor executor;
+
+  /**
+   * Execute the tasks and join them.
+   * 
+   * @return the result of the last task
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   */
+  @Benchmark
+  public double executeSiblings() throws RecursiveTaskExecutorException {
+    executor.execute(tasks);
+    return tasks[tasks.length - 1].result;
+  }
+
+  /**
+   * Build the tasks and the executor.
+   */
+  @Setup
+  public void setUp() {
+    tasks = new TinyTask[taskCount];
+    for (int i = 0; i < taskCount; ++i) {
+      tasks[i] = new TinyTask(work);
+    }
+    final String[] parts = executorName.split("/");
+    final int threads = (threadCount > 0) ? threadCount : Runtime.getRuntime().availableProcessors();
+    executor = new RecursiveTaskExecutor(new ThreadGroup("JoinLatencyBenchmark"), Math.max(2, threads),
+        SchedulingMode.valueOf(parts[0]), WaitStrategy.valueOf(parts[1]));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+/**
+ * A node of a benchmarked task tree: the amount of work of the task and its
+ * children.
+ * 
+ * @author Sébastien Aupetit
+ */
+public final class Node {
+
+  /** The Constant NO_CHILDREN. */
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  /**
+   * Do an amount of work.
+   * 
+   * @param work the number of iterations
+   * @return the result which must be consumed
+   */
+  public static double work(final int work) {
+    double sum = 0;
+    for (int i = 0; i < work; ++i) {
+      sum += Math.sqrt(i);
+    }
+    return sum;
+  }
+
+  /** The amount of work. */
+  final int work;
+
+  /** The children. */
+  final Node[] children;
+
+  /**
+   * Instantiates a new leaf.
+   * 
+   * @param work the amount of work
+   */
+  Node(final int work) {
+    this(work, Node.NO_CHILDREN);
+  }
+
+  /**
+   * Instantiates a new node.
+   * 
+   * @param work the amount of work
+   * @param children the children
+   */
+  Node(final int work, final Node[] children) {
+    this.work = work;
+    this.children = children;
+  }
+
+  /**
+   * Count the nodes of the tree.
+   * 
+   * @return the number of nodes
+   */
+  public int count() {
+    int count = 1;
+    for (final Node child : children) {
+      count += child.count();
+    }
+    return count;
+  }
+}
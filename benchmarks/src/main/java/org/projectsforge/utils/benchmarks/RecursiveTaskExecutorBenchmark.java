@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectsforge.utils.tasksexecutor.ExecutorBackend;
+import org.projectsforge.utils.tasksexecutor.RecursiveTask;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
+import org.projectsforge.utils.tasksexecutor.SchedulingMode;
+import org.projectsforge.utils.tasksexecutor.WaitStrategy;
+
+/**
+ * The throughput and the latency of the execution of task trees by
+ * {@link RecursiveTaskExecutor}. The baselines are measured by
+ * {@link BaselineBenchmark}.
+ * 
+ * @author Sébastien Aupetit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RecursiveTaskExecutorBenchmark {
+
+  /**
+   * The task executing a node of the tree.
+   */
+  static final class NodeTask extends RecursiveTask {
+
+    /** The executor. */
+    private final RecursiveTaskExecutor executor;
+
+    /** The node. */
+    private final Node node;
+
+    /** The result of the work. */
+    double result;
+
+    NodeTask(final RecursiveTaskExecutor executor, final Node node) {
+      this.executor = executor;
+      this.node = node;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      result = Node.work(node.work);
+      final Node[] children = node.children;
+      if (children.length > 0) {
+        final NodeTask[] tasks = new NodeTask[children.length];
+        for (int i = 0; i < children.length; ++i) {
+          tasks[i] = new NodeTask(executor, children[i]);
+        }
+        executor.execute(tasks);
+        for (final NodeTask task : tasks) {
+          result += task.result;
+        }
+      }
+    }
+  }
+
+  /** The shape of the tree. */
+  @Param({ "WIDE", "DEEP", "UNBALANCED", "TINY" })
+  public TreeShape shape;
+
+  /**
+   * The executor: SEQUENTIAL (no thread), a scheduling mode and a wait strategy
+   * of the recursive backend or the name of another {@link ExecutorBackend}. A
+   * backend which is not supported by the JVM is skipped: nothing is executed
+   * and its scores must be ignored.
+   */
+  @Param({ "SEQUENTIAL", "GLOBAL_LIST/POLLING", "GLOBAL_LIST/PARK", "WORK_STEALING/PARK", "FORK_JOIN",
+      "VIRTUAL_THREADS" })
+  public String executorName;
+
+  /** The number of threads (0 for the number of processors). */
+  @Param({ "0" })
+  public int threadCount;
+
+  /** The root of the tree. */
+  private Node root;
+
+  /** The executor or null if the backend is not supported. */
+  private RecursiveTaskExecutor executor;
+
+  /**
+   * Execute the tree.
+   * 
+   * @return the sum of the results of the tasks
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   */
+  @Benchmark
+  public double executeTree() throws RecursiveTaskExecutorException {
+    if (executor == null) {
+      return 0;
+    }
+    final NodeTask task = new NodeTask(executor, root);
+    executor.execute(new NodeTask[] { task });
+    return task.result;
+  }
+
+  /**
+   * Build the tree and the executor.
+   */
+  @Setup
+  public void setUp() {
+    root = shape.build();
+    final ThreadGroup threadGroup = new ThreadGroup("RecursiveTaskExecutorBenchmark");
+    final int threads = (threadCount > 0) ? threadCount : Runtime.getRuntime().availableProcessors();
+    if ("SEQUENTIAL".equals(executorName)) {
+      executor = new RecursiveTaskExecutor(threadGroup, 0);
+    } else if (executorName.indexOf('/') != -1) {
+      final String[] parts = executorName.split("/");
+      executor = new RecursiveTaskExecutor(threadGroup, threads, SchedulingMode.valueOf(parts[0]),
+          WaitStrategy.valueOf(parts[1]));
+    } else {
+      final ExecutorBackend backend = ExecutorBackend.valueOf(executorName);
+      if (backend.isSupported()) {
+        executor = backend.createExecutor(threadGroup, threads);
+      } else {
+        // JMH can not skip a parameter value: the benchmark does nothing
+        System.err.println("Backend " + backend + " is not supported by this JVM: skipped");
+        executor = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.benchmarks;
+
+import java.util.Random;
+
+/**
+ * The shapes of the benchmarked task trees.
+ * 
+ * @author Sébastien Aupetit
+ */
+public enum TreeShape {
+
+  /** A root with 1000 leaves of equal work. */
+  WIDE {
+    @Override
+    public Node build() {
+      final Node[] leaves = new Node[1000];
+      for (int i = 0; i < leaves.length; ++i) {
+        leaves[i] = new Node(2000);
+      }
+      return new Node(0, leaves);
+    }
+  },
+
+  /** A complete binary tree of depth 14. */
+  DEEP {
+    @Override
+    public Node build() {
+      return binary(14);
+    }
+
+    private Node binary(final int depth) {
+      if (depth == 0) {
+        return new Node(200);
+      }
+      return new Node(200, new Node[] { binary(depth - 1), binary(depth - 1) });
+    }
+  },
+
+  /**
+   * A random tree of depth 8 with 1 to 7 children per node and a random work
+   * per node (the tree formerly timed by TestPerformance).
+   */
+  UNBALANCED {
+    @Override
+    public Node build() {
+      return random(new Random(1), 1);
+    }
+
+    private Node random(final Random random, final int depth) {
+      Node[] children = new Node[0];
+      if (depth <= 7) {
+        children = new Node[1 + random.nextInt(7)];
+        for (int i = 0; i < children.length; ++i) {
+          children[i] = random(random, depth + 1);
+        }
+      }
+      return new Node(random.nextInt(10000), children);
+    }
+  },
+
+  /** A tree of depth 4 and width 10 whose tasks do almost nothing. */
+  TINY {
+    @Override
+    public Node build() {
+      return uniform(4);
+    }
+
+    private Node uniform(final int depth) {
+      if (depth == 0) {
+        return new Node(10);
+      }
+      final Node[] children = new Node[10];
+      for (int i = 0; i < children.length; ++i) {
+        children[i] = uniform(depth - 1);
+      }
+      return new Node(10, children);
+    }
+  };
+
+  /**
+   * Builds the tree.
+   * 
+   * @return the root of the tree
+   */
+  public abstract Node build();
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * An event listener list delivering the events asynchronously, so that slow
+ * listeners do not delay the publisher. Each listener has its own bounded
+ * buffer, allocated on registration, and its own thread taking the events and
+ * delivering them by batches. The behavior when a buffer is full is given by
+ * an {@link OverflowPolicy}. The thread of a listener runs until the listener
+ * is removed, collected for a weak listener, or the list is closed, so
+ * {@link #close()} must be called once the list is no longer used.
+ * 
+ * @param <TEvent> the type of the events
+ * @author Sébastien Aupetit
+ */
+public class AsyncEventListenerList<TEvent> extends EventListenerList<EventBatchListener<TEvent>> {
+
+  /**
+   * A list view of the events of a batch, reused for each batch.
+   */
+  private static final class BatchView<TEvent> extends AbstractList<TEvent> implements RandomAccess {
+
+    /** The events. */
+    private final Object[] events;
+
+    /** The number of events. */
+    private int size;
+
+    BatchView(final Object[] events) {
+      this.events = events;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public TEvent get(final int index) {
+      if (index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return (TEvent) events[index];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * The registration of a listener: it removes the listener from the list and
+   * stops its delivery.
+   */
+  private final class Registration implements ListenerRegistration {
+
+    /** The registration in the listener list. */
+    private final ListenerRegistration registration;
+
+    /** The delivery to the listener. */
+    private final Subscription<?> subscription;
+
+    Registration(final ListenerRegistration registration, final Subscription<?> subscription) {
+      this.registration = registration;
+      this.subscription = subscription;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.projectsforge.utils.events.ListenerRegistration#remove()
+     */
+    @Override
+    public void remove() {
+      registration.remove();
+      unsubscribe(subscription);
+    }
+  }
+
+  /**
+   * The delivery of the events to a listener: its buffer and the thread
+   * consuming it.
+   */
+  private static final class Subscription<TEvent> implements Runnable {
+
+    /** The listener if it is strongly held, null otherwise. */
+    private final EventBatchListener<TEvent> listener;
+
+    /** The reference of a weak listener or null. */
+    private final WeakReference<EventBatchListener<TEvent>> reference;
+
+    /** The buffer. */
+    private final EventRingBuffer buffer;
+
+    /** The maximum number of events per batch. */
+    private final int maxBatchSize;
+
+    /** The behavior when the buffer is full. */
+    private final OverflowPolicy overflowPolicy;
+
+    /** The consumer thread. */
+    private final Thread thread;
+
+    Subscription(final EventBatchListener<TEvent> listener, final int capacity, final int maxBatchSize,
+        final OverflowPolicy overflowPolicy, final ReferenceQueue<Object> collectedListeners) {
+      if (collectedListeners == null) {
+        this.listener = listener;
+        this.reference = null;
+      } else {
+        this.listener = null;
+        this.reference = new WeakReference<>(listener, collectedListeners);
+      }
+      this.buffer = new EventRingBuffer(capacity);
+      this.maxBatchSize = maxBatchSize;
+      this.overflowPolicy = overflowPolicy;
+      thread = new Thread(this, "AsyncEventListenerList " + listener);
+      thread.setDaemon(true);
+    }
+
+    /**
+     * Deliver a batch to the listener. A weak listener is only strongly held
+     * during the call.
+     * 
+     * @param events the events
+     * @return false, if the weak listener has been collected
+     */
+    private boolean deliver(final List<TEvent> events) {
+      final EventBatchListener<TEvent> current = getListener();
+      if (current == null) {
+        return false;
+      }
+      current.eventsOccurred(events);
+      return true;
+    }
+
+    /**
+     * Gets the listener.
+     * 
+     * @return the listener or null if the weak listener has been collected
+     */
+    EventBatchListener<TEvent> getListener() {
+      return (reference == null) ? listener : reference.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+      final Object[] batch = new Object[maxBatchSize];
+      final BatchView<TEvent> view = new BatchView<>(batch);
+      try {
+        int count;
+        while ((count = buffer.take(batch)) > 0) {
+          view.size = count;
+          try {
+            if (!deliver(view)) {
+              // the weak listener has been collected
+              break;
+            }
+          } catch (final RuntimeException e) {
+            // the next events are still delivered
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+          } finally {
+            Arrays.fill(batch, 0, count, null);
+            buffer.batchDelivered();
+          }
+        }
+      } catch (final InterruptedException e) {
+        // the delivery stops
+      } finally {
+        // an error stops the delivery too: the next events are refused instead
+        // of being waited for
+        buffer.consumerTerminated();
+      }
+    }
+  }
+
+  /** The serialVersionUID. */
+  private static final long serialVersionUID = 0;
+
+  /** The default size of the buffer of a listener. */
+  private final int capacity;
+
+  /** The default maximum number of events per batch. */
+  private final int maxBatchSize;
+
+  /** The default behavior when the buffer of a listener is full. */
+  private final OverflowPolicy overflowPolicy;
+
+  /** The subscriptions of the listeners (copy on write). */
+  private transient volatile Subscription<?>[] subscriptions = new Subscription<?>[0];
+
+  /** Indicate that the list is closed. */
+  private transient boolean closed = false;
+
+  /** The queue of the references of the collected weak listeners. */
+  private transient volatile ReferenceQueue<Object> collectedListeners;
+
+  /**
+   * The Constructor.
+   * 
+   * @param capacity the default size of the buffer of a listener
+   * @param maxBatchSize the default maximum number of events per batch
+   * @param overflowPolicy the default behavior when the buffer of a listener is
+   *          full
+   */
+  public AsyncEventListenerList(final int capacity, final int maxBatchSize, final OverflowPolicy overflowPolicy) {
+    AsyncEventListenerList.checkParameters(capacity, maxBatchSize, overflowPolicy);
+    this.capacity = capacity;
+    this.maxBatchSize = maxBatchSize;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Check the parameters of a delivery.
+   * 
+   * @param capacity the size of the buffer
+   * @param maxBatchSize the maximum number of events per batch
+   * @param overflowPolicy the behavior when the buffer is full
+   */
+  private static void checkParameters(final int capacity, final int maxBatchSize,
+      final OverflowPolicy overflowPolicy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive");
+    }
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("The maximum batch size must be positive");
+    }
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("The overflow policy is required");
+    }
+  }
+
+  /**
+   * Add an event listener with the default delivery parameters.
+   * 
+   * @param listener the event listener
+   */
+  @Override
+  public synchronized void add(final EventBatchListener<TEvent> listener) {
+    add(listener, capacity, maxBatchSize, overflowPolicy);
+  }
+
+  /**
+   * Add an event listener with its own delivery parameters.
+   * 
+   * @param listener the event listener
+   * @param capacity the size of the buffer of the listener
+   * @param maxBatchSize the maximum number of events per batch
+   * @param overflowPolicy the behavior when the buffer of the listener is full
+   */
+  public synchronized void add(final EventBatchListener<TEvent> listener, final int capacity,
+      final int maxBatchSize, final OverflowPolicy overflowPolicy) {
+    AsyncEventListenerList.checkParameters(capacity, maxBatchSize, overflowPolicy);
+    super.add(listener);
+    subscribe(listener, capacity, maxBatchSize, overflowPolicy, null);
+  }
+
+  /**
+   * Add event listeners with the default delivery parameters.
+   * 
+   * @param listeners the event listeners
+   */
+  @Override
+  public synchronized void addAll(final Collection<? extends EventBatchListener<TEvent>> listeners) {
+    super.addAll(listeners);
+    for (final EventBatchListener<TEvent> listener : listeners) {
+      subscribe(listener, capacity, maxBatchSize, overflowPolicy, null);
+    }
+  }
+
+  /**
+   * Add an event listener which can be collected while it is registered, with
+   * the default delivery parameters. Its thread only holds it while it delivers
+   * a batch and stops once it has been collected: at the latest on the next
+   * publication.
+   * 
+   * @param listener the event listener
+   * @param listenerClass the listener interface
+   * @return the registration of the listener, which also stops its thread
+   */
+  @Override
+  public synchronized ListenerRegistration addWeak(final EventBatchListener<TEvent> listener,
+      final Class<? super EventBatchListener<TEvent>> listenerClass) {
+    final ListenerRegistration registration = super.addWeak(listener, listenerClass);
+    if (collectedListeners == null) {
+      collectedListeners = new ReferenceQueue<>();
+    }
+    return new Registration(registration,
+        subscribe(listener, capacity, maxBatchSize, overflowPolicy, collectedListeners));
+  }
+
+  /**
+   * Wait until the events published before have been delivered to the
+   * listeners.
+   * 
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void awaitDelivery() throws InterruptedException {
+    for (final Subscription<?> subscription : subscriptions) {
+      subscription.buffer.awaitDelivery();
+    }
+  }
+
+  /**
+   * Stop the delivery once the events already published are delivered. The
+   * events published afterwards are dropped. The threads of the listeners
+   * terminate after their last delivery, including the ones of the listeners
+   * added afterwards.
+   */
+  public synchronized void close() {
+    closed = true;
+    for (final Subscription<?> subscription : subscriptions) {
+      subscription.buffer.close();
+    }
+  }
+
+  /**
+   * Gets the number of events coalesced by the buffers of the listeners.
+   * 
+   * @return the number of coalesced events
+   */
+  public long getCoalescedEventCount() {
+    long count = 0;
+    for (final Subscription<?> subscription : subscriptions) {
+      count += subscription.buffer.getCoalescedCount();
+    }
+    return count;
+  }
+
+  /**
+   * Gets the number of events which have not been delivered to a listener
+   * because its buffer was full.
+   * 
+   * @return the number of dropped events
+   */
+  public long getDroppedEventCount() {
+    long count = 0;
+    for (final Subscription<?> subscription : subscriptions) {
+      count += subscription.buffer.getDroppedCount();
+    }
+    return count;
+  }
+
+  /**
+   * Publish an event to the listeners. In {@link OverflowPolicy#BLOCK} mode, it
+   * waits while the buffer of a listener is full. If the thread is interrupted
+   * meanwhile, the event is dropped for the remaining listeners and the
+   * interrupt status is kept.
+   * 
+   * @param event the event
+   */
+  public void publish(final TEvent event) {
+    final ReferenceQueue<Object> queue = collectedListeners;
+    if (queue != null && queue.poll() != null) {
+      pruneCollected();
+    }
+    boolean interrupted = false;
+    for (final Subscription<?> subscription : subscriptions) {
+      try {
+        subscription.buffer.put(event, interrupted ? OverflowPolicy.DROP : subscription.overflowPolicy);
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stop the delivery to the collected weak listeners.
+   */
+  private synchronized void pruneCollected() {
+    while (collectedListeners.poll() != null) {
+      // the subscriptions are found by scanning the list
+    }
+    final Subscription<?>[] current = subscriptions;
+    final Subscription<?>[] tmp = new Subscription<?>[current.length];
+    int kept = 0;
+    for (final Subscription<?> subscription : current) {
+      if (subscription.getListener() == null) {
+        subscription.buffer.close();
+      } else {
+        tmp[kept++] = subscription;
+      }
+    }
+    if (kept != current.length) {
+      subscriptions = Arrays.copyOf(tmp, kept);
+    }
+  }
+
+  /**
+   * Deserialize the list: the delivery of the listeners uses the default
+   * parameters.
+   * 
+   * @param s the ObjectInputStream
+   * @throws IOException if an IO error occur
+   * @throws ClassNotFoundException if the class of a serialized object can not
+   *           be found
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
+    s.defaultReadObject();
+    subscriptions = new Subscription<?>[0];
+    for (final Object listener : listenerList) {
+      subscribe((EventBatchListener<TEvent>) listener, capacity, maxBatchSize, overflowPolicy, null);
+    }
+  }
+
+  /**
+   * Add an event listener which can be removed through its registration, with
+   * the default delivery parameters.
+   * 
+   * @param listener the event listener
+   * @param listenerClass the listener interface
+   * @return the registration of the listener, which also stops its thread
+   */
+  @Override
+  public synchronized ListenerRegistration register(final EventBatchListener<TEvent> listener,
+      final Class<? super EventBatchListener<TEvent>> listenerClass) {
+    final ListenerRegistration registration = super.register(listener, listenerClass);
+    return new Registration(registration, subscribe(listener, capacity, maxBatchSize, overflowPolicy, null));
+  }
+
+  /**
+   * Remove an event listener from the list. The events already published are
+   * still delivered to it.
+   * 
+   * @param listener the listener
+   */
+  @Override
+  public synchronized void remove(final EventBatchListener<TEvent> listener) {
+    super.remove(listener);
+    final Subscription<?>[] current = subscriptions;
+    for (int i = current.length - 1; i >= 0; --i) {
+      final Object subscribed = current[i].getListener();
+      if (subscribed != null && subscribed.equals(listener)) {
+        final Subscription<?>[] tmp = new Subscription<?>[current.length - 1];
+        System.arraycopy(current, 0, tmp, 0, i);
+        System.arraycopy(current, i + 1, tmp, i, tmp.length - i);
+        subscriptions = tmp;
+        current[i].buffer.close();
+        break;
+      }
+    }
+  }
+
+  /**
+   * Remove all the occurrences of event listeners from the list. The events
+   * already published are still delivered to them.
+   * 
+   * @param listeners the listeners
+   */
+  @Override
+  public synchronized void removeAll(final Collection<?> listeners) {
+    super.removeAll(listeners);
+    final Set<?> removed = new HashSet<>(listeners);
+    final Subscription<?>[] current = subscriptions;
+    final Subscription<?>[] tmp = new Subscription<?>[current.length];
+    int kept = 0;
+    for (final Subscription<?> subscription : current) {
+      if (removed.contains(subscription.getListener())) {
+        subscription.buffer.close();
+      } else {
+        tmp[kept++] = subscription;
+      }
+    }
+    if (kept != current.length) {
+      subscriptions = Arrays.copyOf(tmp, kept);
+    }
+  }
+
+  /**
+   * Start the delivery to a listener.
+   * 
+   * @param listener the listener
+   * @param capacity the size of the buffer of the listener
+   * @param maxBatchSize the maximum number of events per batch
+   * @param overflowPolicy the behavior when the buffer of the listener is full
+   * @param queue the queue of the collected weak listeners or null to hold the
+   *          listener strongly
+   * @return the subscription
+   */
+  private Subscription<TEvent> subscribe(final EventBatchListener<TEvent> listener, final int capacity,
+      final int maxBatchSize, final OverflowPolicy overflowPolicy, final ReferenceQueue<Object> queue) {
+    final Subscription<TEvent> subscription = new Subscription<>(listener, capacity, maxBatchSize, overflowPolicy,
+        queue);
+    final Subscription<?>[] current = subscriptions;
+    final Subscription<?>[] tmp = Arrays.copyOf(current, current.length + 1);
+    tmp[current.length] = subscription;
+    subscriptions = tmp;
+    if (closed) {
+      subscription.buffer.close();
+    }
+    subscription.thread.start();
+    return subscription;
+  }
+
+  /**
+   * Stop the delivery to a registered listener.
+   * 
+   * @param subscription the subscription of the listener
+   */
+  private synchronized void unsubscribe(final Subscription<?> subscription) {
+    final Subscription<?>[] current = subscriptions;
+    for (int i = current.length - 1; i >= 0; --i) {
+      if (current[i] == subscription) {
+        final Subscription<?>[] tmp = new Subscription<?>[current.length - 1];
+        System.arraycopy(current, 0, tmp, 0, i);
+        System.arraycopy(current, i + 1, tmp, i, tmp.length - i);
+        subscriptions = tmp;
+        subscription.buffer.close();
+        break;
+      }
+    }
+  }
+}
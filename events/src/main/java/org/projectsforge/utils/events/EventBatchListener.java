@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import java.util.List;
+
+/**
+ * The listener of an {@link AsyncEventListenerList}. It receives the events by
+ * batches, in the order of their publication, on a thread dedicated to it.
+ * 
+ * @param <TEvent> the type of the events
+ * @author Sébastien Aupetit
+ */
+public interface EventBatchListener<TEvent> {
+
+  /**
+   * Notify a batch of events. The list is reused for the next batch: it must
+   * not be kept after the call.
+   * 
+   * @param events the events, at least one
+   */
+  void eventsOccurred(List<TEvent> events);
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An event listener list notifying its listeners through a dispatcher: an
+ * object implementing the listener interface which forwards each call to all
+ * the listeners, e.g. {@code listeners.fire().somethingHappened(event)}. The
+ * class of the dispatcher is generated with javassist and the dispatcher is
+ * rebuilt on each registration, so that the notifications have neither casts
+ * nor megamorphic loops. The methods of the listener interface must return
+ * void.
+ * <p>
+ * A listener can consume only some methods, its topics, declared with
+ * {@link #add(Object, String...)} or with the {@link EventTopics} annotation of
+ * its class. The dispatcher then forwards each method to the dispatcher of the
+ * listeners consuming it, so that a method consumed by no listener costs a
+ * single empty call.
+ * 
+ * @param <TEventListener> the type of the event listeners
+ * @author Sébastien Aupetit
+ */
+public class EventDispatcher<TEventListener> extends EventListenerList<TEventListener> {
+
+  /** The serialVersionUID. */
+  private static final long serialVersionUID = 0;
+
+  /** The listener interface. */
+  private final Class<? super TEventListener> listenerClass;
+
+  /** The topics of the listeners added with explicit topics. */
+  private transient Map<Object, String[]> listenerTopics = new IdentityHashMap<>();
+
+  /** The generator of the dispatchers. */
+  private transient EventDispatcherGenerator generator;
+
+  /** The dispatcher of the current listeners. */
+  private transient volatile TEventListener dispatcher;
+
+  /**
+   * The Constructor.
+   * 
+   * @param listenerClass the listener interface, raw for a generic interface
+   * @throws IllegalArgumentException if the class is not a public interface
+   *           whose methods return void
+   */
+  public EventDispatcher(final Class<? super TEventListener> listenerClass) {
+    this.listenerClass = listenerClass;
+    updateDispatcher();
+  }
+
+  /**
+   * Add an event listener notified only of some methods of the listener
+   * interface. The topics override the {@link EventTopics} annotation of the
+   * listener.
+   * 
+   * @param listener the event listener
+   * @param topics the names of the methods consumed by the listener
+   * @throws IllegalArgumentException if a topic is not a method of the listener
+   *           interface
+   */
+  public synchronized void add(final TEventListener listener, final String... topics) {
+    for (final String topic : topics) {
+      if (!isTopic(topic)) {
+        throw new IllegalArgumentException(topic + " is not a method of " + listenerClass.getName());
+      }
+    }
+    if (listener != null) {
+      listenerTopics.put(listener, topics.clone());
+    }
+    add(listener);
+  }
+
+  /**
+   * Add an event listener which can be collected while it is registered.
+   * 
+   * @param listener the event listener
+   * @return the registration of the listener
+   * @see EventListenerList#addWeak(Object, Class)
+   */
+  public ListenerRegistration addWeak(final TEventListener listener) {
+    return addWeak(listener, listenerClass);
+  }
+
+  /**
+   * Gets the dispatcher notifying the listeners registered when it is
+   * called. A listener registered during a notification is notified from the
+   * next one.
+   * 
+   * @return the dispatcher
+   */
+  public TEventListener fire() {
+    return dispatcher;
+  }
+
+  /**
+   * Gets the listener interface.
+   * 
+   * @return the listener interface
+   */
+  public Class<? super TEventListener> getListenerClass() {
+    return listenerClass;
+  }
+
+  /**
+   * Gets the topics consumed by the current listeners and forget the explicit
+   * topics of the removed listeners.
+   * 
+   * @param list the listeners
+   * @return the topics indexed as the listeners (null for the listeners
+   *         consuming all the methods) or null if every listener consumes all
+   *         the methods
+   */
+  private String[][] getConsumedTopics(final Object[] list) {
+    String[][] consumed = null;
+    final Map<Object, String[]> present = new IdentityHashMap<>();
+    for (int i = 0; i < list.length; ++i) {
+      final Object listener = getRegisteredListener(i);
+      if (listener == null) {
+        continue;
+      }
+      String[] topics = listenerTopics.get(listener);
+      if (topics != null) {
+        present.put(listener, topics);
+      } else {
+        final EventTopics annotation = listener.getClass().getAnnotation(EventTopics.class);
+        if (annotation != null) {
+          topics = annotation.value();
+        }
+      }
+      if (topics != null) {
+        if (consumed == null) {
+          consumed = new String[list.length][];
+        }
+        consumed[i] = topics;
+      }
+    }
+    if (present.size() != listenerTopics.size()) {
+      listenerTopics.keySet().retainAll(present.keySet());
+    }
+    return consumed;
+  }
+
+  /**
+   * Checks if a name is the name of a method of the listener interface.
+   * 
+   * @param topic the name
+   * @return true, if it is a topic
+   */
+  private boolean isTopic(final String topic) {
+    for (final Method method : generator.getMethods()) {
+      if (method.getName().equals(topic)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.events.EventListenerList#listenersChanged()
+   */
+  @Override
+  protected void listenersChanged() {
+    updateDispatcher();
+  }
+
+  /**
+   * Deserialize the list.
+   * 
+   * @param s the ObjectInputStream
+   * @throws IOException if an IO error occur
+   * @throws ClassNotFoundException if the class of a serialized object can not
+   *           be found
+   */
+  private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
+    s.defaultReadObject();
+    listenerTopics = new IdentityHashMap<>();
+    final int count = s.readInt();
+    for (int i = 0; i < count; ++i) {
+      final Object listener = s.readObject();
+      listenerTopics.put(listener, (String[]) s.readObject());
+    }
+    updateDispatcher();
+  }
+
+  /**
+   * Add an event listener which can be removed in constant amortized time
+   * through its registration.
+   * 
+   * @param listener the event listener
+   * @return the registration of the listener
+   * @see EventListenerList#register(Object, Class)
+   */
+  public ListenerRegistration register(final TEventListener listener) {
+    return register(listener, listenerClass);
+  }
+
+  /**
+   * Rebuild the dispatcher from the current listeners.
+   */
+  @SuppressWarnings("unchecked")
+  private synchronized void updateDispatcher() {
+    if (generator == null) {
+      generator = EventDispatcherGenerator.getGenerator(listenerClass);
+    }
+    final Object[] list = listenerList;
+    final String[][] consumed = getConsumedTopics(list);
+    // the dispatchers implement the erasure of the listener type
+    if (consumed == null) {
+      dispatcher = (TEventListener) generator.createDispatcher(list);
+      return;
+    }
+    final List<Method> methods = generator.getMethods();
+    final Object[] dispatchers = new Object[methods.size()];
+    final Object[] selected = new Object[list.length];
+    for (int m = 0; m < dispatchers.length; ++m) {
+      final String topic = methods.get(m).getName();
+      int count = 0;
+      for (int i = 0; i < list.length; ++i) {
+        if (consumed[i] == null || Arrays.asList(consumed[i]).contains(topic)) {
+          selected[count++] = list[i];
+        }
+      }
+      dispatchers[m] = generator.createDispatcher(Arrays.copyOf(selected, count));
+    }
+    dispatcher = (TEventListener) generator.createTopicDispatcher(dispatchers);
+  }
+
+  /**
+   * Serialize the explicit topics of the serialized listeners.
+   * 
+   * @param s the ObjectOutputStream
+   * @throws IOException if an IO error occurs while writing objects
+   */
+  private void writeObject(final ObjectOutputStream s) throws IOException {
+    final Object[] listeners = getSerializedListeners();
+    final Map<Object, String[]> topics = new IdentityHashMap<>();
+    synchronized (this) {
+      for (final Object listener : listeners) {
+        final String[] listenerTopic = listenerTopics.get(listener);
+        if (listenerTopic != null) {
+          topics.put(listener, listenerTopic);
+        }
+      }
+    }
+    s.defaultWriteObject();
+
+    s.writeInt(topics.size());
+    for (final Map.Entry<Object, String[]> entry : topics.entrySet()) {
+      s.writeObject(entry.getKey());
+      s.writeObject(entry.getValue());
+    }
+  }
+}
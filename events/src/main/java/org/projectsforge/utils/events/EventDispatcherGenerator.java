@@ -0,0 +1,373 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+
+/**
+ * The generator of the dispatchers of a listener interface (internal use
+ * only). A dispatcher implements the interface and calls the listeners of a
+ * snapshot stored in fields of the interface type, so that there is neither
+ * cast nor shared call site. Up to {@link #MAX_UNROLLED_LISTENERS} listeners,
+ * the calls are unrolled: a class is generated for each number of listeners.
+ * Above, a class loops over a typed array. It also generates the weak
+ * forwarders of the weakly registered listeners and the topic dispatchers
+ * which forward each method to the dispatcher of the listeners consuming it.
+ * 
+ * @author Sébastien Aupetit
+ * @see EventDispatcher
+ */
+final class EventDispatcherGenerator {
+
+  /**
+   * The class loader defining the generated classes. The generated classes
+   * only refer to the listener interface, so that its class loader is the
+   * parent.
+   */
+  private static final class GeneratedClassLoader extends ClassLoader {
+
+    GeneratedClassLoader(final ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(final String name, final byte[] bytecode) {
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+
+  /** The maximum number of listeners called by unrolled code. */
+  static final int MAX_UNROLLED_LISTENERS = 8;
+
+  /** The kind of the generated class looping over the listeners. */
+  private static final int LOOP = -1;
+
+  /** The kind of the generated class forwarding to a weak reference. */
+  private static final int WEAK = -2;
+
+  /** The kind of the generated class forwarding each method to a dispatcher. */
+  private static final int TOPICS = -3;
+
+  /**
+   * The generators of the listener interfaces. They are attached to the
+   * interfaces, so that they do not prevent the unloading of their class
+   * loaders.
+   */
+  private static final ClassValue<EventDispatcherGenerator> generators = new ClassValue<EventDispatcherGenerator>() {
+
+    @Override
+    protected EventDispatcherGenerator computeValue(final Class<?> listenerClass) {
+      return new EventDispatcherGenerator(listenerClass);
+    }
+  };
+
+  /**
+   * Gets the generator of a listener interface.
+   * 
+   * @param listenerClass the listener interface
+   * @return the generator
+   * @throws IllegalArgumentException if the class is not a public interface
+   *           whose methods return void
+   */
+  static EventDispatcherGenerator getGenerator(final Class<?> listenerClass) {
+    return EventDispatcherGenerator.generators.get(listenerClass);
+  }
+
+  /**
+   * Gets the name of a type in the source code.
+   * 
+   * @param type the type
+   * @return the name
+   */
+  private static String getTypeName(final Class<?> type) {
+    if (type.isArray()) {
+      return EventDispatcherGenerator.getTypeName(type.getComponentType()) + "[]";
+    }
+    return type.getName();
+  }
+
+  /** The listener interface. */
+  private final Class<?> listenerClass;
+
+  /** The methods of the listener interface. */
+  private final List<Method> methods = new ArrayList<>();
+
+  /**
+   * The constructors of the dispatchers with unrolled calls indexed by the
+   * number of listeners.
+   */
+  private final Constructor<?>[] unrolledConstructors = new Constructor<?>[EventDispatcherGenerator.MAX_UNROLLED_LISTENERS
+      + 1];
+
+  /** The constructor of the dispatcher looping over the listeners. */
+  private Constructor<?> loopConstructor;
+
+  /** The constructor of the weak forwarder. */
+  private Constructor<?> weakConstructor;
+
+  /** The constructor of the topic dispatcher. */
+  private Constructor<?> topicConstructor;
+
+  /**
+   * The Constructor.
+   * 
+   * @param listenerClass the listener interface
+   */
+  private EventDispatcherGenerator(final Class<?> listenerClass) {
+    if (!listenerClass.isInterface() || !Modifier.isPublic(listenerClass.getModifiers())) {
+      throw new IllegalArgumentException(listenerClass.getName() + " is not a public interface");
+    }
+    this.listenerClass = listenerClass;
+    // a method inherited from several interfaces is implemented once
+    final Set<String> signatures = new HashSet<>();
+    for (final Method method : listenerClass.getMethods()) {
+      if (Modifier.isStatic(method.getModifiers())) {
+        continue;
+      }
+      if (method.getReturnType() != Void.TYPE) {
+        throw new IllegalArgumentException("Method " + method + " in " + listenerClass.getName()
+            + " must return void");
+      }
+      if (signatures.add(method.getName() + Arrays.toString(method.getParameterTypes()))) {
+        methods.add(method);
+      }
+    }
+  }
+
+  /**
+   * Create a dispatcher calling a snapshot of the listeners.
+   * 
+   * @param listeners the listeners
+   * @return the dispatcher
+   */
+  Object createDispatcher(final Object[] listeners) {
+    final Constructor<?> constructor = getConstructor(listeners.length);
+    try {
+      return constructor.newInstance(new Object[] { listeners });
+    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("A dispatcher can not be created for " + listenerClass.getName(), e);
+    }
+  }
+
+  /**
+   * Create a dispatcher forwarding each method of the listener interface to its
+   * own dispatcher.
+   * 
+   * @param dispatchers the dispatchers indexed as {@link #getMethods()}
+   * @return the dispatcher
+   */
+  Object createTopicDispatcher(final Object[] dispatchers) {
+    final Constructor<?> constructor;
+    synchronized (this) {
+      if (topicConstructor == null) {
+        try {
+          topicConstructor = generateClass(EventDispatcherGenerator.TOPICS).getConstructor(Object[].class);
+        } catch (CannotCompileException | NotFoundException | IOException | NoSuchMethodException e) {
+          throw new IllegalStateException("A topic dispatcher can not be generated for " + listenerClass.getName(), e);
+        }
+      }
+      constructor = topicConstructor;
+    }
+    try {
+      return constructor.newInstance(new Object[] { dispatchers });
+    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("A topic dispatcher can not be created for " + listenerClass.getName(), e);
+    }
+  }
+
+  /**
+   * Create a forwarder implementing the listener interface which calls the
+   * referenced listener as long as it is not collected.
+   * 
+   * @param reference the reference of the listener
+   * @return the forwarder
+   */
+  Object createWeakForwarder(final Reference<?> reference) {
+    final Constructor<?> constructor;
+    synchronized (this) {
+      if (weakConstructor == null) {
+        try {
+          weakConstructor = generateClass(EventDispatcherGenerator.WEAK).getConstructor(Reference.class);
+        } catch (CannotCompileException | NotFoundException | IOException | NoSuchMethodException e) {
+          throw new IllegalStateException("A weak forwarder can not be generated for " + listenerClass.getName(), e);
+        }
+      }
+      constructor = weakConstructor;
+    }
+    try {
+      return constructor.newInstance(reference);
+    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("A weak forwarder can not be created for " + listenerClass.getName(), e);
+    }
+  }
+
+  /**
+   * Generate the class of a dispatcher or of a weak forwarder.
+   * 
+   * @param listenerCount the number of listeners, {@link #LOOP} to loop over an
+   *          array, {@link #WEAK} to forward to a weak reference or
+   *          {@link #TOPICS} to forward each method to a dispatcher
+   * @return the class
+   * @throws CannotCompileException the cannot compile exception
+   * @throws NotFoundException the not found exception
+   * @throws IOException if the bytecode can not be written
+   */
+  private Class<?> generateClass(final int listenerCount) throws CannotCompileException, NotFoundException,
+      IOException {
+    final ClassPool pool = new ClassPool(null);
+    pool.appendSystemPath();
+    if (listenerClass.getClassLoader() != null) {
+      pool.appendClassPath(new LoaderClassPath(listenerClass.getClassLoader()));
+    }
+
+    final String listenerName = listenerClass.getName();
+    final String suffix;
+    if (listenerCount == EventDispatcherGenerator.WEAK) {
+      suffix = "$Weak";
+    } else if (listenerCount == EventDispatcherGenerator.TOPICS) {
+      suffix = "$Topics";
+    } else if (listenerCount == EventDispatcherGenerator.LOOP) {
+      suffix = "$Loop";
+    } else {
+      suffix = "$" + listenerCount;
+    }
+    final String className = EventDispatcher.class.getName() + "$" + listenerName.replace('.', '_') + suffix;
+    final CtClass cc = pool.makeClass(className);
+    cc.addInterface(pool.get(listenerName));
+    cc.setModifiers(javassist.Modifier.PUBLIC | javassist.Modifier.FINAL);
+
+    final StringBuilder constructorCode = new StringBuilder("{");
+    final CtClass constructorParameter;
+    if (listenerCount == EventDispatcherGenerator.WEAK) {
+      cc.addField(CtField.make("private final " + Reference.class.getName() + " reference;", cc));
+      constructorCode.append("reference = $1;");
+      constructorParameter = pool.get(Reference.class.getName());
+    } else if (listenerCount == EventDispatcherGenerator.TOPICS) {
+      for (int i = 0; i < methods.size(); ++i) {
+        cc.addField(CtField.make("private final " + listenerName + " d" + i + ";", cc));
+        constructorCode.append("d").append(i).append(" = (").append(listenerName).append(") $1[").append(i)
+            .append("];");
+      }
+      constructorParameter = pool.get("java.lang.Object[]");
+    } else if (listenerCount == EventDispatcherGenerator.LOOP) {
+      cc.addField(CtField.make("private final " + listenerName + "[] listeners;", cc));
+      constructorCode.append("listeners = new ").append(listenerName).append("[$1.length];");
+      constructorCode.append("System.arraycopy($1, 0, listeners, 0, $1.length);");
+      constructorParameter = pool.get("java.lang.Object[]");
+    } else {
+      for (int i = 0; i < listenerCount; ++i) {
+        cc.addField(CtField.make("private final " + listenerName + " l" + i + ";", cc));
+        constructorCode.append("l").append(i).append(" = (").append(listenerName).append(") $1[").append(i)
+            .append("];");
+      }
+      constructorParameter = pool.get("java.lang.Object[]");
+    }
+    constructorCode.append("}");
+    cc.addConstructor(CtNewConstructor.make(new CtClass[] { constructorParameter }, new CtClass[0],
+        constructorCode.toString(), cc));
+
+    for (int m = 0; m < methods.size(); ++m) {
+      final Method method = methods.get(m);
+      final Class<?>[] parameterTypes = method.getParameterTypes();
+      final CtClass[] ctParameterTypes = new CtClass[parameterTypes.length];
+      for (int i = 0; i < parameterTypes.length; ++i) {
+        ctParameterTypes[i] = pool.get(EventDispatcherGenerator.getTypeName(parameterTypes[i]));
+      }
+      final Class<?>[] exceptionTypes = method.getExceptionTypes();
+      final CtClass[] ctExceptionTypes = new CtClass[exceptionTypes.length];
+      for (int i = 0; i < exceptionTypes.length; ++i) {
+        ctExceptionTypes[i] = pool.get(exceptionTypes[i].getName());
+      }
+
+      final StringBuilder methodCode = new StringBuilder("{");
+      if (listenerCount == EventDispatcherGenerator.WEAK) {
+        // the collected listeners are not called until they are pruned
+        methodCode.append("Object listener = reference.get(); if (listener != null) { ((").append(listenerName)
+            .append(") listener).").append(method.getName()).append("($$); }");
+      } else if (listenerCount == EventDispatcherGenerator.TOPICS) {
+        methodCode.append("d").append(m).append(".").append(method.getName()).append("($$);");
+      } else if (listenerCount == EventDispatcherGenerator.LOOP) {
+        methodCode.append("for (int i = 0; i < listeners.length; ++i) { listeners[i].").append(method.getName())
+            .append("($$); }");
+      } else {
+        for (int i = 0; i < listenerCount; ++i) {
+          methodCode.append("l").append(i).append(".").append(method.getName()).append("($$);");
+        }
+      }
+      methodCode.append("}");
+      cc.addMethod(CtNewMethod.make(CtClass.voidType, method.getName(), ctParameterTypes, ctExceptionTypes,
+          methodCode.toString(), cc));
+    }
+
+    final byte[] bytecode = cc.toBytecode();
+    cc.detach();
+    return new GeneratedClassLoader(listenerClass.getClassLoader()).define(className, bytecode);
+  }
+
+  /**
+   * Gets the methods of the listener interface.
+   * 
+   * @return the methods
+   */
+  List<Method> getMethods() {
+    return Collections.unmodifiableList(methods);
+  }
+
+  /**
+   * Gets the constructor of the dispatchers for a number of listeners. The
+   * class is generated on first use.
+   * 
+   * @param listenerCount the number of listeners
+   * @return the constructor
+   */
+  private synchronized Constructor<?> getConstructor(final int listenerCount) {
+    final boolean unrolled = listenerCount <= EventDispatcherGenerator.MAX_UNROLLED_LISTENERS;
+    Constructor<?> constructor = unrolled ? unrolledConstructors[listenerCount] : loopConstructor;
+    if (constructor == null) {
+      try {
+        constructor = generateClass(unrolled ? listenerCount : EventDispatcherGenerator.LOOP).getConstructor(
+            Object[].class);
+      } catch (CannotCompileException | NotFoundException | IOException | NoSuchMethodException e) {
+        throw new IllegalStateException("A dispatcher can not be generated for " + listenerClass.getName(), e);
+      }
+      if (unrolled) {
+        unrolledConstructors[listenerCount] = constructor;
+      } else {
+        loopConstructor = constructor;
+      }
+    }
+    return constructor;
+  }
+}
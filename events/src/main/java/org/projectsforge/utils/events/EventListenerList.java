@@ -5,12 +5,12 @@
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- *
+ * 
  * This program is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
  * GNU General Public License for more details.
- *
+ * 
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
@@ -20,10 +20,27 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * A fast and simplified event listener list with lock-free retrieving of the
  * listeners.
+ * <p>
+ * A listener registered with {@link #addWeak(Object, Class)} does not prevent
+ * its collection: the list stores a forwarder implementing the listener
+ * interface which ignores the calls once the listener is collected. The
+ * forwarders of the collected listeners are pruned during the next update of
+ * the list, so that retrieving the listeners stays lock-free.
+ * <p>
+ * A listener registered with {@link #register(Object, Class)} is also called
+ * through a forwarder, so that its {@link ListenerRegistration} removes it in
+ * constant amortized time: the forwarder is disabled at once and the removed
+ * entries are pruned together, on the next update of the list or once half of
+ * its entries are removed.
  * 
  * @param <TEventListener> the type of the event listeners
  * @author Sébastien Aupetit
@@ -36,6 +53,22 @@ public class EventListenerList<TEventListener> implements Serializable {
   /** The list of the listeners. */
   protected transient Object[] listenerList = new Object[0];
 
+  /**
+   * The references of the listeners called through a forwarder indexed as the
+   * listener list (null for the other listeners) or null if there is no such
+   * listener.
+   */
+  private transient ListenerReference[] references;
+
+  /** The queue of the references of the collected weak listeners. */
+  private transient ReferenceQueue<Object> collectedListeners;
+
+  /** The number of removed registrations whose entry is still in the list. */
+  private transient int removedRegistrationCount;
+
+  /** The number of forwarders of collected listeners pruned from the list. */
+  private transient volatile long prunedListenerCount = 0;
+
   /**
    * Add an event listener.
    * 
@@ -45,19 +78,128 @@ public class EventListenerList<TEventListener> implements Serializable {
     if (listener == null) {
       throw new IllegalArgumentException("Can not manage null event listener");
     }
-    if (listenerList.length == 0) {
-      listenerList = new Object[] { listener };
+    append(listener, null);
+  }
+
+  /**
+   * Add event listeners with a single copy of the list.
+   * 
+   * @param listeners the event listeners
+   */
+  public synchronized void addAll(final Collection<? extends TEventListener> listeners) {
+    final Object[] added = listeners.toArray();
+    for (final Object listener : added) {
+      if (listener == null) {
+        throw new IllegalArgumentException("Can not manage null event listener");
+      }
+    }
+    if (added.length == 0) {
+      return;
+    }
+    prune();
+    final Object[] list = listenerList;
+    final Object[] tmp = new Object[list.length + added.length];
+    System.arraycopy(list, 0, tmp, 0, list.length);
+    System.arraycopy(added, 0, tmp, list.length, added.length);
+    if (references != null) {
+      final ListenerReference[] tmpReferences = new ListenerReference[tmp.length];
+      System.arraycopy(references, 0, tmpReferences, 0, list.length);
+      references = tmpReferences;
+    }
+    listenerList = tmp;
+    listenersChanged();
+  }
+
+  /**
+   * Add an event listener which can be collected while it is registered. The
+   * listener is notified as long as it is strongly reachable elsewhere.
+   * 
+   * @param listener the event listener
+   * @param listenerClass the listener interface, raw for a generic interface
+   * @return the registration of the listener
+   * @throws IllegalArgumentException if the class is not a public interface
+   *           whose methods return void
+   */
+  public synchronized ListenerRegistration addWeak(final TEventListener listener,
+      final Class<? super TEventListener> listenerClass) {
+    return addForwarded(listener, listenerClass, false);
+  }
+
+  /**
+   * Add an event listener called through a forwarder.
+   * 
+   * @param listener the event listener
+   * @param listenerClass the listener interface
+   * @param strong whether the list prevents the collection of the listener
+   * @return the registration of the listener
+   */
+  private ListenerRegistration addForwarded(final TEventListener listener,
+      final Class<? super TEventListener> listenerClass, final boolean strong) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Can not manage null event listener");
+    }
+    final EventDispatcherGenerator generator = EventDispatcherGenerator.getGenerator(listenerClass);
+    if (collectedListeners == null) {
+      collectedListeners = new ReferenceQueue<>();
+    }
+    final ListenerReference reference = new ListenerReference(listener, collectedListeners, this, strong);
+    append(generator.createWeakForwarder(reference), reference);
+    return reference;
+  }
+
+  /**
+   * Append a listener or a forwarder to the list.
+   * 
+   * @param element the listener or the forwarder
+   * @param reference the reference of the forwarded listener or null
+   */
+  private void append(final Object element, final ListenerReference reference) {
+    prune();
+    final int len = listenerList.length;
+    if (reference != null || references != null) {
+      final ListenerReference[] tmpReferences = new ListenerReference[len + 1];
+      if (references != null) {
+        System.arraycopy(references, 0, tmpReferences, 0, len);
+      }
+      tmpReferences[len] = reference;
+      references = tmpReferences;
+    }
+    if (len == 0) {
+      listenerList = new Object[] { element };
     } else {
-      final int len = listenerList.length;
       final Object[] tmp = new Object[len + 1];
       System.arraycopy(listenerList, 0, tmp, 0, len);
-      tmp[len] = listener;
+      tmp[len] = element;
       listenerList = tmp;
     }
+    listenersChanged();
+  }
+
+  /**
+   * Gets the number of listeners which are still notified: the removed
+   * registrations and the collected weak listeners which have not been pruned
+   * yet are not counted.
+   * 
+   * @return the number of listeners
+   */
+  public synchronized int getListenerCount() {
+    if (references == null) {
+      return listenerList.length;
+    }
+    int count = 0;
+    for (int i = 0; i < listenerList.length; ++i) {
+      if (references[i] == null || references[i].get() != null) {
+        ++count;
+      }
+    }
+    return count;
   }
 
   /**
-   * Return a non null list of listeners.
+   * Return a non null list of listeners. The list can still contain the
+   * disabled forwarders of removed registrations and of collected weak
+   * listeners until they are pruned: use {@link #getListenerCount()} to count
+   * the notified listeners.
    * 
    * @return the list of listeners
    */
@@ -65,6 +207,100 @@ public class EventListenerList<TEventListener> implements Serializable {
     return listenerList;
   }
 
+  /**
+   * Gets the number of weak listeners which have been collected and pruned
+   * from the list.
+   * 
+   * @return the number of pruned listeners
+   */
+  public long getPrunedListenerCount() {
+    return prunedListenerCount;
+  }
+
+  /**
+   * Gets the listener of an entry of the list: the entry itself or the
+   * listener called by the forwarder. The lock of the list must be held.
+   * 
+   * @param index the index of the entry
+   * @return the listener or null if it has been collected or removed
+   */
+  Object getRegisteredListener(final int index) {
+    if (references == null || references[index] == null) {
+      return listenerList[index];
+    }
+    return references[index].get();
+  }
+
+  /**
+   * Gets the listeners written by the serialization: the weak listeners are
+   * not serialized.
+   * 
+   * @return the listeners
+   */
+  synchronized Object[] getSerializedListeners() {
+    final Object[] list = new Object[listenerList.length];
+    int count = 0;
+    for (int i = 0; i < listenerList.length; ++i) {
+      final Object element = (references == null || references[i] == null) ? listenerList[i]
+          : references[i].listener;
+      if (element != null) {
+        list[count++] = element;
+      }
+    }
+    return Arrays.copyOf(list, count);
+  }
+
+  /**
+   * Called with the lock of the list held after each change of the listener
+   * list. The default implementation does nothing.
+   */
+  protected void listenersChanged() {
+    // nothing to do
+  }
+
+  /**
+   * Prune the forwarders of the collected weak listeners and of the removed
+   * registrations. The list is only copied when the reference queue reports a
+   * collection or when a registration has been removed.
+   */
+  private void prune() {
+    if (removedRegistrationCount == 0 && (collectedListeners == null || collectedListeners.poll() == null)) {
+      return;
+    }
+    while (collectedListeners.poll() != null) {
+      // the references are found by scanning the list
+    }
+    final Object[] list = listenerList;
+    final ListenerReference[] refs = references;
+    int kept = 0;
+    for (int i = 0; i < list.length; ++i) {
+      if (refs[i] == null || refs[i].get() != null) {
+        ++kept;
+      }
+    }
+    if (kept == list.length) {
+      return;
+    }
+    final Object[] tmp = new Object[kept];
+    final ListenerReference[] tmpReferences = new ListenerReference[kept];
+    int collected = 0;
+    int j = 0;
+    for (int i = 0; i < list.length; ++i) {
+      if (refs[i] == null || refs[i].get() != null) {
+        tmp[j] = list[i];
+        tmpReferences[j] = refs[i];
+        ++j;
+      } else if (!refs[i].removed) {
+        refs[i].discard();
+        ++collected;
+      }
+    }
+    listenerList = tmp;
+    references = tmpReferences;
+    removedRegistrationCount = 0;
+    prunedListenerCount += collected;
+  }
+
   /**
    * Deserialize the list.
    * 
@@ -73,15 +309,33 @@ public class EventListenerList<TEventListener> implements Serializable {
    * @throws ClassNotFoundException if the class of a serialized object can not
    *           be found
    */
-  @SuppressWarnings("unchecked")
   private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
-    listenerList = new Object[0];
     s.defaultReadObject();
     final int count = s.readInt();
 
+    final Object[] list = new Object[count];
     for (int i = 0; i < count; ++i) {
-      add((TEventListener) s.readObject());
+      list[i] = s.readObject();
+      if (list[i] == null) {
+        throw new IllegalArgumentException("Can not manage null event listener");
+      }
     }
+    listenerList = list;
+  }
+
+  /**
+   * Add an event listener which can be removed in constant amortized time
+   * through its registration. The listener is called through a forwarder.
+   * 
+   * @param listener the event listener
+   * @param listenerClass the listener interface, raw for a generic interface
+   * @return the registration of the listener
+   * @throws IllegalArgumentException if the class is not a public interface
+   *           whose methods return void
+   */
+  public synchronized ListenerRegistration register(final TEventListener listener,
+      final Class<? super TEventListener> listenerClass) {
+    return addForwarded(listener, listenerClass, true);
   }
 
   /**
@@ -90,12 +344,16 @@ public class EventListenerList<TEventListener> implements Serializable {
    * @param listener the listener
    */
   public synchronized void remove(final TEventListener listener) {
+    prune();
 
     final Object[] list = listenerList;
+    final ListenerReference[] refs = references;
 
     int index = -1;
-    for (int i = list.length; i >= 0; --i) {
-      if (list[i].equals(listener)) {
+    for (int i = list.length - 1; i >= 0; --i) {
+      // a forwarded listener is identified by its referent, not by its forwarder
+      final Object element = (refs == null || refs[i] == null) ? list[i] : refs[i].get();
+      if (element != null && element.equals(listener)) {
         index = i;
         break;
       }
@@ -104,10 +362,55 @@ public class EventListenerList<TEventListener> implements Serializable {
     if (index != -1) {
       final Object[] tmp = new Object[list.length - 1];
       System.arraycopy(list, 0, tmp, 0, index);
-      if (index < tmp.length) {
-        System.arraycopy(list, index + 1, tmp, index, tmp.length - index);
+      System.arraycopy(list, index + 1, tmp, index, tmp.length - index);
+      if (refs != null) {
+        if (refs[index] != null) {
+          refs[index].discard();
+        }
+        final ListenerReference[] tmpReferences = new ListenerReference[tmp.length];
+        System.arraycopy(refs, 0, tmpReferences, 0, index);
+        System.arraycopy(refs, index + 1, tmpReferences, index, tmp.length - index);
+        references = tmpReferences;
+      }
+      listenerList = tmp;
+      listenersChanged();
+    }
+  }
+
+  /**
+   * Remove all the occurrences of event listeners with a single copy of the
+   * list.
+   * 
+   * @param listeners the listeners
+   */
+  public synchronized void removeAll(final Collection<?> listeners) {
+    prune();
+
+    final Set<?> removed = new HashSet<>(listeners);
+    final Object[] list = listenerList;
+    final ListenerReference[] refs = references;
+    final Object[] tmp = new Object[list.length];
+    final ListenerReference[] tmpReferences = (refs == null) ? null : new ListenerReference[list.length];
+    int kept = 0;
+    for (int i = 0; i < list.length; ++i) {
+      final Object element = (refs == null || refs[i] == null) ? list[i] : refs[i].get();
+      if (element == null || !removed.contains(element)) {
+        tmp[kept] = list[i];
+        if (refs != null) {
+          tmpReferences[kept] = refs[i];
+        }
+        ++kept;
+      } else if (refs != null && refs[i] != null) {
+        refs[i].discard();
+      }
+    }
+
+    if (kept != list.length) {
+      listenerList = (kept == 0) ? new Object[0] : Arrays.copyOf(tmp, kept);
+      if (refs != null) {
+        references = Arrays.copyOf(tmpReferences, kept);
       }
-      listenerList = (tmp.length == 0) ? new Object[0] : tmp;
+      listenersChanged();
     }
   }
 
@@ -127,6 +430,26 @@ public class EventListenerList<TEventListener> implements Serializable {
     return s;
   }
 
+  /**
+   * Remove the listener of a registration. Its forwarder is disabled at once
+   * and pruned on the next update of the list or once half of its entries are
+   * removed.
+   * 
+   * @param reference the reference of the listener
+   */
+  synchronized void unregister(final ListenerReference reference) {
+    if (reference.removed || reference.get() == null) {
+      // a collected listener is pruned through the reference queue
+      return;
+    }
+    reference.discard();
+    ++removedRegistrationCount;
+    if (removedRegistrationCount * 2 >= listenerList.length) {
+      prune();
+      listenersChanged();
+    }
+  }
+
   /**
    * Serialize the list.
    * 
@@ -134,13 +457,12 @@ public class EventListenerList<TEventListener> implements Serializable {
    * @throws IOException if an IO error occurs while writing objects
    */
   private void writeObject(final ObjectOutputStream s) throws IOException {
-    final Object[] list = listenerList;
+    final Object[] list = getSerializedListeners();
     s.defaultWriteObject();
 
-    final int count = list.length;
-    s.writeInt(count);
-    for (int i = 0; i < count; ++i) {
-      s.writeObject(list[i]);
+    s.writeInt(list.length);
+    for (final Object element : list) {
+      s.writeObject(element);
     }
   }
 
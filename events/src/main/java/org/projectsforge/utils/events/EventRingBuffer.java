@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded buffer of events with a single consumer, preallocated as a ring
+ * (internal use only). The consumer takes all the available events, up to the
+ * size of its batch, with one acquisition of the lock.
+ * 
+ * @author Sébastien Aupetit
+ */
+final class EventRingBuffer {
+
+  /** The events. */
+  private final Object[] events;
+
+  /** The lock. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** The condition signaled when events are available or on close. */
+  private final Condition notEmpty = lock.newCondition();
+
+  /** The condition signaled when events have been taken or on close. */
+  private final Condition notFull = lock.newCondition();
+
+  /** The condition signaled when all the events have been delivered. */
+  private final Condition delivered = lock.newCondition();
+
+  /** The sequence number of the next event to take. */
+  private long head = 0;
+
+  /** The sequence number of the next event to put. */
+  private long tail = 0;
+
+  /** The number of events taken but not yet delivered by the consumer. */
+  private int inFlight = 0;
+
+  /** Indicate that the consumer waits for events. */
+  private boolean consumerWaiting = false;
+
+  /** Indicate that the buffer is closed. */
+  private boolean closed = false;
+
+  /** Indicate that the consumer has terminated. */
+  private boolean terminated = false;
+
+  /** The number of dropped events. */
+  private long droppedCount = 0;
+
+  /** The number of coalesced events. */
+  private long coalescedCount = 0;
+
+  /**
+   * The Constructor.
+   * 
+   * @param capacity the maximum number of events
+   */
+  EventRingBuffer(final int capacity) {
+    events = new Object[capacity];
+  }
+
+  /**
+   * Wait until all the events put have been delivered, even if the buffer is
+   * closed, or until the consumer has terminated.
+   * 
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void awaitDelivery() throws InterruptedException {
+    lock.lock();
+    try {
+      while (!terminated && (head != tail || inFlight > 0)) {
+        delivered.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Indicate that the consumer has delivered the events it has taken, even if
+   * the delivery failed.
+   */
+  void batchDelivered() {
+    lock.lock();
+    try {
+      inFlight = 0;
+      if (head == tail) {
+        delivered.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Close the buffer: the events already put are still taken, the new ones are
+   * refused.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signal();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Indicate that the consumer has terminated, normally or not: the buffer is
+   * closed and the events which have not been delivered are abandoned.
+   */
+  void consumerTerminated() {
+    lock.lock();
+    try {
+      terminated = true;
+      closed = true;
+      notFull.signalAll();
+      delivered.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the number of coalesced events.
+   * 
+   * @return the number of coalesced events
+   */
+  long getCoalescedCount() {
+    lock.lock();
+    try {
+      return coalescedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the number of dropped events, including those refused because the
+   * buffer is closed.
+   * 
+   * @return the number of dropped events
+   */
+  long getDroppedCount() {
+    lock.lock();
+    try {
+      return droppedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Put an event.
+   * 
+   * @param event the event
+   * @param overflowPolicy the behavior when the buffer is full
+   * @return true, if the event is in the buffer
+   * @throws InterruptedException if interrupted while waiting in
+   *           {@link OverflowPolicy#BLOCK} mode
+   */
+  boolean put(final Object event, final OverflowPolicy overflowPolicy) throws InterruptedException {
+    lock.lock();
+    try {
+      final int capacity = events.length;
+      while (!closed && tail - head == capacity) {
+        switch (overflowPolicy) {
+          case DROP:
+            droppedCount++;
+            return false;
+          case COALESCE:
+            events[(int) ((tail - 1) % capacity)] = event;
+            coalescedCount++;
+            return true;
+          case BLOCK:
+          default:
+            notFull.await();
+            break;
+        }
+      }
+      if (closed) {
+        droppedCount++;
+        return false;
+      }
+      events[(int) (tail % capacity)] = event;
+      tail++;
+      if (consumerWaiting) {
+        notEmpty.signal();
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Take the available events, waiting for at least one. The events taken by
+   * the previous call must have been reported by {@link #batchDelivered()}.
+   * 
+   * @param batch the array receiving the events
+   * @return the number of events, 0 if the buffer is closed and empty
+   * @throws InterruptedException if interrupted while waiting
+   */
+  int take(final Object[] batch) throws InterruptedException {
+    lock.lock();
+    try {
+      while (head == tail) {
+        delivered.signalAll();
+        if (closed) {
+          return 0;
+        }
+        consumerWaiting = true;
+        try {
+          notEmpty.await();
+        } finally {
+          consumerWaiting = false;
+        }
+      }
+      final int capacity = events.length;
+      final int count = (int) Math.min(tail - head, batch.length);
+      for (int i = 0; i < count; ++i) {
+        final int index = (int) (head % capacity);
+        batch[i] = events[index];
+        events[index] = null;
+        head++;
+      }
+      inFlight = count;
+      notFull.signalAll();
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
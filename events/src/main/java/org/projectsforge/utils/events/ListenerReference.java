@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * The reference of a listener registered through a forwarder (internal use
+ * only). The forwarder stops calling the listener once the reference is
+ * cleared, either by the garbage collector for a weak listener or by the
+ * removal of the registration. The fields are guarded by the lock of the list.
+ * 
+ * @author Sébastien Aupetit
+ */
+final class ListenerReference extends WeakReference<Object> implements ListenerRegistration {
+
+  /** The list of the listener. */
+  private final EventListenerList<?> list;
+
+  /** The listener if it is strongly registered, null otherwise. */
+  Object listener;
+
+  /** Whether the listener is no longer in the list. */
+  boolean removed = false;
+
+  /**
+   * The Constructor.
+   * 
+   * @param listener the listener
+   * @param queue the queue notified when a weak listener is collected
+   * @param list the list of the listener
+   * @param strong whether the reference prevents the collection of the listener
+   */
+  ListenerReference(final Object listener, final ReferenceQueue<Object> queue, final EventListenerList<?> list,
+      final boolean strong) {
+    super(listener, queue);
+    this.list = list;
+    this.listener = strong ? listener : null;
+  }
+
+  /**
+   * Stop the notifications of the listener.
+   */
+  void discard() {
+    removed = true;
+    listener = null;
+    clear();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.events.ListenerRegistration#remove()
+   */
+  @Override
+  public void remove() {
+    list.unregister(this);
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+/**
+ * The registration of a listener in an {@link EventListenerList}. It removes
+ * the listener without searching it in the list.
+ * 
+ * @author Sébastien Aupetit
+ * @see EventListenerList#register(Object, Class)
+ */
+public interface ListenerRegistration {
+
+  /**
+   * Remove the listener from its list in constant amortized time: the listener
+   * is no longer notified and its entry is discarded with the other removed
+   * entries once they are numerous enough. Removing it twice has no effect.
+   */
+  void remove();
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+/**
+ * The behavior of an asynchronous listener list when the buffer of a listener
+ * is full.
+ * 
+ * @author Sébastien Aupetit
+ * @see AsyncEventListenerList
+ */
+public enum OverflowPolicy {
+
+  /** The publisher waits until the listener has taken events. */
+  BLOCK,
+
+  /** The new event is not delivered to the listener. */
+  DROP,
+
+  /**
+   * The new event replaces the newest event of the buffer, so that the listener
+   * still receives the latest state.
+   */
+  COALESCE
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TestAsyncEventListenerList {
+
+  /**
+   * A listener recording the events and the batch sizes, which can be held in
+   * its first notification.
+   */
+  static class RecordingListener implements EventBatchListener<Integer> {
+
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+
+    final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    final CountDownLatch entered = new CountDownLatch(1);
+
+    final CountDownLatch released = new CountDownLatch(1);
+
+    volatile Thread consumer;
+
+    @Override
+    public void eventsOccurred(final List<Integer> batch) {
+      consumer = Thread.currentThread();
+      entered.countDown();
+      try {
+        released.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      batchSizes.add(batch.size());
+      events.addAll(batch);
+    }
+  }
+
+  /**
+   * Add a weak listener which is no longer referenced once its thread has
+   * delivered a first event.
+   */
+  private static Thread addCollectedListener(final AsyncEventListenerList<Integer> list)
+      throws InterruptedException {
+    final RecordingListener listener = new RecordingListener();
+    listener.released.countDown();
+    list.addWeak(listener, EventBatchListener.class);
+    list.publish(0);
+    list.awaitDelivery();
+    return listener.consumer;
+  }
+
+  /**
+   * Publish an event and wait until the listener holds it, so that the buffer
+   * is empty.
+   */
+  private RecordingListener holdListener(final AsyncEventListenerList<Integer> list) throws InterruptedException {
+    final RecordingListener listener = new RecordingListener();
+    list.add(listener);
+    list.publish(0);
+    assertTrue(listener.entered.await(10, TimeUnit.SECONDS));
+    return listener;
+  }
+
+  @Test
+  public void testAwaitAfterClose() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(16, 16, OverflowPolicy.BLOCK);
+    final RecordingListener listener = holdListener(list);
+    list.publish(1);
+    list.publish(2);
+    list.close();
+    // the events published before the close are still waited for
+    final Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          list.awaitDelivery();
+        } catch (final InterruptedException e) {
+          // the test fails below
+        }
+      }
+    };
+    waiter.start();
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (waiter.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(Thread.State.WAITING, waiter.getState());
+    listener.released.countDown();
+    waiter.join(10000);
+    assertFalse(waiter.isAlive());
+    assertEquals(Arrays.asList(0, 1, 2), listener.events);
+  }
+
+  @Test
+  public void testBatching() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(1024, 16, OverflowPolicy.BLOCK);
+    final RecordingListener listener = holdListener(list);
+    for (int i = 1; i < 1000; ++i) {
+      list.publish(i);
+    }
+    listener.released.countDown();
+    list.awaitDelivery();
+    assertEquals(1000, listener.events.size());
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(i, listener.events.get(i).intValue());
+    }
+    // the events published while the listener was held are delivered by full
+    // batches
+    assertEquals(1, listener.batchSizes.get(0).intValue());
+    assertEquals(16, Collections.max(listener.batchSizes).intValue());
+    assertEquals(1 + 999 / 16 + 1, listener.batchSizes.size());
+    list.close();
+  }
+
+  @Test
+  public void testBlock() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(2, 4, OverflowPolicy.BLOCK);
+    final RecordingListener listener = holdListener(list);
+    final Thread publisher = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 1; i < 5; ++i) {
+          list.publish(i);
+        }
+      }
+    };
+    publisher.start();
+    // the publisher waits for the listener
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (publisher.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(Thread.State.WAITING, publisher.getState());
+    listener.released.countDown();
+    publisher.join();
+    list.awaitDelivery();
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), listener.events);
+    assertEquals(0, list.getDroppedEventCount());
+    list.close();
+  }
+
+  @Test
+  public void testClose() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(16, 16, OverflowPolicy.BLOCK);
+    final RecordingListener removed = holdListener(list);
+    final RecordingListener kept = holdListener(list);
+    removed.released.countDown();
+    kept.released.countDown();
+
+    // removing a listener stops its thread
+    list.remove(removed);
+    removed.consumer.join(10000);
+    assertFalse(removed.consumer.isAlive());
+    assertTrue(kept.consumer.isAlive());
+
+    // closing the list stops the other threads
+    list.close();
+    kept.consumer.join(10000);
+    assertFalse(kept.consumer.isAlive());
+    assertEquals(Arrays.asList(0), kept.events);
+  }
+
+  @Test
+  public void testCoalesce() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(4, 16, OverflowPolicy.COALESCE);
+    final RecordingListener listener = holdListener(list);
+    for (int i = 1; i <= 10; ++i) {
+      list.publish(i);
+    }
+    listener.released.countDown();
+    list.awaitDelivery();
+    // the newest buffered event is replaced by the latest one
+    assertEquals(Arrays.asList(0, 1, 2, 3, 10), listener.events);
+    assertEquals(6, list.getCoalescedEventCount());
+    list.close();
+  }
+
+  @Test
+  public void testDrop() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(4, 16, OverflowPolicy.DROP);
+    final RecordingListener listener = holdListener(list);
+    for (int i = 1; i <= 10; ++i) {
+      list.publish(i);
+    }
+    listener.released.countDown();
+    list.awaitDelivery();
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), listener.events);
+    assertEquals(6, list.getDroppedEventCount());
+    list.close();
+  }
+
+  @Test
+  public void testError() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(16, 1, OverflowPolicy.BLOCK);
+    final RecordingListener listener = new RecordingListener() {
+
+      @Override
+      public void eventsOccurred(final List<Integer> batch) {
+        super.eventsOccurred(batch);
+        Thread.currentThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+          @Override
+          public void uncaughtException(final Thread t, final Throwable e) {
+            // expected
+          }
+        });
+        throw new AssertionError("failed delivery");
+      }
+    };
+    listener.released.countDown();
+    list.add(listener);
+    list.publish(1);
+    list.publish(2);
+    // the error stops the delivery without blocking the waiting threads
+    list.awaitDelivery();
+    listener.consumer.join(10000);
+    assertFalse(listener.consumer.isAlive());
+    assertEquals(Arrays.asList(1), listener.events);
+    list.publish(3);
+    list.close();
+  }
+
+  @Test
+  public void testRegister() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(16, 16, OverflowPolicy.BLOCK);
+    final RecordingListener listener = new RecordingListener();
+    listener.released.countDown();
+    final ListenerRegistration registration = list.register(listener, EventBatchListener.class);
+    list.publish(1);
+    list.awaitDelivery();
+    assertEquals(Arrays.asList(1), listener.events);
+
+    // the registration removes the listener and stops its thread
+    registration.remove();
+    registration.remove();
+    listener.consumer.join(10000);
+    assertFalse(listener.consumer.isAlive());
+    assertEquals(0, list.getListenerList().length);
+    list.publish(2);
+    assertEquals(Arrays.asList(1), listener.events);
+    list.close();
+  }
+
+  @Test
+  public void testWeak() throws InterruptedException {
+    final AsyncEventListenerList<Integer> list = new AsyncEventListenerList<>(16, 16, OverflowPolicy.BLOCK);
+    final RecordingListener kept = new RecordingListener();
+    kept.released.countDown();
+    final ListenerRegistration registration = list.addWeak(kept, EventBatchListener.class);
+    final Thread collected = addCollectedListener(list);
+    assertTrue(collected.isAlive());
+
+    // the thread of the collected listener stops on a publication
+    int published = 1;
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (collected.isAlive() && System.currentTimeMillis() < deadline) {
+      System.gc();
+      list.publish(published++);
+      collected.join(10);
+    }
+    assertFalse(collected.isAlive());
+    list.awaitDelivery();
+    assertEquals(published, kept.events.size());
+
+    // the registration stops the thread of the remaining listener
+    registration.remove();
+    kept.consumer.join(10000);
+    assertFalse(kept.consumer.isAlive());
+    list.close();
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestEventDispatcher {
+
+  public interface BaseListener {
+
+    void cleared() throws IOException;
+  }
+
+  public interface ValueListener extends BaseListener {
+
+    void changed(String name, int value);
+
+    void sampled(int[] values, long time, double ratio);
+  }
+
+  public interface ResultListener {
+
+    int changed(String name, int value);
+  }
+
+  /**
+   * A listener recording the notifications in a shared log.
+   */
+  static class RecordingListener implements ValueListener, Serializable {
+
+    private static final long serialVersionUID = 0;
+
+    private final int id;
+
+    private final List<String> log;
+
+    RecordingListener(final int id, final List<String> log) {
+      this.id = id;
+      this.log = log;
+    }
+
+    @Override
+    public void changed(final String name, final int value) {
+      log.add(id + ":" + name + "=" + value);
+    }
+
+    @Override
+    public void cleared() {
+      log.add(id + ":cleared");
+    }
+
+    @Override
+    public void sampled(final int[] values, final long time, final double ratio) {
+      log.add(id + ":" + values.length + "," + time + "," + ratio);
+    }
+  }
+
+  /**
+   * Another listener class so that the listeners are not all of the same
+   * class.
+   */
+  static class OtherRecordingListener extends RecordingListener {
+
+    private static final long serialVersionUID = 0;
+
+    OtherRecordingListener(final int id, final List<String> log) {
+      super(id, log);
+    }
+  }
+
+  @Test
+  public void testDispatch() throws IOException {
+    final EventDispatcher<ValueListener> listeners = new EventDispatcher<>(ValueListener.class);
+    final List<String> log = new ArrayList<>();
+    // the unrolled dispatchers and the loop
+    for (int count = 0; count <= EventDispatcherGenerator.MAX_UNROLLED_LISTENERS + 2; ++count) {
+      log.clear();
+      listeners.fire().changed("x", count);
+      listeners.fire().cleared();
+      listeners.fire().sampled(new int[3], 4L, 0.5);
+      assertEquals(3 * count, log.size());
+      for (int i = 0; i < count; ++i) {
+        assertEquals(i + ":x=" + count, log.get(i));
+        assertEquals(i + ":cleared", log.get(count + i));
+        assertEquals(i + ":3,4,0.5", log.get(2 * count + i));
+      }
+      listeners.add((count % 2 == 0) ? new RecordingListener(count, log) : new OtherRecordingListener(count, log));
+    }
+  }
+
+  @Test
+  public void testInvalidListenerClass() {
+    try {
+      new EventDispatcher<>(ResultListener.class);
+      fail("An exception was expected");
+    } catch (final IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new EventDispatcher<>(RecordingListener.class);
+      fail("An exception was expected");
+    } catch (final IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    final EventDispatcher<ValueListener> listeners = new EventDispatcher<>(ValueListener.class);
+    final List<String> log = new ArrayList<>();
+    listeners.add(new RecordingListener(0, log));
+    listeners.add(new RecordingListener(1, log));
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(listeners);
+    }
+    try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      @SuppressWarnings("unchecked")
+      final EventDispatcher<ValueListener> copy = (EventDispatcher<ValueListener>) in.readObject();
+      assertEquals(ValueListener.class, copy.getListenerClass());
+      assertEquals(2, copy.getListenerList().length);
+      // the copies of the listeners record in a copy of the log
+      copy.fire().cleared();
+      assertEquals(0, log.size());
+      assertEquals(2, ((RecordingListener) copy.getListenerList()[0]).log.size());
+    }
+  }
+
+  @Test
+  public void testSystemInterface() {
+    final EventDispatcher<Runnable> listeners = new EventDispatcher<>(Runnable.class);
+    final AtomicInteger runs = new AtomicInteger();
+    for (int i = 0; i < 3; ++i) {
+      listeners.add(new Runnable() {
+        @Override
+        public void run() {
+          runs.incrementAndGet();
+        }
+      });
+    }
+    listeners.fire().run();
+    assertEquals(3, runs.get());
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestEventListenerList {
+
+  public interface CountListener {
+
+    void counted(int value);
+  }
+
+  static class SummingListener implements CountListener {
+
+    final AtomicInteger sum = new AtomicInteger();
+
+    @Override
+    public void counted(final int value) {
+      sum.addAndGet(value);
+    }
+  }
+
+  private static List<SummingListener> createListeners(final int count) {
+    final List<SummingListener> listeners = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      listeners.add(new SummingListener());
+    }
+    return listeners;
+  }
+
+  @Test
+  public void testBulkOperations() {
+    final EventListenerList<CountListener> list = new EventListenerList<>();
+    final List<SummingListener> listeners = TestEventListenerList.createListeners(1000);
+    list.add(listeners.get(0));
+    list.addAll(listeners.subList(1, listeners.size()));
+    assertEquals(1000, list.getListenerList().length);
+    assertTrue(list.getListenerList()[999] == listeners.get(999));
+
+    // every other listener, the unregistered ones are ignored
+    final List<CountListener> removed = new ArrayList<>();
+    for (int i = 0; i < listeners.size(); i += 2) {
+      removed.add(listeners.get(i));
+    }
+    removed.add(new SummingListener());
+    list.removeAll(removed);
+    final Object[] remaining = list.getListenerList();
+    assertEquals(500, remaining.length);
+    for (int i = 0; i < remaining.length; ++i) {
+      assertTrue(remaining[i] == listeners.get(2 * i + 1));
+    }
+
+    try {
+      list.addAll(Arrays.asList(new SummingListener(), null));
+      fail("An exception was expected");
+    } catch (final IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(500, list.getListenerList().length);
+  }
+
+  @Test
+  public void testDispatcherRegistration() {
+    final EventDispatcher<CountListener> dispatcher = new EventDispatcher<>(CountListener.class);
+    final SummingListener first = new SummingListener();
+    final SummingListener second = new SummingListener();
+    final ListenerRegistration firstRegistration = dispatcher.register(first);
+    dispatcher.register(second);
+    dispatcher.addAll(TestEventListenerList.createListeners(3));
+    dispatcher.fire().counted(1);
+
+    // the removed listener is no longer notified before the list is pruned
+    firstRegistration.remove();
+    assertEquals(5, dispatcher.getListenerList().length);
+    assertEquals(4, dispatcher.getListenerCount());
+    dispatcher.fire().counted(2);
+    assertEquals(1, first.sum.get());
+    assertEquals(3, second.sum.get());
+
+    dispatcher.remove(second);
+    assertEquals(3, dispatcher.getListenerList().length);
+    dispatcher.fire().counted(4);
+    assertEquals(3, second.sum.get());
+  }
+
+  @Test
+  public void testRegistration() {
+    final EventListenerList<CountListener> list = new EventListenerList<>();
+    final List<SummingListener> listeners = TestEventListenerList.createListeners(100);
+    final List<ListenerRegistration> registrations = new ArrayList<>();
+    for (final SummingListener listener : listeners) {
+      registrations.add(list.register(listener, CountListener.class));
+    }
+    for (final Object listener : list.getListenerList()) {
+      ((CountListener) listener).counted(1);
+    }
+
+    // the entries are pruned once half of them are removed
+    for (int i = 0; i < 49; ++i) {
+      registrations.get(i).remove();
+    }
+    assertEquals(100, list.getListenerList().length);
+    assertEquals(51, list.getListenerCount());
+    registrations.get(0).remove();
+    assertEquals(100, list.getListenerList().length);
+    registrations.get(49).remove();
+    assertEquals(50, list.getListenerList().length);
+    assertEquals(50, list.getListenerCount());
+    assertEquals(0, list.getPrunedListenerCount());
+
+    for (final Object listener : list.getListenerList()) {
+      ((CountListener) listener).counted(1);
+    }
+    assertEquals(1, listeners.get(49).sum.get());
+    assertEquals(2, listeners.get(50).sum.get());
+
+    // the removal by value discards the registration
+    list.remove(listeners.get(50));
+    registrations.get(50).remove();
+    assertEquals(49, list.getListenerList().length);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestEventTopics {
+
+  public interface ProgressListener {
+
+    void finished();
+
+    void progressed(int step);
+
+    void started();
+  }
+
+  /**
+   * A listener recording all the notifications in a shared log.
+   */
+  static class RecordingListener implements ProgressListener, Serializable {
+
+    private static final long serialVersionUID = 0;
+
+    private final String name;
+
+    private final List<String> log;
+
+    RecordingListener(final String name, final List<String> log) {
+      this.name = name;
+      this.log = log;
+    }
+
+    @Override
+    public void finished() {
+      log.add(name + ":finished");
+    }
+
+    @Override
+    public void progressed(final int step) {
+      log.add(name + ":" + step);
+    }
+
+    @Override
+    public void started() {
+      log.add(name + ":started");
+    }
+  }
+
+  @EventTopics({ "started", "finished", "unrelated" })
+  static class BoundsListener extends RecordingListener {
+
+    private static final long serialVersionUID = 0;
+
+    BoundsListener(final String name, final List<String> log) {
+      super(name, log);
+    }
+  }
+
+  private static void fireAll(final EventDispatcher<ProgressListener> dispatcher) {
+    dispatcher.fire().started();
+    dispatcher.fire().progressed(1);
+    dispatcher.fire().finished();
+  }
+
+  @Test
+  public void testAnnotation() {
+    final List<String> log = new ArrayList<>();
+    final EventDispatcher<ProgressListener> dispatcher = new EventDispatcher<>(ProgressListener.class);
+    dispatcher.add(new BoundsListener("bounds", log));
+    final BoundsListener weak = new BoundsListener("weak", log);
+    dispatcher.addWeak(weak);
+    TestEventTopics.fireAll(dispatcher);
+    assertEquals("[bounds:started, weak:started, bounds:finished, weak:finished]", log.toString());
+  }
+
+  @Test
+  public void testExplicitTopics() {
+    final List<String> log = new ArrayList<>();
+    final EventDispatcher<ProgressListener> dispatcher = new EventDispatcher<>(ProgressListener.class);
+    final RecordingListener progress = new RecordingListener("progress", log);
+    dispatcher.add(new RecordingListener("all", log));
+    dispatcher.add(progress, "progressed");
+    // the explicit topics override the annotation
+    dispatcher.add(new BoundsListener("none", log), new String[0]);
+    TestEventTopics.fireAll(dispatcher);
+    assertEquals("[all:started, all:1, progress:1, all:finished]", log.toString());
+
+    // the topics are forgotten with the listener
+    log.clear();
+    dispatcher.remove(progress);
+    dispatcher.add(progress);
+    TestEventTopics.fireAll(dispatcher);
+    assertEquals("[all:started, progress:started, all:1, progress:1, all:finished, progress:finished]",
+        log.toString());
+
+    try {
+      dispatcher.add(progress, "progress");
+      fail("An exception was expected");
+    } catch (final IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(3, dispatcher.getListenerList().length);
+  }
+
+  @Test
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    final List<String> log = new ArrayList<>();
+    final EventDispatcher<ProgressListener> dispatcher = new EventDispatcher<>(ProgressListener.class);
+    dispatcher.add(new RecordingListener("progress", log), "progressed");
+    dispatcher.add(new BoundsListener("bounds", log));
+    // the weak listeners and their topics are not serialized
+    final ProgressListener weak = new ProgressListener() {
+
+      @Override
+      public void finished() {
+        log.add("weak:finished");
+      }
+
+      @Override
+      public void progressed(final int step) {
+        log.add("weak:" + step);
+      }
+
+      @Override
+      public void started() {
+        log.add("weak:started");
+      }
+    };
+    dispatcher.addWeak(weak);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(dispatcher);
+    }
+    try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      @SuppressWarnings("unchecked")
+      final EventDispatcher<ProgressListener> copy = (EventDispatcher<ProgressListener>) in.readObject();
+      assertEquals(2, copy.getListenerList().length);
+      TestEventTopics.fireAll(copy);
+      assertEquals(0, log.size());
+      assertEquals("[bounds:started, progress:1, bounds:finished]",
+          ((RecordingListener) copy.getListenerList()[0]).log.toString());
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestWeakListeners {
+
+  public interface CountListener {
+
+    void counted(int value);
+  }
+
+  static class SummingListener implements CountListener, Serializable {
+
+    private static final long serialVersionUID = 0;
+
+    final AtomicInteger sum = new AtomicInteger();
+
+    @Override
+    public void counted(final int value) {
+      sum.addAndGet(value);
+    }
+  }
+
+  private static final int COLLECTED = 10;
+
+  private static void addCollectedListeners(final EventListenerList<CountListener> list) {
+    for (int i = 0; i < TestWeakListeners.COLLECTED; ++i) {
+      list.addWeak(new SummingListener(), CountListener.class);
+    }
+  }
+
+  /**
+   * Collect the unreachable listeners and trigger their pruning by an update.
+   */
+  private static void collect(final EventListenerList<CountListener> list) throws InterruptedException {
+    final CountListener unregistered = new SummingListener();
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (list.getPrunedListenerCount() < TestWeakListeners.COLLECTED && System.currentTimeMillis() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+      list.remove(unregistered);
+    }
+  }
+
+  @Test
+  public void testDispatcher() throws InterruptedException {
+    final EventDispatcher<CountListener> dispatcher = new EventDispatcher<>(CountListener.class);
+    final SummingListener strong = new SummingListener();
+    final SummingListener weak = new SummingListener();
+    dispatcher.add(strong);
+    dispatcher.addWeak(weak);
+    TestWeakListeners.addCollectedListeners(dispatcher);
+
+    dispatcher.fire().counted(2);
+    assertEquals(2, strong.sum.get());
+    assertEquals(2, weak.sum.get());
+
+    TestWeakListeners.collect(dispatcher);
+    assertEquals(TestWeakListeners.COLLECTED, dispatcher.getPrunedListenerCount());
+    assertEquals(2, dispatcher.getListenerList().length);
+    dispatcher.fire().counted(3);
+    assertEquals(5, strong.sum.get());
+    assertEquals(5, weak.sum.get());
+  }
+
+  @Test
+  public void testPruning() throws InterruptedException {
+    final EventListenerList<CountListener> list = new EventListenerList<>();
+    final SummingListener strong = new SummingListener();
+    final SummingListener weak = new SummingListener();
+    list.add(strong);
+    TestWeakListeners.addCollectedListeners(list);
+    list.addWeak(weak, CountListener.class);
+    assertEquals(TestWeakListeners.COLLECTED + 2, list.getListenerList().length);
+
+    TestWeakListeners.collect(list);
+    assertEquals(TestWeakListeners.COLLECTED, list.getPrunedListenerCount());
+    final Object[] listeners = list.getListenerList();
+    assertEquals(2, listeners.length);
+    assertTrue(listeners[0] == strong);
+    // the weak listener is notified through its forwarder
+    for (final Object listener : listeners) {
+      ((CountListener) listener).counted(1);
+    }
+    assertEquals(1, strong.sum.get());
+    assertEquals(1, weak.sum.get());
+  }
+
+  @Test
+  public void testRemoveAndSerialization() throws IOException, ClassNotFoundException {
+    final EventListenerList<CountListener> list = new EventListenerList<>();
+    final SummingListener first = new SummingListener();
+    final SummingListener weak = new SummingListener();
+    final SummingListener last = new SummingListener();
+    list.add(first);
+    list.addWeak(weak, CountListener.class);
+    list.add(last);
+
+    // an unregistered listener is ignored
+    list.remove(new SummingListener());
+    assertEquals(3, list.getListenerList().length);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(list);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      // the weak listener is not serialized
+      assertEquals(2, ((EventListenerList<?>) in.readObject()).getListenerList().length);
+    }
+
+    list.remove(weak);
+    assertEquals(2, list.getListenerList().length);
+    list.remove(last);
+    list.remove(first);
+    assertEquals(0, list.getListenerList().length);
+    assertEquals(0, list.getPrunedListenerCount());
+  }
+}
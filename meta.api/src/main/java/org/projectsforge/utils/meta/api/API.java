@@ -16,14 +16,18 @@
  */
 package org.projectsforge.utils.meta.api;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import org.projectsforge.utils.events.EventListenerList;
+import org.projectsforge.utils.events.AsyncEventListenerList;
+import org.projectsforge.utils.events.EventBatchListener;
+import org.projectsforge.utils.events.EventDispatcher;
+import org.projectsforge.utils.events.OverflowPolicy;
+import org.projectsforge.utils.tasksexecutor.CancellationToken;
+import org.projectsforge.utils.tasksexecutor.IndexConsumer;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor;
 import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
 import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorFactory;
-import org.projectsforge.utils.tasksexecutor.RecursiveTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,7 +49,12 @@ public class API<Model> {
   private APIParameters<Model> parameters = null;
 
   /** The list of event listeners. */
-  private final EventListenerList<APIListener<Model>> apiListeners = new EventListenerList<APIListener<Model>>();
+  private final EventDispatcher<APIListener<Model>> apiListeners = new EventDispatcher<APIListener<Model>>(
+      APIListener.class);
+
+  /** The listeners of the explored solutions, notified asynchronously. */
+  private final AsyncEventListenerList<ExplorationEvent<Model>> explorationListeners = new AsyncEventListenerList<>(
+      64, 16, OverflowPolicy.BLOCK);
 
   /** The ants. */
   private List<Ant<Model>> ants;
@@ -56,6 +65,9 @@ public class API<Model> {
   /** The best scored model. */
   private final AtomicReference<ScoredModel<Model>> bestScoredModel = new AtomicReference<>();
 
+  /** The cancellation token of the current run. */
+  private volatile CancellationToken cancellationToken = null;
+
   /**
    * Adds the listener.
    * 
@@ -65,6 +77,66 @@ public class API<Model> {
     apiListeners.add(listener);
   }
 
+  /**
+   * Adds a listener notified only of some events, e.g.
+   * {@code "bestScoredModelImproved"}, so that the other events cost nothing
+   * when no listener consumes them.
+   * 
+   * @param listener the listener
+   * @param topics the names of the methods of {@link APIListener} consumed by
+   *          the listener
+   * @see org.projectsforge.utils.events.EventTopics
+   */
+  public void addAPIListener(final APIListener<Model> listener, final String... topics) {
+    apiListeners.add(listener, topics);
+  }
+
+  /**
+   * Adds a listener of the explored solutions. Unlike an {@link APIListener},
+   * it is notified on its own thread so that a slow listener does not delay the
+   * iterations, unless its buffer is full in {@link OverflowPolicy#BLOCK} mode.
+   * The thread runs until the listener is removed or the API is closed.
+   * 
+   * @param listener the listener
+   * @param capacity the number of events buffered for the listener
+   * @param maxBatchSize the maximum number of events per notification
+   * @param overflowPolicy the behavior when the buffer is full
+   */
+  public void addExplorationListener(final EventBatchListener<ExplorationEvent<Model>> listener, final int capacity,
+      final int maxBatchSize, final OverflowPolicy overflowPolicy) {
+    explorationListeners.add(listener, capacity, maxBatchSize, overflowPolicy);
+  }
+
+  /**
+   * Wait until the exploration events published before have been delivered.
+   * 
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void awaitExplorationEvents() throws InterruptedException {
+    explorationListeners.awaitDelivery();
+  }
+
+  /**
+   * Cancel the current run. The run stops as soon as possible: the explorations
+   * which have not started are skipped and the current iteration is not
+   * recorded.
+   */
+  public void cancel() {
+    final CancellationToken token = cancellationToken;
+    if (token != null) {
+      token.cancel();
+    }
+  }
+
+  /**
+   * Close the API: the threads of the exploration listeners terminate once the
+   * events already published are delivered. It must be called when the API is
+   * no longer used.
+   */
+  public void close() {
+    explorationListeners.close();
+  }
+
   /**
    * Gets the ants.
    * 
@@ -101,13 +173,23 @@ public class API<Model> {
     return parameters;
   }
 
+  /**
+   * Checks if the current run is cancelled. Long exploration operators can
+   * check it to return early.
+   * 
+   * @return true, if cancelled
+   */
+  public boolean isCancelled() {
+    final CancellationToken token = cancellationToken;
+    return token != null && token.isCancelled();
+  }
+
   /**
    * Register scored model.
    * 
    * @param scoredModel the scored model
    * @return true, if successful
    */
-  @SuppressWarnings("unchecked")
   private boolean registerScoredModel(final ScoredModel<Model> scoredModel) {
     boolean improved = false;
     if (bestScoredModel.get() == null) {
@@ -128,9 +210,7 @@ public class API<Model> {
     if (improved) {
       bestScoredModel.set(scoredModel);
 
-      for (final Object listener : apiListeners.getListenerList()) {
-        ((APIListener<Model>) listener).bestScoredModelImproved(this);
-      }
+      apiListeners.fire().bestScoredModelImproved(this);
     }
 
     return improved;
@@ -145,13 +225,35 @@ public class API<Model> {
     apiListeners.remove(listener);
   }
 
+  /**
+   * Removes an exploration listener. The events already published are still
+   * delivered to it.
+   * 
+   * @param listener the listener
+   */
+  public void removeExplorationListener(final EventBatchListener<ExplorationEvent<Model>> listener) {
+    explorationListeners.remove(listener);
+  }
+
   /**
    * Run.
    * 
    * @throws RecursiveTaskExecutorException
    */
-  @SuppressWarnings("unchecked")
   public void run() throws RecursiveTaskExecutorException {
+    run(null);
+  }
+
+  /**
+   * Run until the stop criterion is satisfied or the run is cancelled, either
+   * by {@link #cancel()} or by the cancellation of the parent token (which can
+   * carry a deadline).
+   * 
+   * @param parentToken the parent cancellation token or null
+   * @throws RecursiveTaskExecutorException
+   */
+  @SuppressWarnings("unchecked")
+  public void run(final CancellationToken parentToken) throws RecursiveTaskExecutorException {
     if (parameters == null) {
       throw new IllegalStateException("API parameters not defined. Use setParameters().");
     }
@@ -169,12 +271,13 @@ public class API<Model> {
 
     currentIteration.set(0);
 
+    final CancellationToken token = new CancellationToken(parentToken);
+    cancellationToken = token;
+
     // while not finished
-    while (!parameters.getStopCriterion().shouldStop(this)) {
+    while (!token.isCancelled() && !parameters.getStopCriterion().shouldStop(this)) {
 
-      for (final Object listener : apiListeners.getListenerList()) {
-        ((APIListener<Model>) listener).iterationStarted(this);
-      }
+      apiListeners.fire().iterationStarted(this);
 
       // shall we move the nest and reset ants ?
       if (currentIteration.get() % parameters.getNestPatience() == 0) {
@@ -184,18 +287,18 @@ public class API<Model> {
         for (final Ant<Model> ant : ants) {
           ant.nextExplorationMustBeFromNest();
         }
-        for (final Object listener : apiListeners.getListenerList()) {
-          ((APIListener<Model>) listener).nestMoved(this);
-        }
+        apiListeners.fire().nestMoved(this);
       }
 
       // we explore the search space from the current positions of ants'memory
       if (parameters.isParallelExploration()) {
-        final ArrayList<RecursiveTask> tasks = new ArrayList<>();
-        for (final Ant<Model> ant : ants) {
-          final RecursiveTask task = new RecursiveTask() {
+        final List<Ant<Model>> currentAnts = ants;
+        final RecursiveTaskExecutor executor = RecursiveTaskExecutorFactory.getPool(parameters.getExecutorPool());
+        try {
+          executor.parallelFor(0, currentAnts.size(), new IndexConsumer() {
             @Override
-            public void run() throws Exception {
+            public void accept(final int index) throws Exception {
+              final Ant<Model> ant = currentAnts.get(index);
               if (ant.isNextExplorationFromNest()) {
                 newPositions[ant.getIndex()] = parameters.getExplorationOperator()
                     .exploreHuntingSiteFromNest(API.this, ant, nestPosition.get());
@@ -204,12 +307,17 @@ public class API<Model> {
                     .explorePositionFromHuntingSite(API.this, ant, ant.getPosition());
               }
             }
-          };
-          tasks.add(task);
+          }, token);
+        } catch (final RecursiveTaskExecutorException e) {
+          if (!token.isCancelled()) {
+            throw e;
+          }
         }
-        RecursiveTaskExecutorFactory.getInstance().execute(tasks);
       } else {
         for (final Ant<Model> ant : ants) {
+          if (token.isCancelled()) {
+            break;
+          }
           if (ant.isNextExplorationFromNest()) {
             newPositions[ant.getIndex()] = parameters.getExplorationOperator()
                 .exploreHuntingSiteFromNest(API.this, ant, nestPosition.get());
@@ -220,8 +328,15 @@ public class API<Model> {
         }
       }
 
-      for (final Object listener : apiListeners.getListenerList()) {
-        ((APIListener<Model>) listener).exploredSolutions(this, newPositions);
+      if (token.isCancelled()) {
+        // the positions of the iteration are incomplete
+        break;
+      }
+
+      apiListeners.fire().exploredSolutions(this, newPositions);
+      if (explorationListeners.getListenerList().length > 0) {
+        // the positions are overwritten by the next iteration
+        explorationListeners.publish(new ExplorationEvent<>(this, currentIteration.get(), newPositions.clone()));
       }
 
       // we record the new positions
@@ -19,6 +19,7 @@ package org.projectsforge.utils.meta.api;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorFactory;
 
 /**
  * The base class holding API parameters.
@@ -56,6 +57,9 @@ public abstract class APIParameters<Model> {
   /** The parallel exploration. */
   private boolean parallelExploration;
 
+  /** The name of the executor pool running the parallel exploration. */
+  private String executorPool = RecursiveTaskExecutorFactory.DEFAULT_POOL;
+
   /** The exploration operator. */
   private ExplorationOperator<Model> explorationOperator;
 
@@ -78,6 +82,7 @@ public abstract class APIParameters<Model> {
     attributes.put("nestPatience", nestPatience);
     attributes.put("maximize", maximize);
     attributes.put("parallelExploration", parallelExploration);
+    attributes.put("executorPool", executorPool);
 
     attributes.put("stopCriterion", stopCriterion);
     attributes.put("nestPrositionProvider", nestPrositionProvider);
@@ -110,6 +115,15 @@ public abstract class APIParameters<Model> {
     return colonySize;
   }
 
+  /**
+   * Gets the name of the executor pool running the parallel exploration.
+   * 
+   * @return the name of the pool
+   */
+  public String getExecutorPool() {
+    return executorPool;
+  }
+
   /**
    * Gets the exploration operator.
    * 
@@ -202,6 +216,17 @@ public abstract class APIParameters<Model> {
     this.colonySize = colonySize;
   }
 
+  /**
+   * Sets the executor pool running the parallel exploration.
+   * 
+   * @param executorPool
+   *          the name of the pool (see
+   *          {@link RecursiveTaskExecutorFactory#getPool(String)})
+   */
+  public void setExecutorPool(final String executorPool) {
+    this.executorPool = executorPool == null ? RecursiveTaskExecutorFactory.DEFAULT_POOL : executorPool;
+  }
+
   /**
    * Sets the exploration operator.
    * 
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.meta.api;
+
+/**
+ * The solutions explored by the ants during an iteration, delivered
+ * asynchronously to the exploration listeners of an {@link API}.
+ * 
+ * @param <Model>
+ *          the generic type
+ */
+public class ExplorationEvent<Model> {
+
+  /** The API. */
+  private final API<Model> api;
+
+  /** The iteration number. */
+  private final int iteration;
+
+  /** The solutions. */
+  private final ScoredModel<Model>[] solutions;
+
+  /**
+   * Instantiates a new exploration event.
+   * 
+   * @param api
+   *          the api
+   * @param iteration
+   *          the iteration number
+   * @param solutions
+   *          the solutions, not modified afterwards
+   */
+  public ExplorationEvent(final API<Model> api, final int iteration, final ScoredModel<Model>[] solutions) {
+    this.api = api;
+    this.iteration = iteration;
+    this.solutions = solutions;
+  }
+
+  /**
+   * Gets the api.
+   * 
+   * @return the api
+   */
+  public API<Model> getApi() {
+    return api;
+  }
+
+  /**
+   * Gets the iteration number.
+   * 
+   * @return the iteration number
+   */
+  public int getIteration() {
+    return iteration;
+  }
+
+  /**
+   * Gets the solutions indexed by the index of the ants.
+   * 
+   * @return the solutions
+   */
+  public ScoredModel<Model>[] getSolutions() {
+    return solutions;
+  }
+}
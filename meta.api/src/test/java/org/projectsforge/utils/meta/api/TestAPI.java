@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.meta.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.projectsforge.utils.events.EventBatchListener;
+import org.projectsforge.utils.events.OverflowPolicy;
+import org.projectsforge.utils.tasksexecutor.FailedIndexTask;
+import org.projectsforge.utils.tasksexecutor.RecursiveTask;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
+
+public class TestAPI {
+
+  /**
+   * An exploration operator counting the explorations of the ants, which can
+   * fail for the ants whose index is a multiple of a modulus.
+   */
+  static class CountingOperator implements ExplorationOperator<Double> {
+
+    final AtomicIntegerArray explorations;
+
+    private final int failureModulus;
+
+    CountingOperator(final int colonySize, final int failureModulus) {
+      explorations = new AtomicIntegerArray(colonySize);
+      this.failureModulus = failureModulus;
+    }
+
+    private ScoredModel<Double> explore(final Ant<Double> ant, final ScoredModel<Double> position) {
+      explorations.incrementAndGet(ant.getIndex());
+      if (failureModulus > 0 && ant.getIndex() % failureModulus == 0) {
+        throw new IllegalStateException("failure " + ant.getIndex());
+      }
+      return new ScoredModel<>(position.getModel() + 1, position.getScore() + 1);
+    }
+
+    @Override
+    public ScoredModel<Double> exploreHuntingSiteFromNest(final API<Double> api, final Ant<Double> ant,
+        final ScoredModel<Double> nestPosition) {
+      return explore(ant, nestPosition);
+    }
+
+    @Override
+    public ScoredModel<Double> explorePositionFromHuntingSite(final API<Double> api, final Ant<Double> ant,
+        final ScoredModel<Double> sitePosition) {
+      return explore(ant, sitePosition);
+    }
+  }
+
+  private static ClassicalAPIParameters<Double> createParameters(final int maxIteration) {
+    final ClassicalAPIParameters<Double> parameters = new ClassicalAPIParameters<>();
+    parameters.setParallelExploration(true);
+    parameters.setMaxIteration(maxIteration);
+    parameters.setNestPrositionProvider(new FixedNestPositionProvider<>(new ScoredModel<>(0.0, 0)));
+    return parameters;
+  }
+
+  @Test
+  public void testClose() throws RecursiveTaskExecutorException, InterruptedException {
+    final ClassicalAPIParameters<Double> parameters = TestAPI.createParameters(3);
+    parameters.setExplorationOperator(new CountingOperator(parameters.getColonySize(), 0));
+    final API<Double> api = new API<>();
+    api.setParameters(parameters);
+    final AtomicReference<Thread> consumer = new AtomicReference<>();
+    final AtomicInteger events = new AtomicInteger();
+    api.addExplorationListener(new EventBatchListener<ExplorationEvent<Double>>() {
+      @Override
+      public void eventsOccurred(final List<ExplorationEvent<Double>> batch) {
+        consumer.set(Thread.currentThread());
+        events.addAndGet(batch.size());
+      }
+    }, 16, 16, OverflowPolicy.BLOCK);
+    api.run();
+    api.awaitExplorationEvents();
+    assertEquals(3, events.get());
+
+    // closing the API stops the thread of the listener
+    api.close();
+    consumer.get().join(10000);
+    assertFalse(consumer.get().isAlive());
+  }
+
+  @Test
+  public void testParallelExplorationFailures() {
+    final ClassicalAPIParameters<Double> parameters = TestAPI.createParameters(1);
+    final CountingOperator operator = new CountingOperator(parameters.getColonySize(), 5);
+    parameters.setExplorationOperator(operator);
+    final API<Double> api = new API<>();
+    api.setParameters(parameters);
+    try {
+      api.run();
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      // every ant explores and every failure is reported
+      for (int i = 0; i < parameters.getColonySize(); ++i) {
+        assertEquals(1, operator.explorations.get(i));
+      }
+      assertEquals(parameters.getColonySize() / 5, e.getTasks().size());
+      final BitSet failed = new BitSet();
+      for (final RecursiveTask task : e.getTasks()) {
+        final FailedIndexTask failure = (FailedIndexTask) task;
+        assertEquals("failure " + failure.getIndex(), failure.getException().getMessage());
+        failed.set(failure.getIndex());
+      }
+      assertEquals(parameters.getColonySize() / 5, failed.cardinality());
+      for (int i = 0; i < parameters.getColonySize(); i += 5) {
+        assertTrue(failed.get(i));
+      }
+    }
+  }
+}
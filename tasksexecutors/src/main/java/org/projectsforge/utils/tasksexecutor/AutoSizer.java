@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The periodic adaptation of the thread count of an executor to its load
+ * (internal use only).
+ * 
+ * @author Sébastien Aupetit
+ * @see RecursiveTaskExecutor#enableAutoSizing(long, TimeUnit)
+ */
+final class AutoSizer implements Runnable {
+
+  /** The utilization under which a thread is removed. */
+  static final double LOW_UTILIZATION = 0.5;
+
+  /** The utilization above which a thread is added if tasks are queued. */
+  static final double HIGH_UTILIZATION = 0.9;
+
+  /** The logger. */
+  private static final Logger logger = LoggerFactory.getLogger(AutoSizer.class);
+
+  /**
+   * Compute the thread count for the next period.
+   * 
+   * @param threadCount the current thread count
+   * @param busyNanos the time spent executing tasks during the last period,
+   *          including the tasks still running
+   * @param elapsedNanos the duration of the last period
+   * @param queuedTaskCount the number of queued tasks
+   * @param processors the number of available processors
+   * @return the new thread count
+   */
+  static int computeThreadCount(final int threadCount, final long busyNanos, final long elapsedNanos,
+      final int queuedTaskCount, final int processors) {
+    final double utilization = (double) busyNanos / ((double) elapsedNanos * threadCount);
+    int newThreadCount = threadCount;
+    if (utilization >= AutoSizer.HIGH_UTILIZATION && queuedTaskCount > 0) {
+      newThreadCount++;
+    } else if (utilization < AutoSizer.LOW_UTILIZATION) {
+      newThreadCount--;
+    }
+    return Math.max(1, Math.min(processors, newThreadCount));
+  }
+
+  /** The executor. */
+  private final RecursiveTaskExecutor executor;
+
+  /** The period in nanoseconds. */
+  private final long periodNanos;
+
+  /**
+   * Instantiates a new auto sizer.
+   * 
+   * @param executor the executor
+   * @param periodNanos the period in nanoseconds
+   */
+  AutoSizer(final RecursiveTaskExecutor executor, final long periodNanos) {
+    this.executor = executor;
+    this.periodNanos = periodNanos;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    long lastBusyNanos = executor.statistics.getBusyNanos();
+    long last = System.nanoTime();
+    try {
+      while (!Thread.interrupted()) {
+        TimeUnit.NANOSECONDS.sleep(periodNanos);
+        final long busyNanos = executor.statistics.getBusyNanos();
+        final long now = System.nanoTime();
+        final int threadCount = executor.getThreadCount();
+        final int newThreadCount = AutoSizer.computeThreadCount(threadCount, busyNanos - lastBusyNanos, now - last,
+            executor.getQueuedTaskCount(), Runtime.getRuntime().availableProcessors());
+        if (newThreadCount != threadCount) {
+          AutoSizer.logger.debug("Resizing the executor from {} to {} threads", threadCount, newThreadCount);
+          executor.setThreadCount(newThreadCount);
+        }
+        lastBusyNanos = busyNanos;
+        last = now;
+      }
+    } catch (final InterruptedException e) {
+      // auto-sizing disabled
+    }
+  }
+}
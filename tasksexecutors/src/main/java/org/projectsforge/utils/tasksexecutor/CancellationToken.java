@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cooperative cancellation token. A token is cancelled when {@link #cancel()}
+ * is called, when its deadline is reached or when its parent is cancelled.
+ * <p>
+ * The tasks inherit the token of the task which executes them unless a token
+ * is given with {@link RecursiveTask#setCancellationToken(CancellationToken)}.
+ * A task whose token is cancelled before it starts is not run and fails with a
+ * {@link CancellationException}. A running task must check its token itself,
+ * for instance with {@link RecursiveTask#isCancelled()}.
+ * 
+ * @author Sébastien Aupetit
+ */
+public final class CancellationToken {
+
+  /** The value of deadline when the token has no deadline. */
+  private static final long NO_DEADLINE = Long.MIN_VALUE;
+
+  /** The parent token or null. */
+  private final CancellationToken parent;
+
+  /** The other token cancelling this one or null. */
+  private final CancellationToken linked;
+
+  /** The deadline in the {@link System#nanoTime()} time base. */
+  private final long deadline;
+
+  /** Indicate if the token is cancelled. */
+  private volatile boolean cancelled = false;
+
+  /**
+   * Instantiates a new token.
+   */
+  public CancellationToken() {
+    this(null);
+  }
+
+  /**
+   * Instantiates a new token cancelled with its parent.
+   * 
+   * @param parent the parent token or null
+   */
+  public CancellationToken(final CancellationToken parent) {
+    this(parent, null);
+  }
+
+  /**
+   * Instantiates a new token cancelled with its parent or with the linked
+   * token (internal use only).
+   * 
+   * @param parent the parent token or null
+   * @param linked the linked token or null
+   */
+  CancellationToken(final CancellationToken parent, final CancellationToken linked) {
+    this.parent = parent;
+    this.linked = linked;
+    this.deadline = CancellationToken.NO_DEADLINE;
+  }
+
+  /**
+   * Instantiates a new token cancelled with its parent or when the timeout
+   * elapses.
+   * 
+   * @param parent the parent token or null
+   * @param timeout the timeout
+   * @param unit the unit of the timeout
+   */
+  public CancellationToken(final CancellationToken parent, final long timeout, final TimeUnit unit) {
+    this.parent = parent;
+    this.linked = null;
+    long value = System.nanoTime() + unit.toNanos(timeout);
+    if (value == CancellationToken.NO_DEADLINE) {
+      value++;
+    }
+    this.deadline = value;
+  }
+
+  /**
+   * Cancel the token and its descendants.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Gets the parent token.
+   * 
+   * @return the parent token or null
+   */
+  public CancellationToken getParent() {
+    return parent;
+  }
+
+  /**
+   * Checks if the token is cancelled.
+   * 
+   * @return true, if cancelled
+   */
+  public boolean isCancelled() {
+    if (cancelled) {
+      return true;
+    }
+    if ((deadline != CancellationToken.NO_DEADLINE && System.nanoTime() - deadline >= 0)
+        || (parent != null && parent.isCancelled()) || (linked != null && linked.isCancelled())) {
+      // avoid checking again the deadline and the ancestors
+      cancelled = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Throw a {@link CancellationException} if the token is cancelled.
+   */
+  public void throwIfCancelled() {
+    if (isCancelled()) {
+      throw new CancellationException("Cancelled");
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "CancellationToken [cancelled=" + isCancelled() + "]";
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The default {@link SchedulingPolicy}: the tasks are queued in the given order
+ * so that the deepest tasks are executed first and the last task of an array
+ * is the first one executed.
+ * 
+ * @author Sébastien Aupetit
+ */
+public class DepthFirstSchedulingPolicy implements SchedulingPolicy {
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.SchedulingPolicy#isProfiling()
+   */
+  @Override
+  public boolean isProfiling() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.SchedulingPolicy#order(org.projectsforge
+   * .utils.tasksexecutor.RecursiveTask[],
+   * org.projectsforge.utils.tasksexecutor.SchedulingMode)
+   */
+  @Override
+  public <T extends RecursiveTask> T[] order(final T[] tasks, final SchedulingMode schedulingMode) {
+    return tasks;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.SchedulingPolicy#taskExecuted(org.
+   * projectsforge.utils.tasksexecutor.RecursiveTask, long)
+   */
+  @Override
+  public void taskExecuted(final RecursiveTask task, final long nanos) {
+    // nothing to record
+  }
+}
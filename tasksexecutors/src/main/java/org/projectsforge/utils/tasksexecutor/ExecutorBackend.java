@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The built-in execution backends of {@link RecursiveTaskExecutorFactory}.
+ * 
+ * @author Sébastien Aupetit
+ */
+public enum ExecutorBackend implements RecursiveTaskExecutorProvider {
+
+  /**
+   * The threads of {@link RecursiveTaskExecutor} configured by the scheduling
+   * mode and the wait strategy of the factory.
+   */
+  RECURSIVE {
+    @Override
+    public RecursiveTaskExecutor createExecutor(final ThreadGroup threadGroup, final int threadCount) {
+      return new RecursiveTaskExecutor(threadGroup, threadCount, RecursiveTaskExecutorFactory.getDefaultSchedulingMode(),
+          RecursiveTaskExecutorFactory.getDefaultWaitStrategy());
+    }
+  },
+
+  /** A {@link java.util.concurrent.ForkJoinPool}. */
+  FORK_JOIN {
+    @Override
+    public RecursiveTaskExecutor createExecutor(final ThreadGroup threadGroup, final int threadCount) {
+      return new ForkJoinRecursiveTaskExecutor(threadGroup, threadCount);
+    }
+  },
+
+  /**
+   * A virtual thread per task, suited to tasks blocking on I/O. Requires a JVM
+   * providing virtual threads.
+   */
+  VIRTUAL_THREADS {
+    @Override
+    public RecursiveTaskExecutor createExecutor(final ThreadGroup threadGroup, final int threadCount) {
+      return new VirtualThreadRecursiveTaskExecutor(threadGroup, threadCount);
+    }
+
+    @Override
+    public boolean isSupported() {
+      return VirtualThreadRecursiveTaskExecutor.isSupported();
+    }
+  };
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorProvider#getName()
+   */
+  @Override
+  public String getName() {
+    return name();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorProvider#isSupported
+   * ()
+   */
+  @Override
+  public boolean isSupported() {
+    return true;
+  }
+}
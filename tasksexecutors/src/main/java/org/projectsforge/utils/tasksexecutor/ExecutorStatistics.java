@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The implementation of {@link RecursiveTaskExecutorMXBean} summing the
+ * statistics stripes of an executor (internal use only).
+ * 
+ * @author Sébastien Aupetit
+ */
+final class ExecutorStatistics implements RecursiveTaskExecutorMXBean {
+
+  /** The executor. */
+  private final RecursiveTaskExecutor executor;
+
+  /** The stripe shared by the threads which are not executor threads. */
+  final StatisticsStripe external = new StatisticsStripe(true);
+
+  /** The stripe accumulating the statistics of the terminated threads. */
+  private final StatisticsStripe retired = new StatisticsStripe(true);
+
+  /**
+   * Instantiates new statistics.
+   * 
+   * @param executor the executor
+   */
+  ExecutorStatistics(final RecursiveTaskExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Gets the time spent by the executor threads executing tasks, including the
+   * terminated threads and the tasks being executed.
+   * 
+   * @return the busy time in nanoseconds
+   */
+  long getBusyNanos() {
+    final long now = System.nanoTime();
+    long sum = external.get(StatisticsStripe.BUSY_NANOS) + retired.get(StatisticsStripe.BUSY_NANOS);
+    for (final RecursiveExecutorThread worker : executor.scheduler.getWorkers()) {
+      sum += worker.getBusyNanos(now);
+    }
+    return sum;
+  }
+
+  /**
+   * Sum a counter over all the stripes.
+   * 
+   * @param counter the index of the counter
+   * @return the sum
+   */
+  private long getCounter(final int counter) {
+    long sum = external.get(counter) + retired.get(counter);
+    for (final RecursiveExecutorThread worker : executor.scheduler.getWorkers()) {
+      sum += worker.statistics.get(counter);
+    }
+    return sum;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getBlockedThreadCount()
+   */
+  @Override
+  public int getBlockedThreadCount() {
+    return executor.getBlockedThreadCount();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getExecutedTaskCount()
+   */
+  @Override
+  public long getExecutedTaskCount() {
+    return getCounter(StatisticsStripe.EXECUTED_TASKS);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getHelpedTaskCount()
+   */
+  @Override
+  public long getHelpedTaskCount() {
+    return getCounter(StatisticsStripe.HELPED_TASKS);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getHelpRefusedByDepthCount()
+   */
+  @Override
+  public long getHelpRefusedByDepthCount() {
+    return getCounter(StatisticsStripe.HELP_REFUSED_BY_DEPTH);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getHelpRefusedByNestingCount()
+   */
+  @Override
+  public long getHelpRefusedByNestingCount() {
+    return getCounter(StatisticsStripe.HELP_REFUSED_BY_NESTING);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getIdleThreadCount()
+   */
+  @Override
+  public int getIdleThreadCount() {
+    return executor.getIdleThreadCount();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#getJoinCount
+   * ()
+   */
+  @Override
+  public long getJoinCount() {
+    return getCounter(StatisticsStripe.JOIN_COUNT);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getJoinTimeHistogram()
+   */
+  @Override
+  public long[] getJoinTimeHistogram() {
+    final long[] counters = new long[StatisticsStripe.COUNTER_COUNT];
+    final long[] histogram = new long[StatisticsStripe.HISTOGRAM_SIZE];
+    external.addTo(counters, histogram);
+    retired.addTo(counters, histogram);
+    for (final RecursiveExecutorThread worker : executor.scheduler.getWorkers()) {
+      worker.statistics.addTo(counters, histogram);
+    }
+    return histogram;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getJoinTimeNanos()
+   */
+  @Override
+  public long getJoinTimeNanos() {
+    return getCounter(StatisticsStripe.JOIN_NANOS);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getQueuedTaskCount()
+   */
+  @Override
+  public int getQueuedTaskCount() {
+    return executor.getQueuedTaskCount();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getQueuedTaskCountHighWaterMark()
+   */
+  @Override
+  public int getQueuedTaskCountHighWaterMark() {
+    return executor.scheduler.getQueuedTaskCountHighWaterMark();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getRunningThreadCount()
+   */
+  @Override
+  public int getRunningThreadCount() {
+    return executor.getRunningThreadCount();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getStolenTaskCount()
+   */
+  @Override
+  public long getStolenTaskCount() {
+    return getCounter(StatisticsStripe.STOLEN_TASKS);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#getThreadCount
+   * ()
+   */
+  @Override
+  public int getThreadCount() {
+    return executor.getThreadCount();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getWorkerBusyNanos()
+   */
+  @Override
+  public long[] getWorkerBusyNanos() {
+    final long now = System.nanoTime();
+    final RecursiveExecutorThread[] workers = executor.scheduler.getWorkers();
+    final long[] values = new long[workers.length];
+    for (int i = 0; i < workers.length; ++i) {
+      values[i] = workers[i].getBusyNanos(now);
+    }
+    return values;
+  }
+
+  /**
+   * Gets a counter of each running executor thread.
+   * 
+   * @param counter the index of the counter
+   * @return the values
+   */
+  private long[] getWorkerCounter(final int counter) {
+    final RecursiveExecutorThread[] workers = executor.scheduler.getWorkers();
+    final long[] values = new long[workers.length];
+    for (int i = 0; i < workers.length; ++i) {
+      values[i] = workers[i].statistics.get(counter);
+    }
+    return values;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#
+   * getWorkerIdleNanos()
+   */
+  @Override
+  public long[] getWorkerIdleNanos() {
+    return getWorkerCounter(StatisticsStripe.IDLE_NANOS);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorMXBean#getWorkerNames
+   * ()
+   */
+  @Override
+  public String[] getWorkerNames() {
+    final RecursiveExecutorThread[] workers = executor.scheduler.getWorkers();
+    final String[] names = new String[workers.length];
+    for (int i = 0; i < workers.length; ++i) {
+      names[i] = workers[i].getBaseName();
+    }
+    return names;
+  }
+
+  /**
+   * Keep the statistics of a terminating executor thread.
+   * 
+   * @param worker the executor thread
+   */
+  void retire(final RecursiveExecutorThread worker) {
+    retired.merge(worker.statistics);
+  }
+}
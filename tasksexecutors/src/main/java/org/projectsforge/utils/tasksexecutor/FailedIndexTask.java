@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The failure of an index of a parallel loop. The indices of a loop are not
+ * executed by their own task, so a {@link RecursiveTaskExecutorException}
+ * raised by {@link RecursiveTaskExecutor#parallelFor(int, int, IndexConsumer)}
+ * reports each failed index with a task of this class holding its exception.
+ * 
+ * @author Sébastien Aupetit
+ */
+public final class FailedIndexTask extends RecursiveTask {
+
+  /** The failed index. */
+  private final int index;
+
+  /**
+   * Instantiates a new failed index task.
+   * 
+   * @param index the failed index
+   * @param exception the exception raised by the index
+   */
+  FailedIndexTask(final int index, final Exception exception) {
+    this.index = index;
+    failed(exception);
+  }
+
+  /**
+   * Gets the failed index.
+   * 
+   * @return the index
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTask#run()
+   */
+  @Override
+  protected void run() {
+    throw new UnsupportedOperationException("The index " + index + " has already been processed");
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTask#toString()
+   */
+  @Override
+  public String toString() {
+    return "FailedIndexTask [index=" + index + ", ex=" + getException() + "]";
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A {@link RecursiveTaskExecutor} delegating the parallel executions to a
+ * {@link ForkJoinPool}. Each task is wrapped into a {@link RecursiveAction}
+ * and the tasks executed together are forked and joined with
+ * {@link ForkJoinTask#invokeAll(ForkJoinTask...)}. The forked tasks rely on
+ * {@link ForkJoinTask#tryUnfork()} to be executed inline when joined.
+ * 
+ * @author Sébastien Aupetit
+ * @see ExecutorBackend#FORK_JOIN
+ */
+public class ForkJoinRecursiveTaskExecutor extends RecursiveTaskExecutor {
+
+  /**
+   * The action executing a task (internal use only).
+   */
+  private static final class TaskAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The task. */
+    private final transient RecursiveTask task;
+
+    TaskAction(final RecursiveTask task) {
+      this.task = task;
+    }
+
+    @Override
+    protected void compute() {
+      task.execute();
+    }
+  }
+
+  /**
+   * The action executing tasks in parallel (internal use only).
+   */
+  private static final class InvokeAllAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The actions. */
+    private final transient TaskAction[] actions;
+
+    InvokeAllAction(final TaskAction[] actions) {
+      this.actions = actions;
+    }
+
+    @Override
+    protected void compute() {
+      ForkJoinTask.invokeAll(actions);
+    }
+  }
+
+  /** The pool. */
+  private final ForkJoinPool pool;
+
+  /**
+   * Instantiates a new executor.
+   * 
+   * @param threadGroup the thread group giving the name prefix and the
+   *          priority of the threads of the pool
+   * @param threadCount the parallelism of the pool (0 for a sequential
+   *          execution)
+   */
+  public ForkJoinRecursiveTaskExecutor(final ThreadGroup threadGroup, final int threadCount) {
+    super(threadGroup, threadCount);
+    pool = new ForkJoinPool(Math.max(1, threadCount), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+      @Override
+      public ForkJoinWorkerThread newThread(final ForkJoinPool forkJoinPool) {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+        thread.setName(threadGroup.getName() + " ForkJoin-" + thread.getPoolIndex());
+        final int priority = getThreadPriority();
+        thread.setPriority(Math.min(priority != 0 ? priority : Thread.NORM_PRIORITY, threadGroup.getMaxPriority()));
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, null, false);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#forkTask(org.
+   * projectsforge.utils.tasksexecutor.RecursiveTask)
+   */
+  @Override
+  void forkTask(final RecursiveTask task) {
+    prepareTasks(new RecursiveTask[] { task }, null);
+    if (getThreadCount() == 0) {
+      // the task is executed when joined
+      return;
+    }
+    final TaskAction action = new TaskAction(task);
+    task.forkHandle = action;
+    if (inPool()) {
+      action.fork();
+    } else {
+      pool.execute(action);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#getQueuedTaskCount
+   * ()
+   */
+  @Override
+  public int getQueuedTaskCount() {
+    return (int) Math.min(Integer.MAX_VALUE, pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount());
+  }
+
+  /**
+   * Checks if the current thread is a thread of the pool.
+   * 
+   * @return true, if the current thread belongs to the pool
+   */
+  private boolean inPool() {
+    final Thread currentThread = Thread.currentThread();
+    return currentThread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) currentThread).getPool() == pool;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#
+   * isAdmissionControlSupported()
+   */
+  @Override
+  public boolean isAdmissionControlSupported() {
+    // the fork/join pool schedules the tasks
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#isResizable()
+   */
+  @Override
+  public boolean isResizable() {
+    // the parallelism of a fork/join pool is fixed
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#joinTask(org.
+   * projectsforge.utils.tasksexecutor.RecursiveTask)
+   */
+  @Override
+  void joinTask(final RecursiveTask task) {
+    if (task.isDone()) {
+      return;
+    }
+    final TaskAction action = (TaskAction) task.forkHandle;
+    if (action == null || (inPool() && action.tryUnfork())) {
+      // not stolen: execute it inline
+      task.execute();
+    } else {
+      action.join();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#managedBlock(
+   * org.projectsforge.utils.tasksexecutor.ManagedBlocker)
+   */
+  @Override
+  public void managedBlock(final ManagedBlocker blocker) throws InterruptedException {
+    // the pool has its own compensation mechanism
+    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+      @Override
+      public boolean block() throws InterruptedException {
+        return blocker.block();
+      }
+
+      @Override
+      public boolean isReleasable() {
+        return blocker.isReleasable();
+      }
+    });
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#parallelExecute
+   * (org.projectsforge.utils.tasksexecutor.RecursiveTask[])
+   */
+  @Override
+  void parallelExecute(final RecursiveTask[] tasks) {
+    prepareTasks(tasks, null);
+    final TaskAction[] actions = new TaskAction[tasks.length];
+    for (int i = tasks.length - 1; i >= 0; --i) {
+      actions[i] = new TaskAction(tasks[i]);
+    }
+    if (inPool()) {
+      ForkJoinTask.invokeAll(actions);
+    } else {
+      pool.invoke(new InvokeAllAction(actions));
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#shouldSplit()
+   */
+  @Override
+  boolean shouldSplit() {
+    if (getThreadCount() == 0) {
+      return false;
+    }
+    // outside of the pool, the first split hands the work over to the pool
+    return !inPool() || ForkJoinTask.getSurplusQueuedTaskCount() < 3;
+  }
+}
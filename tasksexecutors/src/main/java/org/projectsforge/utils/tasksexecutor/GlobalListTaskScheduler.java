@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/**
+ * The scheduler implementing {@link SchedulingMode#GLOBAL_LIST}: a single
+ * synchronized list ordered by depth (internal use only).
+ * 
+ * @author Sébastien Aupetit
+ */
+class GlobalListTaskScheduler extends TaskScheduler {
+
+  /**
+   * Simple implementation of List based on an array for which the toArray()
+   * method do not duplicate the array (for internal use only).
+   */
+  private static class DirectList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final T[] a;
+
+    DirectList(final T[] array) {
+      a = array;
+    }
+
+    @Override
+    public T get(final int index) {
+      return a[index];
+    }
+
+    @Override
+    public T set(final int index, final T element) {
+      final T oldValue = a[index];
+      a[index] = element;
+      return oldValue;
+    }
+
+    @Override
+    public int size() {
+      return a.length;
+    }
+
+    @Override
+    public Object[] toArray() {
+      return a;
+    }
+
+  }
+
+  /** The task list. */
+  private final ArrayList<RecursiveTask> taskList = new ArrayList<>(1024);
+
+  /** The size of the task list readable without locking. */
+  private volatile int queuedTaskCount = 0;
+
+  /** The largest size of the task list. */
+  private volatile int highWaterMark = 0;
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#enqueue(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread,
+   * org.projectsforge.utils.tasksexecutor.RecursiveTask[], int)
+   */
+  @Override
+  void enqueue(final RecursiveExecutorThread worker, final RecursiveTask[] tasks, final int depth) {
+    synchronized (taskList) {
+      // we insert in the tasklist following depth. We compute deepest first to
+      // reduce stack use.
+      int insertIndex = 0;
+
+      final int len = taskList.size();
+      for (int i = len - 1; i >= 0; --i) {
+        if (taskList.get(i).depth <= depth) {
+          insertIndex = i + 1;
+          break;
+        }
+      }
+
+      // Use DirectList to avoid duplication of the array when toArray is called
+      // by addAll
+      taskList.addAll(insertIndex, new DirectList<>(tasks));
+      final int size = taskList.size();
+      queuedTaskCount = size;
+      if (size > highWaterMark) {
+        highWaterMark = size;
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.TaskScheduler#getQueuedTaskCount()
+   */
+  @Override
+  int getQueuedTaskCount() {
+    return queuedTaskCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#
+   * getQueuedTaskCountHighWaterMark()
+   */
+  @Override
+  int getQueuedTaskCountHighWaterMark() {
+    return highWaterMark;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.TaskScheduler#getSurplusTaskCount(org
+   * .projectsforge.utils.tasksexecutor.RecursiveExecutorThread)
+   */
+  @Override
+  int getSurplusTaskCount(final RecursiveExecutorThread worker) {
+    return queuedTaskCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#poll(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread)
+   */
+  @Override
+  RecursiveTask poll(final RecursiveExecutorThread worker) {
+    synchronized (taskList) {
+      final int size = taskList.size();
+      if (size > 0) {
+        queuedTaskCount = size - 1;
+        return taskList.remove(size - 1);
+      } else {
+        return null;
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#poll(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread, int,
+   * org.projectsforge.utils.tasksexecutor.TaskBatch)
+   */
+  @Override
+  RecursiveTask poll(final RecursiveExecutorThread worker, final int minLevel, final TaskBatch batch) {
+    synchronized (taskList) {
+      // the deepest tasks first as in poll()
+      for (int i = taskList.size() - 1; i >= 0; --i) {
+        final RecursiveTask task = taskList.get(i);
+        if (task.level >= minLevel && (batch == null || task.getBatch() == batch)) {
+          taskList.remove(i);
+          queuedTaskCount = taskList.size();
+          return task;
+        }
+      }
+      return null;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#tryUnfork(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread,
+   * org.projectsforge.utils.tasksexecutor.RecursiveTask)
+   */
+  @Override
+  boolean tryUnfork(final RecursiveExecutorThread worker, final RecursiveTask task) {
+    synchronized (taskList) {
+      // a task joined soon after its fork is usually near the tail
+      for (int i = taskList.size() - 1; i >= 0; --i) {
+        if (taskList.get(i) == task) {
+          taskList.remove(i);
+          queuedTaskCount = taskList.size();
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The queued tasks that a thread of a {@link RecursiveTaskExecutor} may
+ * execute while it waits for the completion of the tasks it joined.
+ * 
+ * @author Sébastien Aupetit
+ * @see RecursiveTaskExecutor#setMaxHelpingDepth(int)
+ */
+public enum HelpingPolicy {
+
+  /**
+   * The waiting thread executes any queued task. It keeps the thread busy but
+   * a shallow foreign task can grow its stack with a whole subtree and delay
+   * its join until the subtree is done.
+   */
+  ANY_TASK,
+
+  /**
+   * The waiting thread only executes the queued tasks which are at least as
+   * deep in the task hierarchy as the tasks it joined: the remaining tasks of
+   * its own batch, their descendants and the tasks of the other subtrees at the
+   * same level. The shallower tasks are left to the idle threads.
+   */
+  DEEPER_TASKS;
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SchedulingPolicy} starting the most expensive tasks first. The
+ * execution time of the tasks is recorded per {@link RecursiveTask} subclass
+ * as an exponentially decayed average. The tasks of a batch are queued so that
+ * the expensive ones are taken first: in
+ * {@link SchedulingMode#WORK_STEALING} mode, they are placed alternately at
+ * the end taken by the owner and at the beginning stolen by the other threads.
+ * <p>
+ * The averages can be persisted in a properties file with
+ * {@link #saveStatistics()} and are loaded again on creation, so that the
+ * order is right from the start of the next run.
+ * 
+ * @author Sébastien Aupetit
+ */
+public class LongestTaskFirstSchedulingPolicy implements SchedulingPolicy {
+
+  /**
+   * The decayed average of the execution time of a class of tasks (internal use
+   * only). Concurrent updates can be lost, which is harmless for an average.
+   */
+  private static final class Average {
+
+    /** The average in nanoseconds. */
+    volatile double value;
+
+    Average(final double value) {
+      this.value = value;
+    }
+  }
+
+  /** The weight of a new execution time in the average. */
+  private final double alpha;
+
+  /** The file storing the averages or null. */
+  private final File statisticsFile;
+
+  /** The averages by class name. */
+  private final ConcurrentHashMap<String, Average> averages = new ConcurrentHashMap<>();
+
+  /** The logger. */
+  private final Logger logger = LoggerFactory.getLogger(LongestTaskFirstSchedulingPolicy.class);
+
+  /**
+   * Instantiates a new policy which does not persist the averages.
+   */
+  public LongestTaskFirstSchedulingPolicy() {
+    this(null, 0.1);
+  }
+
+  /**
+   * Instantiates a new policy.
+   * 
+   * @param statisticsFile the file storing the averages or null
+   * @param alpha the weight of a new execution time in the average (between 0
+   *          and 1)
+   */
+  public LongestTaskFirstSchedulingPolicy(final File statisticsFile, final double alpha) {
+    if (alpha <= 0 || alpha > 1) {
+      throw new IllegalArgumentException("alpha must be in ]0,1]");
+    }
+    this.statisticsFile = statisticsFile;
+    this.alpha = alpha;
+    if (statisticsFile != null && statisticsFile.isFile()) {
+      loadStatistics();
+    }
+  }
+
+  /**
+   * Gets the average execution time of a class of tasks.
+   * 
+   * @param taskClass the class of the tasks
+   * @return the average in nanoseconds or 0 if unknown
+   */
+  public double getAverageNanos(final Class<? extends RecursiveTask> taskClass) {
+    final Average average = averages.get(taskClass.getName());
+    return (average != null) ? average.value : 0;
+  }
+
+  /**
+   * Gets the file storing the averages.
+   * 
+   * @return the file or null
+   */
+  public File getStatisticsFile() {
+    return statisticsFile;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.SchedulingPolicy#isProfiling()
+   */
+  @Override
+  public boolean isProfiling() {
+    return true;
+  }
+
+  /**
+   * Load the averages from the statistics file.
+   */
+  private void loadStatistics() {
+    final Properties properties = new Properties();
+    try (final InputStream is = new BufferedInputStream(new FileInputStream(statisticsFile))) {
+      properties.load(is);
+    } catch (final Exception e) {
+      logger.warn("Can not load task statistics from " + statisticsFile, e);
+      return;
+    }
+    for (final Entry<Object, Object> entry : properties.entrySet()) {
+      try {
+        averages.put((String) entry.getKey(), new Average(Double.parseDouble((String) entry.getValue())));
+      } catch (final NumberFormatException e) {
+        logger.warn("Invalid task statistics for {} in {}", entry.getKey(), statisticsFile);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.SchedulingPolicy#order(org.projectsforge
+   * .utils.tasksexecutor.RecursiveTask[],
+   * org.projectsforge.utils.tasksexecutor.SchedulingMode)
+   */
+  @Override
+  public <T extends RecursiveTask> T[] order(final T[] tasks, final SchedulingMode schedulingMode) {
+    final int length = tasks.length;
+    final Class<?> firstClass = (length > 0) ? tasks[0].getClass() : null;
+    boolean uniform = true;
+    for (int i = 1; i < length && uniform; ++i) {
+      uniform = tasks[i].getClass() == firstClass;
+    }
+    if (uniform) {
+      // the tasks can not be distinguished
+      return tasks;
+    }
+
+    final double[] costs = new double[length];
+    boolean sorted = true;
+    Class<?> lastClass = null;
+    double lastCost = 0;
+    for (int i = 0; i < length; ++i) {
+      final Class<?> taskClass = tasks[i].getClass();
+      if (taskClass != lastClass) {
+        final Average average = averages.get(taskClass.getName());
+        lastCost = (average != null) ? average.value : 0;
+        lastClass = taskClass;
+      }
+      costs[i] = lastCost;
+      if (i > 0 && costs[i] < costs[i - 1]) {
+        sorted = false;
+      }
+    }
+    if (sorted && schedulingMode != SchedulingMode.WORK_STEALING) {
+      // already in increasing cost order: the most expensive are taken first
+      return tasks;
+    }
+
+    // stable sort by decreasing cost
+    final Integer[] indices = new Integer[length];
+    for (int i = 0; i < length; ++i) {
+      indices[i] = i;
+    }
+    Arrays.sort(indices, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer o1, final Integer o2) {
+        return Double.compare(costs[o2], costs[o1]);
+      }
+    });
+
+    final T[] ordered = Arrays.copyOf(tasks, length);
+    if (schedulingMode == SchedulingMode.WORK_STEALING) {
+      // zigzag: the owner pops from the end, the thieves steal from the start
+      int head = 0;
+      int tail = length - 1;
+      for (int i = 0; i < length; ++i) {
+        if ((i & 1) == 0) {
+          ordered[tail--] = tasks[indices[i]];
+        } else {
+          ordered[head++] = tasks[indices[i]];
+        }
+      }
+    } else {
+      for (int i = 0; i < length; ++i) {
+        ordered[length - 1 - i] = tasks[indices[i]];
+      }
+    }
+    return ordered;
+  }
+
+  /**
+   * Save the averages in the statistics file if any.
+   */
+  public void saveStatistics() {
+    if (statisticsFile == null) {
+      return;
+    }
+    final Properties properties = new Properties();
+    for (final Entry<String, Average> entry : averages.entrySet()) {
+      properties.put(entry.getKey(), Double.toString(entry.getValue().value));
+    }
+    try {
+      final File dir = statisticsFile.getAbsoluteFile().getParentFile();
+      if (dir != null) {
+        dir.mkdirs();
+      }
+      try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(statisticsFile))) {
+        properties.store(os, "Average execution time of the recursive tasks in nanoseconds");
+      }
+    } catch (final Exception e) {
+      logger.warn("Can not save task statistics in " + statisticsFile, e);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.SchedulingPolicy#taskExecuted(org.
+   * projectsforge.utils.tasksexecutor.RecursiveTask, long)
+   */
+  @Override
+  public void taskExecuted(final RecursiveTask task, final long nanos) {
+    final String className = task.getClass().getName();
+    final Average average = averages.get(className);
+    if (average == null) {
+      averages.putIfAbsent(className, new Average(nanos));
+    } else {
+      average.value += alpha * (nanos - average.value);
+    }
+  }
+}
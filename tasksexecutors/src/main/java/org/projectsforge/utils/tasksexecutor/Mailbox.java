@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tasks sent to an executor thread because of their affinity key (internal
+ * use only). Any thread can post or take a task: the owner takes them first and
+ * the other threads take them when they have nothing else to do.
+ * 
+ * @author Sébastien Aupetit
+ * @see RecursiveTask#setAffinityKey(Object)
+ */
+final class Mailbox {
+
+  /** The tasks. */
+  private final ConcurrentLinkedQueue<RecursiveTask> tasks = new ConcurrentLinkedQueue<>();
+
+  /** The number of tasks, since the size of the queue is not constant time. */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /** Indicate that the owner terminated. */
+  private volatile boolean closed = false;
+
+  /**
+   * Close the mailbox. The tasks posted before are taken by {@link #poll()},
+   * the tasks posted after are refused.
+   */
+  void close() {
+    closed = true;
+  }
+
+  /**
+   * Checks if the mailbox is empty.
+   * 
+   * @return true, if empty
+   */
+  boolean isEmpty() {
+    return size.get() == 0;
+  }
+
+  /**
+   * Take the oldest task.
+   * 
+   * @return the task or null if the mailbox is empty
+   */
+  RecursiveTask poll() {
+    if (size.get() == 0) {
+      return null;
+    }
+    final RecursiveTask task = tasks.poll();
+    if (task != null) {
+      size.decrementAndGet();
+    }
+    return task;
+  }
+
+  /**
+   * Take the oldest acceptable task.
+   * 
+   * @param minLevel the minimal level of the task
+   * @param batch the batch the task must belong to or null for any batch
+   * @return the task or null if no acceptable task is available
+   */
+  RecursiveTask poll(final int minLevel, final TaskBatch batch) {
+    if (size.get() == 0) {
+      return null;
+    }
+    final Iterator<RecursiveTask> iterator = tasks.iterator();
+    while (iterator.hasNext()) {
+      final RecursiveTask task = iterator.next();
+      if (task.level >= minLevel && (batch == null || task.getBatch() == batch) && tasks.remove(task)) {
+        size.decrementAndGet();
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Post a task.
+   * 
+   * @param task the task
+   * @return true, if the task has been posted, false if the mailbox is closed
+   */
+  boolean post(final RecursiveTask task) {
+    if (closed) {
+      return false;
+    }
+    size.incrementAndGet();
+    tasks.offer(task);
+    // the owner may have drained the mailbox before the post
+    if (closed && tasks.remove(task)) {
+      size.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Gets the number of tasks.
+   * 
+   * @return the number of tasks
+   */
+  int size() {
+    return size.get();
+  }
+
+  /**
+   * Remove a task which has not been taken yet.
+   * 
+   * @param task the task
+   * @return true, if the task has been removed
+   */
+  boolean tryRemove(final RecursiveTask task) {
+    if (size.get() != 0 && tasks.remove(task)) {
+      size.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The interface of the blocking operations of the tasks, such as I/O or
+ * waiting for a resource, executed through
+ * {@link RecursiveTaskExecutor#managedBlock(ManagedBlocker)} so that the
+ * executor can start a compensation thread while the executor thread is
+ * blocked. It follows the contract of
+ * {@link java.util.concurrent.ForkJoinPool.ManagedBlocker}.
+ * 
+ * @author Sébastien Aupetit
+ */
+public interface ManagedBlocker {
+
+  /**
+   * Block the current thread if needed, for instance by waiting for a lock or
+   * a condition, or by performing the I/O operation.
+   * 
+   * @return true if no additional blocking is necessary, i.e. if
+   *         {@link #isReleasable()} would return true
+   * @throws InterruptedException if interrupted while waiting
+   */
+  boolean block() throws InterruptedException;
+
+  /**
+   * Checks if blocking is unnecessary.
+   * 
+   * @return true, if blocking is unnecessary
+   */
+  boolean isReleasable();
+}
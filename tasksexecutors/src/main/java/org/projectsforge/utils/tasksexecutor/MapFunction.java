@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * A function applied to each element of an array by
+ * {@link RecursiveTaskExecutor#parallelMap(Object[], Object[], MapFunction)}
+ * and {@link RecursiveTaskExecutor#parallelReduce}.
+ * 
+ * @param <TInput> the type of the input elements
+ * @param <TOutput> the type of the output elements
+ * @author Sébastien Aupetit
+ */
+public interface MapFunction<TInput, TOutput> {
+
+  /**
+   * Apply the function to an element.
+   * 
+   * @param input the input element
+   * @return the output element
+   * @throws Exception the exception
+   */
+  TOutput apply(TInput input) throws Exception;
+}
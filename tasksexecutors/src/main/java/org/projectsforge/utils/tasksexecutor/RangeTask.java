@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A task processing a range of indices which splits itself lazily (internal
+ * use only). The range is processed index by index and the remaining part is
+ * split in two sub tasks only when the executor lacks queued tasks, so that the
+ * number of tasks depends on the number of idle threads and not on the size
+ * of the range. The processing stops as soon as the execution is cancelled.
+ * <p>
+ * An exception raised by an index does not stop the range, unless fail-fast is
+ * enabled: the failures of the indices are collected by all the tasks of the
+ * range and reported together, one {@link FailedIndexTask} per index.
+ * 
+ * @author Sébastien Aupetit
+ */
+abstract class RangeTask extends RecursiveTask {
+
+  /** The executor. */
+  final RecursiveTaskExecutor executor;
+
+  /** The first index of the range. */
+  final int from;
+
+  /** The index following the last index of the range. */
+  final int to;
+
+  /** The failures shared by the tasks of the range. */
+  private List<RecursiveTask> failures;
+
+  /**
+   * Instantiates a new range task.
+   * 
+   * @param executor the executor
+   * @param from the first index (inclusive)
+   * @param to the last index (exclusive)
+   */
+  RangeTask(final RecursiveTaskExecutor executor, final int from, final int to) {
+    this.executor = executor;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * Add the tasks of an exception which failed by themselves: the ones which
+   * only report the failures of their sub tasks are skipped.
+   * 
+   * @param e the exception
+   * @param failures the failures
+   */
+  private static void addFailedTasks(final RecursiveTaskExecutorException e, final List<RecursiveTask> failures) {
+    for (final RecursiveTask task : e.getTasks()) {
+      if (!(task.getException() instanceof RecursiveTaskExecutorException)) {
+        failures.add(task);
+      }
+    }
+  }
+
+  /**
+   * Execute a range task and report the failures of all its indices.
+   * 
+   * @param task the range task
+   * @throws RecursiveTaskExecutorException if an index failed, with a
+   *           {@link FailedIndexTask} per failed index, or if a part of the
+   *           range has been cancelled
+   */
+  static void execute(final RangeTask task) throws RecursiveTaskExecutorException {
+    final List<RecursiveTask> failures = Collections.synchronizedList(new ArrayList<RecursiveTask>());
+    task.failures = failures;
+    try {
+      task.executor.execute(new RangeTask[] { task });
+    } catch (final RecursiveTaskExecutorException e) {
+      RangeTask.addFailedTasks(e, failures);
+    }
+    if (!failures.isEmpty()) {
+      throw new RecursiveTaskExecutorException(failures);
+    }
+  }
+
+  /**
+   * Creates a sub task for a part of the range.
+   * 
+   * @param subFrom the first index (inclusive)
+   * @param subTo the last index (exclusive)
+   * @return the range task
+   */
+  abstract RangeTask createSubTask(int subFrom, int subTo);
+
+  /**
+   * Process an index.
+   * 
+   * @param index the index
+   * @throws Exception the exception
+   */
+  abstract void process(int index) throws Exception;
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTask#run()
+   */
+  @Override
+  protected final void run() throws Exception {
+    for (int index = from; index < to; ++index) {
+      if (isCancelled()) {
+        throw new CancellationException("Range cancelled at index " + index);
+      }
+      if (to - index > 1 && executor.shouldSplit()) {
+        final int middle = (index + to) >>> 1;
+        final RangeTask left = createSubTask(index, middle);
+        final RangeTask right = createSubTask(middle, to);
+        left.failures = failures;
+        right.failures = failures;
+        try {
+          executor.execute(new RangeTask[] { left, right });
+        } catch (final RecursiveTaskExecutorException e) {
+          // the failures are reported by the first task of the range
+          RangeTask.addFailedTasks(e, failures);
+          throw e;
+        }
+        subTasksDone(left, right);
+        return;
+      }
+      try {
+        process(index);
+      } catch (final Exception e) {
+        final FailedIndexTask failure = new FailedIndexTask(index, e);
+        failures.add(failure);
+        if (executor.isFailFast()) {
+          // the siblings which have not started are cancelled
+          throw new RecursiveTaskExecutorException(new RecursiveTask[] { failure });
+        }
+      }
+    }
+  }
+
+  /**
+   * Called when the sub tasks created by a split are done.
+   * 
+   * @param left the sub task of the first part of the range
+   * @param right the sub task of the last part of the range
+   * @throws Exception the exception
+   */
+  void subTasksDone(final RangeTask left, final RangeTask right) throws Exception {
+    // nothing to do by default
+  }
+}
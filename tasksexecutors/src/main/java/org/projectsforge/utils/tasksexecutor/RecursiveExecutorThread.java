@@ -16,6 +16,9 @@
  */
 package org.projectsforge.utils.tasksexecutor;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * The class implementing the threads executing the tasks.
  * 
@@ -23,12 +26,34 @@ package org.projectsforge.utils.tasksexecutor;
  */
 class RecursiveExecutorThread extends Thread {
 
+  /** The updater of the idle field. */
+  private static final AtomicIntegerFieldUpdater<RecursiveExecutorThread> IDLE = AtomicIntegerFieldUpdater
+      .newUpdater(RecursiveExecutorThread.class, "idle");
+
   /** The task executor associated with the thread. */
   private final RecursiveTaskExecutor taskExecutor;
 
   /** The base name of the thread. */
   private final String baseName;
 
+  /** 1 if the thread is parked waiting for tasks, 0 otherwise. */
+  private volatile int idle = 0;
+
+  /** The start time of the task being executed or 0 if the thread waits. */
+  private volatile long busySince = 0;
+
+  /** The stack of the tasks executed by the thread. */
+  final TaskCallStack callStack = new TaskCallStack();
+
+  /** The deque of the tasks forked by the thread in work-stealing mode. */
+  final WorkStealingDeque deque = new WorkStealingDeque();
+
+  /** The tasks sent to the thread because of their affinity key. */
+  final Mailbox mailbox = new Mailbox();
+
+  /** The statistics of the thread. */
+  final StatisticsStripe statistics = new StatisticsStripe(false);
+
   /**
    * Instantiates a new executor thread.
    * 
@@ -41,9 +66,80 @@ class RecursiveExecutorThread extends Thread {
     super(threadGroup, "RecursiveExecutorThread-" + threadId);
     // dont block JVM stopping if only such thread remain
     setDaemon(true);
+    if (taskExecutor.getThreadPriority() != 0) {
+      setPriority(taskExecutor.getThreadPriority());
+    }
     this.taskExecutor = taskExecutor;
     this.baseName = getName();
-    setName("Idle > " + baseName);
+    if (taskExecutor.isDiagnosticsEnabled()) {
+      setName("Idle > " + baseName);
+    }
+  }
+
+  /**
+   * Cancel the idle state of the thread by itself.
+   * 
+   * @return true, if the thread was still idle
+   */
+  boolean cancelIdle() {
+    return RecursiveExecutorThread.IDLE.compareAndSet(this, 1, 0);
+  }
+
+  /**
+   * Checks if the thread is idle.
+   * 
+   * @return true, if the thread is idle
+   */
+  boolean isIdle() {
+    return idle != 0;
+  }
+
+  /**
+   * Mark the thread as idle. Must be called by the thread itself before
+   * checking a last time for queued tasks and parking.
+   */
+  void markIdle() {
+    idle = 1;
+  }
+
+  /**
+   * Wake up the thread if it is idle.
+   * 
+   * @return true, if the thread was idle and has been woken up
+   */
+  boolean signal() {
+    if (idle != 0 && RecursiveExecutorThread.IDLE.compareAndSet(this, 1, 0)) {
+      LockSupport.unpark(this);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the time spent executing tasks, including the task being executed, so
+   * that a thread executing a long task is seen as busy before the task ends.
+   * 
+   * @param now the current time
+   * @return the busy time in nanoseconds
+   */
+  long getBusyNanos(final long now) {
+    while (true) {
+      final long since = busySince;
+      final long busyNanos = statistics.get(StatisticsStripe.BUSY_NANOS);
+      // retry if the task ended meanwhile
+      if (since == busySince) {
+        return (since != 0) ? busyNanos + Math.max(0, now - since) : busyNanos;
+      }
+    }
+  }
+
+  /**
+   * Gets the task executor associated with the thread.
+   * 
+   * @return the task executor
+   */
+  RecursiveTaskExecutor getTaskExecutor() {
+    return taskExecutor;
   }
 
   /**
@@ -61,18 +157,40 @@ class RecursiveExecutorThread extends Thread {
    */
   @Override
   public void run() {
+    taskExecutor.scheduler.workerStarted(this);
+    boolean retired = false;
     try {
+      long start = System.nanoTime();
       while (!Thread.interrupted()) {
         try {
-          final RecursiveTask task = taskExecutor.takeTask();
-          task.execute();
+          final RecursiveTask task = taskExecutor.takeTask(this);
+          if (task == null) {
+            // surplus thread idle for too long
+            retired = true;
+            return;
+          }
+          final long taken = System.nanoTime();
+          statistics.add(StatisticsStripe.IDLE_NANOS, taken - start);
+          busySince = taken;
+          try {
+            task.execute();
+          } finally {
+            start = System.nanoTime();
+            busySince = 0;
+            statistics.add(StatisticsStripe.BUSY_NANOS, start - taken);
+          }
+          statistics.add(StatisticsStripe.EXECUTED_TASKS, 1);
         } catch (final InterruptedException e) {
           return;
         }
       }
     } finally {
-      synchronized (taskExecutor) {
-        taskExecutor.runningThread--;
+      taskExecutor.scheduler.workerTerminated(this);
+      taskExecutor.statistics.retire(this);
+      if (!retired) {
+        synchronized (taskExecutor) {
+          taskExecutor.runningThread--;
+        }
       }
     }
   }
@@ -16,7 +16,7 @@
  */
 package org.projectsforge.utils.tasksexecutor;
 
-import java.util.Deque;
+import java.util.concurrent.CancellationException;
 
 /**
  * The Interface RecursiveTask for implementing parallel independent recursive
@@ -38,23 +38,73 @@ public abstract class RecursiveTask {
   /** The depth in task hierarchy. */
   int depth;
 
-  /** The threads call stacks. */
-  private ThreadsCallStacks threadsCallStacks;
+  /**
+   * The level in the task hierarchy: the number of ancestors of the task plus
+   * one, whatever the threads which executed them. Unlike the depth, it does
+   * not restart when a task is taken by another thread.
+   */
+  int level;
+
+  /** The executor of the task. */
+  private RecursiveTaskExecutor executor;
+
+  /** The batch the task belongs to or null for a sequential execution. */
+  private TaskBatch batch;
+
+  /** The token given to the task or null to inherit the token of the parent. */
+  private CancellationToken explicitCancellationToken;
+
+  /** The token of the execution: the given one or the inherited one. */
+  CancellationToken cancellationToken;
+
+  /** The token cancelled by the failure of a sibling in fail-fast mode. */
+  private CancellationToken failFastToken;
+
+  /** The handle of the fork given by the execution backend or null. */
+  Object forkHandle;
+
+  /** The key of the data used by the task or null. */
+  Object affinityKey;
 
-  /** The notification object. */
-  private Object notificationObject;
+  /** The category of the resources used by the task or null. */
+  Object resourceCategory;
+
+  /** The limit whose permit is held by the task or null. */
+  ResourceLimit permit;
+
+  /**
+   * Indicate that the task runs under the permit of its parent since they have
+   * the same resource category.
+   */
+  boolean permitInherited;
 
   /**
    * Execute.
    */
   void execute() {
     try {
+      if ((cancellationToken != null && cancellationToken.isCancelled())
+          || (failFastToken != null && failFastToken.isCancelled())) {
+        // cancelled before starting
+        throw new CancellationException("Task cancelled before its execution");
+      }
       final Thread currentThread = Thread.currentThread();
-      final Deque<RecursiveTask> callStack = threadsCallStacks.getThreadCallStack(currentThread);
+      final TaskCallStack callStack = executor.getCallStack(currentThread);
+      final SchedulingPolicy schedulingPolicy = executor.getSchedulingPolicy();
+      final boolean profiling = schedulingPolicy.isProfiling();
+      final long start = profiling ? System.nanoTime() : 0;
+      final TaskTracer tracer = executor.tracer;
+      if (tracer != null) {
+        tracer.record(TaskTracer.TASK_START, this);
+      }
+      if (affinityKey != null && currentThread instanceof RecursiveExecutorThread
+          && ((RecursiveExecutorThread) currentThread).getTaskExecutor() == executor) {
+        executor.scheduler.recordAffinity((RecursiveExecutorThread) currentThread, affinityKey);
+      }
       // push the task on the callstack
-      callStack.addLast(this);
+      callStack.push(this);
       try {
-        if (currentThread instanceof RecursiveExecutorThread) {
+        if (executor.isDiagnosticsEnabled() && currentThread instanceof RecursiveExecutorThread) {
           final String currentThreadBaseName = ((RecursiveExecutorThread) currentThread)
               .getBaseName();
           ((RecursiveExecutorThread) currentThread).setName(threadName + " > "
@@ -69,22 +119,87 @@ public abstract class RecursiveTask {
         }
       } finally {
         // pop the task from the callstack
-        if (callStack.removeLast() != this) {
-          throw new IllegalStateException("I removed a wrong task. It's a bug");
+        callStack.pop(this);
+        if (tracer != null) {
+          tracer.record(TaskTracer.TASK_END, this);
         }
       }
+      if (profiling) {
+        schedulingPolicy.taskExecuted(this, System.nanoTime() - start);
+      }
     } catch (final Exception e) {
       this.exception = e;
+      if (failFastToken != null) {
+        // the siblings which have not started are cancelled
+        failFastToken.cancel();
+      }
     } finally {
+      final ResourceLimit currentPermit = permit;
+      if (currentPermit != null) {
+        permit = null;
+        currentPermit.release();
+      }
+      // the task can be prepared again as soon as it is marked as executed
+      final TaskBatch currentBatch = batch;
       executed = true;
-      if (notificationObject != null) {
-        synchronized (notificationObject) {
-          notificationObject.notifyAll();
-        }
+      if (currentBatch != null) {
+        currentBatch.taskDone();
       }
     }
   }
 
+  /**
+   * Mark the task as done with an exception without running it (internal use
+   * only).
+   * 
+   * @param e the exception
+   */
+  void failed(final Exception e) {
+    exception = e;
+    executed = true;
+  }
+
+  /**
+   * Gets the affinity key of the task.
+   * 
+   * @return the affinity key or null
+   * @see #setAffinityKey(Object)
+   */
+  public Object getAffinityKey() {
+    return affinityKey;
+  }
+
+  /**
+   * Gets the cancellation token of the execution: the token given with
+   * {@link #setCancellationToken(CancellationToken)} or the one inherited from
+   * the task which executed this task. In fail-fast mode, the given token is
+   * wrapped in a token also cancelled by the failure of a sibling.
+   * 
+   * @return the cancellation token or null
+   */
+  public CancellationToken getCancellationToken() {
+    return cancellationToken;
+  }
+
+  /**
+   * Gets the resource category of the task.
+   * 
+   * @return the resource category or null
+   * @see #setResourceCategory(Object)
+   */
+  public Object getResourceCategory() {
+    return resourceCategory;
+  }
+
+  /**
+   * Gets the batch the task belongs to.
+   * 
+   * @return the batch or null for a sequential execution
+   */
+  TaskBatch getBatch() {
+    return batch;
+  }
+
   /**
    * Gets the exception raised by the execution.
    * 
@@ -94,20 +209,62 @@ public abstract class RecursiveTask {
     return exception;
   }
 
+  /**
+   * Checks if the execution of the task is cancelled. Long running tasks should
+   * check it regularly and return as soon as possible when it is true.
+   * 
+   * @return true, if cancelled
+   */
+  protected boolean isCancelled() {
+    return (cancellationToken != null && cancellationToken.isCancelled())
+        || (failFastToken != null && failFastToken.isCancelled());
+  }
+
+  /**
+   * Checks if the execution of the task is done, successfully or not.
+   * 
+   * @return true, if done
+   */
+  public boolean isDone() {
+    return executed;
+  }
+
   /**
    * Prepare the execution (internal use only).
    * 
-   * @param notificationObject the notification object
-   * @param threadsCallStacks the threads call stacks
+   * @param batch the batch the task belongs to or null for a sequential
+   *          execution
+   * @param executor the executor of the task
    * @param threadName the thread name
    * @param depth the depth
+   * @param level the level
+   * @param inheritedToken the token inherited from the parent task or null
+   * @param failFastToken the token cancelled by the failure of a sibling or
+   *          null if fail-fast is disabled
    */
-  void prepareExecution(final Object notificationObject, final ThreadsCallStacks threadsCallStacks,
-      final String threadName, final int depth) {
-    this.notificationObject = notificationObject;
-    this.threadsCallStacks = threadsCallStacks;
+  void prepareExecution(final TaskBatch batch, final RecursiveTaskExecutor executor,
+      final String threadName, final int depth, final int level, final CancellationToken inheritedToken,
+      final CancellationToken failFastToken) {
+    this.batch = batch;
+    this.failFastToken = failFastToken;
+    if (explicitCancellationToken != null) {
+      // the descendants are cancelled with the given token or with the
+      // siblings
+      cancellationToken = (failFastToken != null) ? new CancellationToken(explicitCancellationToken, failFastToken)
+          : explicitCancellationToken;
+    } else if (failFastToken != null) {
+      // the descendants are cancelled with the siblings
+      cancellationToken = failFastToken;
+    } else {
+      cancellationToken = inheritedToken;
+    }
+    this.executor = executor;
     this.threadName = threadName;
     this.depth = depth;
+    this.level = level;
+    forkHandle = null;
+    permit = null;
+    permitInherited = false;
     exception = null;
     executed = false;
   }
@@ -119,6 +276,43 @@ public abstract class RecursiveTask {
    */
   protected abstract void run() throws Exception;
 
+  /**
+   * Sets the affinity key of the task, i.e. the key of the data it uses. A task
+   * with a key is preferably executed by the executor thread which executed
+   * the last task with the same key, so that the data is still in the caches
+   * of its core. The other threads execute it when they have nothing else to
+   * do. It only applies to the {@link SchedulingMode#WORK_STEALING} mode.
+   * 
+   * @param affinityKey the affinity key or null for no affinity
+   */
+  public void setAffinityKey(final Object affinityKey) {
+    this.affinityKey = affinityKey;
+  }
+
+  /**
+   * Sets the cancellation token of the task. By default, a task inherits the
+   * token of the task executing it.
+   * 
+   * @param cancellationToken the cancellation token or null to inherit the
+   *          token
+   */
+  public void setCancellationToken(final CancellationToken cancellationToken) {
+    explicitCancellationToken = cancellationToken;
+  }
+
+  /**
+   * Sets the resource category of the task, e.g. the kind of large buffers it
+   * allocates. The executor can limit the number of running tasks of a
+   * category with {@link RecursiveTaskExecutor#setResourceLimit(Object, int)}.
+   * The subtasks of a task with the same category run under the permit of
+   * their parent and are not limited.
+   * 
+   * @param resourceCategory the resource category or null for no category
+   */
+  public void setResourceCategory(final Object resourceCategory) {
+    this.resourceCategory = resourceCategory;
+  }
+
   /*
    * (non-Javadoc)
    * @see java.lang.Object#toString()
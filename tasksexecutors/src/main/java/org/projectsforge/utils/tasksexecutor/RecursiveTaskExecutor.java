@@ -16,11 +16,14 @@
  */
 package org.projectsforge.utils.tasksexecutor;
 
-import java.util.AbstractList;
-import java.util.ArrayList;
+import java.lang.management.ManagementFactory;
 import java.util.Collection;
-import java.util.Deque;
-import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,49 +37,112 @@ import org.slf4j.LoggerFactory;
 public class RecursiveTaskExecutor {
 
   /**
-   * Simple implementation of List based on an array for which the toArray()
-   * method do not duplicate the array (for internal use only).
+   * A task executing the indices of a parallel for (internal use only).
    */
-  private static class DirectList<T> extends AbstractList<T> implements RandomAccess {
+  private static final class ForRangeTask extends RangeTask {
 
-    private final T[] a;
+    /** The body of the loop. */
+    private final IndexConsumer body;
 
-    DirectList(final T[] array) {
-      a = array;
+    ForRangeTask(final RecursiveTaskExecutor executor, final int from, final int to, final IndexConsumer body) {
+      super(executor, from, to);
+      this.body = body;
     }
 
     @Override
-    public T get(final int index) {
-      return a[index];
+    RangeTask createSubTask(final int subFrom, final int subTo) {
+      return new ForRangeTask(executor, subFrom, subTo, body);
     }
 
     @Override
-    public T set(final int index, final T element) {
-      final T oldValue = a[index];
-      a[index] = element;
-      return oldValue;
+    void process(final int index) throws Exception {
+      body.accept(index);
+    }
+  }
+
+  /**
+   * A task reducing a range of elements (internal use only).
+   */
+  private static final class ReduceRangeTask<TInput, TOutput> extends RangeTask {
+
+    /** The inputs. */
+    private final TInput[] inputs;
+
+    /** The mapping function. */
+    private final MapFunction<? super TInput, ? extends TOutput> mapper;
+
+    /** The reduction function. */
+    private final ReduceFunction<TOutput> reducer;
+
+    /** The identity of the reduction. */
+    private final TOutput identity;
+
+    /** The result of the reduction of the range. */
+    TOutput result;
+
+    ReduceRangeTask(final RecursiveTaskExecutor executor, final int from, final int to, final TInput[] inputs,
+        final MapFunction<? super TInput, ? extends TOutput> mapper, final ReduceFunction<TOutput> reducer,
+        final TOutput identity) {
+      super(executor, from, to);
+      this.inputs = inputs;
+      this.mapper = mapper;
+      this.reducer = reducer;
+      this.identity = identity;
+      this.result = identity;
     }
 
     @Override
-    public int size() {
-      return a.length;
+    RangeTask createSubTask(final int subFrom, final int subTo) {
+      return new ReduceRangeTask<>(executor, subFrom, subTo, inputs, mapper, reducer, identity);
     }
 
     @Override
-    public Object[] toArray() {
-      return a;
+    void process(final int index) throws Exception {
+      result = reducer.reduce(result, mapper.apply(inputs[index]));
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    void subTasksDone(final RangeTask left, final RangeTask right) throws Exception {
+      result = reducer.reduce(reducer.reduce(result, ((ReduceRangeTask<TInput, TOutput>) left).result),
+          ((ReduceRangeTask<TInput, TOutput>) right).result);
+    }
   }
 
+  /** The identifier of the next registered MBean. */
+  private static final AtomicInteger NEXT_MBEAN_ID = new AtomicInteger();
+
   /** The Constant NOTITY_WAIT. */
   private static final int NOTITY_WAIT = 50;
 
+  /**
+   * The number of surplus queued tasks under which a range task splits itself.
+   */
+  private static final int SPLIT_THRESHOLD = 3;
+
   /** The thread group. */
   private final ThreadGroup threadGroup;
 
   /** The thread count. */
-  private final int threadCount;
+  private volatile int threadCount;
+
+  /**
+   * The priority of the execution threads or 0 to keep the priority of the
+   * threads starting them.
+   */
+  private volatile int threadPriority = 0;
+
+  /** Indicate that the surplus threads must terminate as soon as possible. */
+  private volatile boolean shrinking = false;
+
+  /** The thread adapting the thread count or null. */
+  private Thread autoSizer = null;
+
+  /** The maximum number of threads including the compensation threads. */
+  private volatile int maxThreadCount;
+
+  /** The idle time after which a surplus thread terminates. */
+  private volatile long keepAliveNanos = TimeUnit.SECONDS.toNanos(60);
 
   /** The thread id. */
   private int threadId = 0;
@@ -84,15 +150,62 @@ public class RecursiveTaskExecutor {
   /** The running thread. */
   int runningThread = 0;
 
-  /** The threads call stacks. */
-  final ThreadsCallStacks threadsCallStacks = new ThreadsCallStacks();
+  /** The number of executor threads blocked in a managed blocker. */
+  private final AtomicInteger blockedThreadCount = new AtomicInteger();
+
+  /** The call stacks of the threads which are not executor threads. */
+  private final ThreadLocal<TaskCallStack> callStacks = new ThreadLocal<TaskCallStack>() {
+    @Override
+    protected TaskCallStack initialValue() {
+      return new TaskCallStack();
+    }
+  };
+
+  /** Indicate if the threads are renamed according to the executed tasks. */
+  private volatile boolean diagnosticsEnabled = false;
+
+  /** Indicate if the failure of a task cancels its siblings. */
+  private volatile boolean failFast = false;
+
+  /** The scheduling mode. */
+  private final SchedulingMode schedulingMode;
+
+  /** The tasks a joining thread may execute while waiting. */
+  private volatile HelpingPolicy helpingPolicy = HelpingPolicy.ANY_TASK;
+
+  /** The maximum number of foreign tasks nested in the stack of a thread. */
+  private volatile int maxHelpingDepth = Integer.MAX_VALUE;
 
-  /** The task list. */
-  private final ArrayList<RecursiveTask> taskList = new ArrayList<>(1024);
+  /** The policy ordering the queued tasks. */
+  private volatile SchedulingPolicy schedulingPolicy = new DepthFirstSchedulingPolicy();
 
-  /** The notification object. */
+  /** The scheduler storing the queued tasks. */
+  final TaskScheduler scheduler;
+
+  /** The limits of the resource categories. */
+  private final ConcurrentHashMap<Object, ResourceLimit> resourceLimits = new ConcurrentHashMap<>();
+
+  /** The number of queued tasks from which the external submitters wait. */
+  private volatile int maxQueuedTaskCount = Integer.MAX_VALUE;
+
+  /** The tracer recording the executions or null if tracing is disabled. */
+  volatile TaskTracer tracer = null;
+
+  /** The wait strategy. */
+  private final WaitStrategy waitStrategy;
+
+  /** The notification object in {@link WaitStrategy#POLLING} mode. */
   private final Object notificationObject = new Object();
 
+  /** The number of parked idle threads. */
+  private final AtomicInteger idleThreadCount = new AtomicInteger();
+
+  /** The statistics. */
+  final ExecutorStatistics statistics = new ExecutorStatistics(this);
+
+  /** The name of the registered MBean or null. */
+  private ObjectName objectName = null;
+
   /** The logger. */
   private final Logger logger = LoggerFactory.getLogger(RecursiveTaskExecutor.class);
 
@@ -105,59 +218,289 @@ public class RecursiveTaskExecutor {
    * @param threadCount the thread count
    */
   public RecursiveTaskExecutor(final ThreadGroup threadGroup, final int threadCount) {
+    this(threadGroup, threadCount, SchedulingMode.GLOBAL_LIST);
+  }
+
+  /**
+   * Instantiates a new task executor.
+   * 
+   * @param threadGroup the thread group
+   * @param threadCount the thread count
+   * @param schedulingMode the scheduling mode
+   */
+  public RecursiveTaskExecutor(final ThreadGroup threadGroup, final int threadCount,
+      final SchedulingMode schedulingMode) {
+    this(threadGroup, threadCount, schedulingMode, WaitStrategy.POLLING);
+  }
+
+  /**
+   * Instantiates a new task executor.
+   * 
+   * @param threadGroup the thread group
+   * @param threadCount the thread count
+   * @param schedulingMode the scheduling mode
+   * @param waitStrategy the wait strategy
+   */
+  public RecursiveTaskExecutor(final ThreadGroup threadGroup, final int threadCount,
+      final SchedulingMode schedulingMode, final WaitStrategy waitStrategy) {
     this.threadGroup = threadGroup;
     this.threadCount = threadCount;
+    this.maxThreadCount = 4 * threadCount;
+    this.schedulingMode = schedulingMode;
+    this.waitStrategy = waitStrategy;
+    switch (schedulingMode) {
+      case WORK_STEALING:
+        scheduler = new WorkStealingTaskScheduler();
+        break;
+      case GLOBAL_LIST:
+      default:
+        scheduler = new GlobalListTaskScheduler();
+        break;
+    }
   }
 
   /**
-   * All done.
+   * Enque tasks.
    * 
-   * @param <T> the generic type
+   * @param worker the current executor thread or null
    * @param tasks the tasks
-   * @return true, if successful
+   * @param batch the batch of the tasks
    */
-  private <T extends RecursiveTask> boolean allDone(final T[] tasks) {
-    boolean done = true;
-    for (int i = tasks.length - 1; i >= 0; --i) {
-      if (!tasks[i].executed) {
-        done = false;
-        break;
+  private <T extends RecursiveTask> void enqueTasks(final RecursiveExecutorThread worker, final T[] tasks,
+      final TaskBatch batch) {
+    final int depth = prepareTasks(tasks, batch);
+    // the current thread will execute one of the tasks itself
+    enqueTasks(worker, tasks, depth, tasks.length - 1);
+  }
+
+  /**
+   * Enque prepared tasks and wake up idle threads to execute them.
+   * 
+   * @param worker the current executor thread or null
+   * @param tasks the tasks
+   * @param depth the depth of the tasks
+   * @param wakeUpCount the maximum number of idle threads to wake up
+   */
+  private void enqueTasks(final RecursiveExecutorThread worker, final RecursiveTask[] tasks, final int depth,
+      final int wakeUpCount) {
+    final TaskTracer currentTracer = tracer;
+    if (currentTracer != null) {
+      for (final RecursiveTask task : tasks) {
+        currentTracer.record(TaskTracer.FORK, task);
+      }
+    }
+    scheduler.enqueue(worker, schedulingPolicy.order(tasks, schedulingMode), depth);
+
+    // notify that new tasks were added
+    if (waitStrategy == WaitStrategy.POLLING) {
+      synchronized (notificationObject) {
+        notificationObject.notifyAll();
       }
+    } else {
+      signalIdleThreads(wakeUpCount);
     }
-    return done;
   }
 
   /**
-   * Enque tasks.
+   * Gets the executor thread of this executor running the code.
    * 
-   * @param tasks the tasks
+   * @return the current executor thread or null if the current thread is not
+   *         an executor thread of this executor
+   */
+  private RecursiveExecutorThread currentWorker() {
+    final Thread currentThread = Thread.currentThread();
+    if (currentThread instanceof RecursiveExecutorThread
+        && ((RecursiveExecutorThread) currentThread).getTaskExecutor() == this) {
+      return (RecursiveExecutorThread) currentThread;
+    }
+    return null;
+  }
+
+  /**
+   * Checks if a task belongs to a limited resource category.
+   * 
+   * @param task the task
+   * @return true, if the number of running tasks of its category is limited
    */
-  private <T extends RecursiveTask> void enqueTasks(final T[] tasks) {
-    final int depth = prepareTasks(tasks);
+  private boolean isLimited(final RecursiveTask task) {
+    return task.resourceCategory != null && resourceLimits.containsKey(task.resourceCategory);
+  }
 
-    synchronized (taskList) {
-      // we insert in the tasklist following depth. We compute deepest first to
-      // reduce stack use.
-      int insertIndex = 0;
+  /**
+   * Check if a taken task can run now according to the limit of its resource
+   * category. Otherwise, the task is deferred until a task of the category
+   * completes.
+   * 
+   * @param task the taken task
+   * @return true, if the task can be executed, false if it has been deferred
+   */
+  private boolean admit(final RecursiveTask task) {
+    if (task.resourceCategory == null || task.permit != null || task.permitInherited) {
+      return true;
+    }
+    final ResourceLimit limit = resourceLimits.get(task.resourceCategory);
+    if (limit == null) {
+      return true;
+    }
+    if (limit.tryAcquire()) {
+      task.permit = limit;
+      return true;
+    }
+    limit.defer(task);
+    return false;
+  }
 
-      final int len = taskList.size();
-      for (int i = len - 1; i >= 0; --i) {
-        if (taskList.get(i).depth <= depth) {
-          insertIndex = i + 1;
-          break;
+  /**
+   * Wait until the number of queued tasks is below the maximum before an
+   * external submission. Meanwhile, the submitting thread executes queued
+   * tasks itself.
+   * 
+   * @see #setMaxQueuedTaskCount(int)
+   */
+  private void awaitQueueCapacity() {
+    while (scheduler.getQueuedTaskCount() + getDeferredTaskCount() >= maxQueuedTaskCount) {
+      final RecursiveTask task = scheduler.poll(null);
+      if (task != null) {
+        if (admit(task)) {
+          task.execute();
         }
+      } else {
+        // only deferred tasks or tasks being taken: wait for the executor
+        // threads
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+      }
+    }
+  }
+
+  /**
+   * Wait for the completion of a batch while executing the queued tasks
+   * accepted by the helping policy.
+   * 
+   * @param worker the current executor thread or null
+   * @param batch the batch
+   * @param level the level of the tasks of the batch
+   * @param start the start of the join in nanoseconds
+   */
+  private void awaitBatch(final RecursiveExecutorThread worker, final TaskBatch batch, final int level,
+      final long start) {
+    final TaskCallStack callStack = (worker != null) ? worker.callStack : getCallStack(Thread.currentThread());
+    // at the helping limit, only the tasks of the batch can be executed
+    final boolean nestingLimited = callStack.helpingDepth >= maxHelpingDepth;
+    final boolean restricted = nestingLimited || helpingPolicy == HelpingPolicy.DEEPER_TASKS;
+    final TaskBatch onlyBatch = nestingLimited ? batch : null;
+    boolean refused = false;
+    int rounds = 0;
+    int helped = 0;
+    final TaskTracer currentTracer = tracer;
+    if (currentTracer != null) {
+      currentTracer.recordJoin(TaskTracer.JOIN_START, level);
+    }
+    while (!batch.isDone()) {
+      final RecursiveTask current = restricted ? scheduler.poll(worker, level, onlyBatch) : scheduler.poll(worker);
+      if (current != null) {
+        if (!admit(current)) {
+          continue;
+        }
+        if (current.getBatch() == batch) {
+          current.execute();
+        } else {
+          callStack.helpingDepth++;
+          current.execute();
+          callStack.helpingDepth--;
+        }
+        helped++;
+        rounds = 0;
+        continue;
+      }
+      if (restricted && !refused && scheduler.getQueuedTaskCount() > 0) {
+        refused = true;
+      }
+      if (waitStrategy == WaitStrategy.POLLING) {
+        synchronized (notificationObject) {
+          // the last task notifies while holding the monitor so that checking
+          // again here can not miss the notification
+          if (!batch.isDone()) {
+            try {
+              notificationObject.wait(RecursiveTaskExecutor.NOTITY_WAIT);
+            } catch (final InterruptedException e) {
+              logger.warn("Execution interrupted");
+            }
+          }
+        }
+      } else if (rounds < waitStrategy.getRounds()) {
+        waitStrategy.pause();
+        rounds++;
+      } else {
+        // the remaining tasks are executed by other threads which unpark us on
+        // completion
+        LockSupport.park(batch);
       }
+    }
 
-      // Use DirectList to avoid duplication of the array when toArray is called
-      // by addAll
-      taskList.addAll(insertIndex, new DirectList<>(tasks));
+    final StatisticsStripe stripe = (worker != null) ? worker.statistics : statistics.external;
+    stripe.add(StatisticsStripe.HELPED_TASKS, helped);
+    if (refused) {
+      stripe.add(nestingLimited ? StatisticsStripe.HELP_REFUSED_BY_NESTING : StatisticsStripe.HELP_REFUSED_BY_DEPTH,
+          1);
     }
+    stripe.recordJoin(System.nanoTime() - start);
+    if (currentTracer != null) {
+      currentTracer.recordJoin(TaskTracer.JOIN_END, level);
+    }
+  }
 
-    // notify that new tasks were added
-    synchronized (notificationObject) {
-      notificationObject.notifyAll();
+  /**
+   * Start a compensation thread for an executor thread about to block, unless
+   * enough threads are active or the maximum number of threads is reached.
+   */
+  private void compensate() {
+    final int id;
+    synchronized (this) {
+      if (runningThread - blockedThreadCount.get() >= threadCount || runningThread >= maxThreadCount) {
+        return;
+      }
+      runningThread++;
+      id = threadId++;
+    }
+    new RecursiveExecutorThread(this, threadGroup, id).start();
+  }
+
+  /**
+   * Stop adapting the thread count.
+   * 
+   * @see #enableAutoSizing(long, TimeUnit)
+   */
+  public synchronized void disableAutoSizing() {
+    if (autoSizer != null) {
+      autoSizer.interrupt();
+      autoSizer = null;
     }
+  }
 
+  /**
+   * Adapt periodically the thread count to the load: a thread is added when
+   * tasks are queued while the threads are busy, a thread is removed when the
+   * threads are mostly idle. The thread count never exceeds the number of
+   * processors available to the JVM, which follows the CPU quota of the
+   * container on recent JVMs.
+   * 
+   * @param period the period of the adaptation
+   * @param unit the unit of the period
+   * @throws UnsupportedOperationException if the executor cannot be resized
+   * @see #setThreadCount(int)
+   */
+  public synchronized void enableAutoSizing(final long period, final TimeUnit unit) {
+    if (!isResizable()) {
+      throw new UnsupportedOperationException("The thread count of this executor cannot be changed");
+    }
+    if (period <= 0) {
+      throw new IllegalArgumentException("The auto-sizing period must be positive");
+    }
+    disableAutoSizing();
+    autoSizer = new Thread(threadGroup, new AutoSizer(this, unit.toNanos(period)), threadGroup.getName()
+        + " auto-sizer");
+    autoSizer.setDaemon(true);
+    autoSizer.start();
   }
 
   /**
@@ -168,6 +511,10 @@ public class RecursiveTaskExecutor {
     int oldThreadId;
     synchronized (this) {
       missing = threadCount - runningThread;
+      if (missing <= 0) {
+        // the compensation threads are not counted
+        return;
+      }
       runningThread = threadCount;
       oldThreadId = threadId;
       threadId += missing;
@@ -191,12 +538,13 @@ public class RecursiveTaskExecutor {
     if (tasks.isEmpty()) {
       return;
     }
-    if (tasks.size() == 1 || threadCount == 0) {
+    if (threadCount == 0 || (tasks.size() == 1 && !isLimited(tasks.iterator().next()))) {
       // direct sequential execution
-      prepareTasks(tasks);
+      prepareTasks(tasks, null);
       for (final T task : tasks) {
         task.execute();
       }
+      releaseTasks(tasks);
     } else {
       execute(tasks.toArray(EMPTY_ARRAY));
     }
@@ -215,16 +563,15 @@ public class RecursiveTaskExecutor {
       return;
     }
 
-    if (tasks.length == 1 || threadCount == 0) {
-      prepareTasks(tasks);
+    if (threadCount == 0 || (tasks.length == 1 && !isLimited(tasks[0]))) {
+      prepareTasks(tasks, null);
       for (final T task : tasks) {
         task.execute();
       }
     } else {
-      // parallel execution
-      ensureThreadAvailability();
       parallelExecute(tasks);
     }
+    releaseTasks(tasks);
 
     for (int i = tasks.length - 1; i >= 0; i--) {
       if (tasks[i].getException() != null) {
@@ -247,123 +594,1089 @@ public class RecursiveTaskExecutor {
       return;
     }
     // direct sequential execution
-    prepareTasks(tasks);
+    prepareTasks(tasks, null);
     for (final T task : tasks) {
       task.execute();
     }
+    releaseTasks(tasks);
   }
 
   /**
-   * Gets the number of execution threads. The number is an information. In
-   * reality, there could be more or less threads but this should be rare.
+   * Fork a task: the task is queued for an asynchronous execution and the
+   * current thread can go on until it needs the result of the task. A forked
+   * task must be joined with {@link #join(RecursiveTask)}. The task has the
+   * depth and the cancellation token it would have with
+   * {@link #execute(RecursiveTask[])}, but the fail-fast mode only applies to
+   * the tasks executed together.
    * 
-   * @return the number of execution threads
+   * @param <T> the generic type
+   * @param task the task
+   * @return the task
    */
-  public int getThreadCount() {
-    return threadCount;
+  public <T extends RecursiveTask> T fork(final T task) {
+    forkTask(task);
+    return task;
   }
 
   /**
-   * Parallel execute.
+   * Fork a task. This is the method overridden by the other execution
+   * backends.
    * 
-   * @param <T> the generic type
-   * @param tasks the tasks
+   * @param task the task
+   * @see #fork(RecursiveTask)
    */
-  private <T extends RecursiveTask> void parallelExecute(final T[] tasks) {
-    enqueTasks(tasks);
+  void forkTask(final RecursiveTask task) {
+    final RecursiveTask[] tasks = new RecursiveTask[] { task };
+    if (threadCount == 0) {
+      // the task is executed when joined
+      prepareTasks(tasks, null);
+      return;
+    }
+    ensureThreadAvailability();
+    final RecursiveExecutorThread worker = currentWorker();
+    final Thread currentThread = (worker != null) ? worker : Thread.currentThread();
+    if (worker == null && maxQueuedTaskCount != Integer.MAX_VALUE && getCallStack(currentThread).peek() == null) {
+      awaitQueueCapacity();
+    }
+    final TaskBatch batch;
+    if (waitStrategy == WaitStrategy.POLLING) {
+      batch = new TaskBatch(notificationObject, currentThread, 1);
+    } else {
+      batch = new TaskBatch(null, currentThread, 1);
+    }
+    final int depth = prepareTasks(tasks, batch);
+    // the current thread goes on with its own work
+    enqueTasks(worker, tasks, depth, 1);
+  }
 
-    while (!allDone(tasks)) {
-      final RecursiveTask current;
-      synchronized (taskList) {
-        final int size = taskList.size();
-        if (size > 0) {
-          current = taskList.remove(size - 1);
-        } else {
-          current = null;
-        }
-      }
-      if (current != null) {
-        current.execute();
-      } else {
-        synchronized (notificationObject) {
-          try {
-            notificationObject.wait(RecursiveTaskExecutor.NOTITY_WAIT);
-          } catch (final InterruptedException e) {
-            logger.warn("Execution interrupted");
-          }
-        }
-      }
+  /**
+   * Gets the stack of the tasks executed by a thread.
+   * 
+   * @param thread the thread
+   * @return the call stack
+   */
+  TaskCallStack getCallStack(final Thread thread) {
+    if (thread instanceof RecursiveExecutorThread && ((RecursiveExecutorThread) thread).getTaskExecutor() == this) {
+      return ((RecursiveExecutorThread) thread).callStack;
     }
+    return callStacks.get();
   }
 
-  private <T extends RecursiveTask> int prepareTasks(final Collection<T> tasks) {
-    final RecursiveTask parentTask;
-    final String threadName;
-    final int depth;
+  /**
+   * Gets the cancellation token of the task executed by the current thread.
+   * It allows the code called by a task, like the body of
+   * {@link #parallelFor(int, int, IndexConsumer)}, to check the cancellation.
+   * 
+   * @return the cancellation token or null if there is no token or no task
+   */
+  public CancellationToken getCurrentCancellationToken() {
+    final RecursiveTask task = getCallStack(Thread.currentThread()).peek();
+    return (task != null) ? task.cancellationToken : null;
+  }
 
-    final Thread currentThread = Thread.currentThread();
-    final Deque<RecursiveTask> callStack = threadsCallStacks.getThreadCallStack(currentThread);
-    parentTask = callStack.peekLast();
-    if (parentTask != null) {
-      threadName = parentTask.threadName;
-    } else {
-      threadName = currentThread.getName();
+  /**
+   * Gets the number of tasks deferred by the limits of their resource
+   * category.
+   * 
+   * @return the number of deferred tasks
+   * @see #setResourceLimit(Object, int)
+   */
+  public int getDeferredTaskCount() {
+    if (resourceLimits.isEmpty()) {
+      return 0;
     }
+    int count = 0;
+    for (final ResourceLimit limit : resourceLimits.values()) {
+      count += limit.getDeferredCount();
+    }
+    return count;
+  }
 
-    depth = callStack.size() + 1;
+  /**
+   * Gets the number of executor threads blocked in a managed blocker.
+   * 
+   * @return the number of blocked threads
+   */
+  int getBlockedThreadCount() {
+    return blockedThreadCount.get();
+  }
 
-    for (final T task : tasks) {
-      task.prepareExecution(notificationObject, threadsCallStacks, threadName, depth);
-    }
-    return depth;
+  /**
+   * Gets the helping policy.
+   * 
+   * @return the helping policy
+   */
+  public HelpingPolicy getHelpingPolicy() {
+    return helpingPolicy;
   }
 
-  private <T extends RecursiveTask> int prepareTasks(final T[] tasks) {
-    final RecursiveTask parentTask;
-    final String threadName;
-    final int depth;
+  /**
+   * Gets the number of executor threads parked waiting for tasks.
+   * 
+   * @return the number of idle threads
+   */
+  int getIdleThreadCount() {
+    return idleThreadCount.get();
+  }
 
-    final Thread currentThread = Thread.currentThread();
-    final Deque<RecursiveTask> callStack = threadsCallStacks.getThreadCallStack(currentThread);
-    parentTask = callStack.peekLast();
-    if (parentTask != null) {
-      threadName = parentTask.threadName;
-    } else {
-      threadName = currentThread.getName();
-    }
+  /**
+   * Gets the idle time after which a surplus thread terminates.
+   * 
+   * @param unit the unit of the result
+   * @return the keep alive time
+   */
+  public long getKeepAliveTime(final TimeUnit unit) {
+    return unit.convert(keepAliveNanos, TimeUnit.NANOSECONDS);
+  }
 
-    depth = callStack.size() + 1;
+  /**
+   * Gets the maximum helping depth.
+   * 
+   * @return the maximum number of foreign tasks nested in the stack of a thread
+   * @see #setMaxHelpingDepth(int)
+   */
+  public int getMaxHelpingDepth() {
+    return maxHelpingDepth;
+  }
 
-    for (int i = tasks.length - 1; i >= 0; --i) {
-      tasks[i].prepareExecution(notificationObject, threadsCallStacks, threadName, depth);
-    }
-    return depth;
+  /**
+   * Gets the number of queued tasks from which the external submissions wait.
+   * 
+   * @return the maximum number of queued tasks
+   * @see #setMaxQueuedTaskCount(int)
+   */
+  public int getMaxQueuedTaskCount() {
+    return maxQueuedTaskCount;
   }
 
-  // blocking
   /**
-   * Take task.
+   * Gets the maximum number of executor threads, including the compensation
+   * threads.
    * 
-   * @return the recursive task
-   * @throws InterruptedException the interrupted exception
+   * @return the maximum number of threads
+   * @see #managedBlock(ManagedBlocker)
    */
-  RecursiveTask takeTask() throws InterruptedException {
-    while (true) {
-      final RecursiveTask task;
-      synchronized (taskList) {
-        final int size = taskList.size();
-        if (size > 0) {
-          task = taskList.remove(size - 1);
-        } else {
-          task = null;
-        }
-      }
-      if (task != null) {
-        return task;
-      } else {
-        synchronized (notificationObject) {
-          notificationObject.wait(RecursiveTaskExecutor.NOTITY_WAIT);
+  public int getMaxThreadCount() {
+    return maxThreadCount;
+  }
+
+  /**
+   * Gets the approximate number of tasks waiting for an execution thread.
+   * 
+   * @return the number of queued tasks
+   */
+  public int getQueuedTaskCount() {
+    return scheduler.getQueuedTaskCount();
+  }
+
+  /**
+   * Gets the maximum number of running tasks of a resource category.
+   * 
+   * @param category the resource category
+   * @return the limit or {@link Integer#MAX_VALUE} if the category is not
+   *         limited
+   * @see #setResourceLimit(Object, int)
+   */
+  public int getResourceLimit(final Object category) {
+    final ResourceLimit limit = resourceLimits.get(category);
+    return (limit != null) ? limit.getLimit() : Integer.MAX_VALUE;
+  }
+
+  /**
+   * Gets the number of running tasks of a resource category which hold a
+   * permit of the limit of the category.
+   * 
+   * @param category the resource category
+   * @return the number of running tasks or 0 if the category is not limited
+   */
+  public int getResourceUsage(final Object category) {
+    final ResourceLimit limit = resourceLimits.get(category);
+    return (limit != null) ? limit.getRunningCount() : 0;
+  }
+
+  /**
+   * Gets the number of running executor threads, including the compensation
+   * threads.
+   * 
+   * @return the number of threads
+   */
+  synchronized int getRunningThreadCount() {
+    return runningThread;
+  }
+
+  /**
+   * Gets the statistics of the executor.
+   * 
+   * @return the statistics
+   * @see #registerMBean()
+   */
+  public RecursiveTaskExecutorMXBean getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Gets the tracer recording the executions.
+   * 
+   * @return the tracer or null if tracing is disabled
+   */
+  public TaskTracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * Gets the wait strategy.
+   * 
+   * @return the wait strategy
+   */
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  /**
+   * Gets the scheduling policy.
+   * 
+   * @return the scheduling policy
+   */
+  public SchedulingPolicy getSchedulingPolicy() {
+    return schedulingPolicy;
+  }
+
+  /**
+   * Gets the scheduling mode.
+   * 
+   * @return the scheduling mode
+   */
+  public SchedulingMode getSchedulingMode() {
+    return schedulingMode;
+  }
+
+  /**
+   * Gets the number of execution threads. The number is an information. In
+   * reality, there could be more or less threads but this should be rare, for
+   * example just after a call to {@link #setThreadCount(int)}.
+   * 
+   * @return the number of execution threads
+   */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /**
+   * Gets the priority of the execution threads.
+   * 
+   * @return the priority or 0 if the threads keep the priority of the threads
+   *         starting them
+   */
+  public int getThreadPriority() {
+    return threadPriority;
+  }
+
+  /**
+   * Execute two tasks in parallel: the second one is forked while the current
+   * thread executes the first one, then the second one is joined.
+   * 
+   * @param first the task executed by the current thread
+   * @param second the forked task
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   */
+  public void invokeAll(final RecursiveTask first, final RecursiveTask second) throws RecursiveTaskExecutorException {
+    invokeAll(new RecursiveTask[] { first, second });
+  }
+
+  /**
+   * Execute tasks in parallel: all the tasks but the first one are forked, the
+   * current thread executes the first one, then the forked tasks are joined in
+   * the reverse order of their forks so that the ones which have not been
+   * stolen are executed inline.
+   * 
+   * @param <T> the generic type
+   * @param tasks the tasks
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   */
+  public <T extends RecursiveTask> void invokeAll(final T[] tasks) throws RecursiveTaskExecutorException {
+    if (tasks.length == 0) {
+      return;
+    }
+    for (int i = tasks.length - 1; i > 0; --i) {
+      forkTask(tasks[i]);
+    }
+    prepareTasks(new RecursiveTask[] { tasks[0] }, null);
+    tasks[0].execute();
+    for (int i = 1; i < tasks.length; ++i) {
+      joinTask(tasks[i]);
+    }
+    releaseTasks(tasks);
+
+    for (int i = tasks.length - 1; i >= 0; i--) {
+      if (tasks[i].getException() != null) {
+        throw new RecursiveTaskExecutorException(tasks);
+      }
+    }
+  }
+
+  /**
+   * Checks if the executor applies the limits of the resource categories and
+   * the maximum number of queued tasks. The fork/join and the virtual threads
+   * backends schedule the tasks by themselves and do not.
+   * 
+   * @return true, if admission control is supported
+   * @see #setResourceLimit(Object, int)
+   * @see #setMaxQueuedTaskCount(int)
+   */
+  public boolean isAdmissionControlSupported() {
+    return true;
+  }
+
+  /**
+   * Checks if diagnostics are enabled. When enabled, the executor threads are
+   * renamed according to the task they execute. It has a significant cost for
+   * fine-grained tasks.
+   * 
+   * @return true, if diagnostics are enabled
+   */
+  public boolean isDiagnosticsEnabled() {
+    return diagnosticsEnabled;
+  }
+
+  /**
+   * Checks if the thread count can be changed at runtime. It is the case of the
+   * executors of this class which are not sequential. The other backends
+   * delegate the management of their threads and cannot be resized.
+   * 
+   * @return true, if the executor can be resized
+   * @see #setThreadCount(int)
+   */
+  public boolean isResizable() {
+    return threadCount > 0;
+  }
+
+  /**
+   * Checks if the thread count is adapted to the load.
+   * 
+   * @return true, if auto-sizing is enabled
+   * @see #enableAutoSizing(long, TimeUnit)
+   */
+  public synchronized boolean isAutoSizingEnabled() {
+    return autoSizer != null;
+  }
+
+  /**
+   * Checks if fail-fast is enabled. When enabled, the first failure of a task
+   * cancels the tasks executed with it which have not started yet, as well as
+   * the descendants of the running ones which check their cancellation token.
+   * The cancelled tasks fail with a
+   * {@link java.util.concurrent.CancellationException}.
+   * 
+   * @return true, if fail-fast is enabled
+   */
+  public boolean isFailFast() {
+    return failFast;
+  }
+
+  /**
+   * Wait for the completion of a forked task. If the task has not been taken by
+   * another thread yet, it is executed inline by the current thread. Otherwise,
+   * the current thread executes other queued tasks while waiting.
+   * 
+   * @param task the forked task
+   * @throws RecursiveTaskExecutorException if the task raised an exception
+   * @see #fork(RecursiveTask)
+   */
+  public void join(final RecursiveTask task) throws RecursiveTaskExecutorException {
+    joinTask(task);
+    if (task.getException() != null) {
+      throw new RecursiveTaskExecutorException(new RecursiveTask[] { task });
+    }
+    if (task instanceof RecyclableTask) {
+      ((RecyclableTask<?>) task).release();
+    }
+  }
+
+  /**
+   * Wait for the completion of a forked task. This is the method overridden by
+   * the other execution backends. The exception must be left in the task.
+   * 
+   * @param task the forked task
+   * @see #join(RecursiveTask)
+   */
+  void joinTask(final RecursiveTask task) {
+    if (task.isDone()) {
+      return;
+    }
+    final RecursiveExecutorThread worker = currentWorker();
+    final TaskBatch batch = task.getBatch();
+    if (batch == null) {
+      task.execute();
+      return;
+    }
+    if (scheduler.tryUnfork(worker, task) && admit(task)) {
+      // not stolen: execute it inline
+      task.execute();
+      return;
+    }
+    final long start = System.nanoTime();
+    batch.setWaiter((worker != null) ? worker : Thread.currentThread());
+    awaitBatch(worker, batch, task.level, start);
+  }
+
+  /**
+   * Execute a blocking operation. When called by an executor thread, a
+   * compensation thread is started if needed so that the number of active
+   * threads stays equal to the thread count while the thread is blocked. The
+   * surplus threads terminate once they have been idle for the keep alive time.
+   * 
+   * @param blocker the blocking operation
+   * @throws InterruptedException if interrupted while blocking
+   * @see #setMaxThreadCount(int)
+   * @see #setKeepAliveTime(long, TimeUnit)
+   */
+  public void managedBlock(final ManagedBlocker blocker) throws InterruptedException {
+    if (threadCount == 0 || currentWorker() == null) {
+      // no executor thread to compensate
+      while (!blocker.isReleasable() && !blocker.block()) {
+        continue;
+      }
+      return;
+    }
+    if (blocker.isReleasable()) {
+      return;
+    }
+    blockedThreadCount.incrementAndGet();
+    try {
+      compensate();
+      while (!blocker.isReleasable() && !blocker.block()) {
+        continue;
+      }
+    } finally {
+      blockedThreadCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Execute in parallel at least two tasks and wait for their completion. This
+   * is the method overridden by the other execution backends. The exceptions
+   * must be left in the tasks.
+   * 
+   * @param tasks the tasks
+   */
+  void parallelExecute(final RecursiveTask[] tasks) {
+    ensureThreadAvailability();
+
+    final RecursiveExecutorThread worker = currentWorker();
+    final Thread currentThread = (worker != null) ? worker : Thread.currentThread();
+    if (worker == null && maxQueuedTaskCount != Integer.MAX_VALUE && getCallStack(currentThread).peek() == null) {
+      awaitQueueCapacity();
+    }
+    final long start = System.nanoTime();
+    final TaskBatch batch;
+    if (waitStrategy == WaitStrategy.POLLING) {
+      batch = new TaskBatch(notificationObject, currentThread, tasks.length);
+    } else {
+      batch = new TaskBatch(null, currentThread, tasks.length);
+    }
+
+    enqueTasks(worker, tasks, batch);
+    awaitBatch(worker, batch, tasks[0].level, start);
+  }
+
+  /**
+   * Execute a loop in parallel. The range is split lazily: the indices are
+   * processed sequentially by a task until some threads lack work, so that the
+   * number of created tasks does not depend on the size of the range. An
+   * exception raised by an index does not stop the loop, unless fail-fast is
+   * enabled: the exception thrown at the end reports each failed index with a
+   * {@link FailedIndexTask}.
+   * 
+   * @param from the first index (inclusive)
+   * @param to the last index (exclusive)
+   * @param body the body of the loop
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   */
+  public void parallelFor(final int from, final int to, final IndexConsumer body)
+      throws RecursiveTaskExecutorException {
+    parallelFor(from, to, body, null);
+  }
+
+  /**
+   * Execute a loop in parallel which is stopped when a token is cancelled.
+   * 
+   * @param from the first index (inclusive)
+   * @param to the last index (exclusive)
+   * @param body the body of the loop
+   * @param cancellationToken the cancellation token or null to inherit the
+   *          token of the current task
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   * @see #parallelFor(int, int, IndexConsumer)
+   */
+  public void parallelFor(final int from, final int to, final IndexConsumer body,
+      final CancellationToken cancellationToken) throws RecursiveTaskExecutorException {
+    if (from >= to) {
+      return;
+    }
+    final ForRangeTask task = new ForRangeTask(this, from, to, body);
+    task.setCancellationToken(cancellationToken);
+    RangeTask.execute(task);
+  }
+
+  /**
+   * Apply in parallel a function to each element of an array.
+   * 
+   * @param <TInput> the type of the input elements
+   * @param <TOutput> the type of the output elements
+   * @param inputs the input elements
+   * @param outputs the array receiving the output elements (its length must be
+   *          at least the one of the inputs)
+   * @param mapper the function
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   * @see #parallelFor(int, int, IndexConsumer)
+   */
+  public <TInput, TOutput> void parallelMap(final TInput[] inputs, final TOutput[] outputs,
+      final MapFunction<? super TInput, ? extends TOutput> mapper) throws RecursiveTaskExecutorException {
+    if (outputs.length < inputs.length) {
+      throw new IllegalArgumentException("The output array is too small");
+    }
+    parallelFor(0, inputs.length, new IndexConsumer() {
+      @Override
+      public void accept(final int index) throws Exception {
+        outputs[index] = mapper.apply(inputs[index]);
+      }
+    });
+  }
+
+  /**
+   * Map and reduce in parallel the elements of an array. The reduction function
+   * must be associative and the identity must be neutral for it.
+   * 
+   * @param <TInput> the type of the input elements
+   * @param <TOutput> the type of the result
+   * @param inputs the input elements
+   * @param identity the identity of the reduction
+   * @param mapper the mapping function
+   * @param reducer the reduction function
+   * @return the result
+   * @throws RecursiveTaskExecutorException the recursive task executor
+   *           exception
+   * @see #parallelFor(int, int, IndexConsumer)
+   */
+  public <TInput, TOutput> TOutput parallelReduce(final TInput[] inputs, final TOutput identity,
+      final MapFunction<? super TInput, ? extends TOutput> mapper, final ReduceFunction<TOutput> reducer)
+      throws RecursiveTaskExecutorException {
+    if (inputs.length == 0) {
+      return identity;
+    }
+    final ReduceRangeTask<TInput, TOutput> task = new ReduceRangeTask<>(this, 0, inputs.length, inputs, mapper,
+        reducer, identity);
+    RangeTask.execute(task);
+    return task.result;
+  }
+
+  /**
+   * Prepare the tasks of a collection for an execution.
+   * 
+   * @param <T> the generic type
+   * @param tasks the tasks
+   * @param batch the batch of the tasks or null for a sequential execution
+   * @return the depth of the tasks
+   */
+  private <T extends RecursiveTask> int prepareTasks(final Collection<T> tasks, final TaskBatch batch) {
+    final RecursiveTask parentTask;
+    final String threadName;
+    final int depth;
+
+    final Thread currentThread = Thread.currentThread();
+    final TaskCallStack callStack = getCallStack(currentThread);
+    parentTask = callStack.peek();
+    if (parentTask != null) {
+      threadName = parentTask.threadName;
+    } else {
+      threadName = currentThread.getName();
+    }
+
+    depth = callStack.size() + 1;
+    final int level = (parentTask != null) ? parentTask.level + 1 : 1;
+
+    final CancellationToken inheritedToken = (parentTask != null) ? parentTask.cancellationToken : null;
+    final CancellationToken failFastToken = (failFast && tasks.size() > 1) ? new CancellationToken(inheritedToken)
+        : null;
+    final Object parentCategory = (parentTask != null) ? parentTask.resourceCategory : null;
+    for (final T task : tasks) {
+      task.prepareExecution(batch, this, threadName, depth, level, inheritedToken, failFastToken);
+      if (parentCategory != null && parentCategory.equals(task.resourceCategory)) {
+        task.permitInherited = true;
+      }
+    }
+    return depth;
+  }
+
+  /**
+   * Prepare tasks for an execution.
+   * 
+   * @param <T> the generic type
+   * @param tasks the tasks
+   * @param batch the batch of the tasks or null for a sequential execution
+   * @return the depth of the tasks
+   */
+  <T extends RecursiveTask> int prepareTasks(final T[] tasks, final TaskBatch batch) {
+    final RecursiveTask parentTask;
+    final String threadName;
+    final int depth;
+
+    final Thread currentThread = Thread.currentThread();
+    final TaskCallStack callStack = getCallStack(currentThread);
+    parentTask = callStack.peek();
+    if (parentTask != null) {
+      threadName = parentTask.threadName;
+    } else {
+      threadName = currentThread.getName();
+    }
+
+    depth = callStack.size() + 1;
+    final int level = (parentTask != null) ? parentTask.level + 1 : 1;
+
+    final CancellationToken inheritedToken = (parentTask != null) ? parentTask.cancellationToken : null;
+    final CancellationToken failFastToken = (failFast && tasks.length > 1) ? new CancellationToken(inheritedToken)
+        : null;
+    final Object parentCategory = (parentTask != null) ? parentTask.resourceCategory : null;
+    for (int i = tasks.length - 1; i >= 0; --i) {
+      tasks[i].prepareExecution(batch, this, threadName, depth, level, inheritedToken, failFastToken);
+      if (parentCategory != null && parentCategory.equals(tasks[i].resourceCategory)) {
+        tasks[i].permitInherited = true;
+      }
+    }
+    return depth;
+  }
+
+  /**
+   * Register the statistics of the executor as an MBean of the platform MBean
+   * server. The name of the MBean is built from the name of the thread group
+   * and a unique identifier.
+   * 
+   * @return the name of the MBean
+   * @throws JMException if the registration fails
+   * @see #getStatistics()
+   */
+  public synchronized ObjectName registerMBean() throws JMException {
+    if (objectName == null) {
+      final ObjectName name = new ObjectName("org.projectsforge.utils.tasksexecutor:type=RecursiveTaskExecutor,name="
+          + ObjectName.quote(threadGroup.getName()) + ",id="
+          + RecursiveTaskExecutor.NEXT_MBEAN_ID.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+      objectName = name;
+    }
+    return objectName;
+  }
+
+  /**
+   * Return the successfully executed {@link RecyclableTask} to their pool.
+   * 
+   * @param tasks the executed tasks
+   */
+  private static void releaseTasks(final Collection<? extends RecursiveTask> tasks) {
+    for (final RecursiveTask task : tasks) {
+      if (task instanceof RecyclableTask) {
+        ((RecyclableTask<?>) task).release();
+      }
+    }
+  }
+
+  /**
+   * Return the successfully executed {@link RecyclableTask} to their pool.
+   * 
+   * @param tasks the executed tasks
+   */
+  private static void releaseTasks(final RecursiveTask[] tasks) {
+    for (final RecursiveTask task : tasks) {
+      if (task instanceof RecyclableTask) {
+        ((RecyclableTask<?>) task).release();
+      }
+    }
+  }
+
+  /**
+   * Queue again a deferred task which has been given a permit.
+   * 
+   * @param task the task
+   */
+  void resubmit(final RecursiveTask task) {
+    final RecursiveTask[] tasks = new RecursiveTask[] { task };
+    scheduler.enqueue(currentWorker(), tasks, task.depth);
+    signalQueuedTasks(tasks, 1);
+  }
+
+  /**
+   * Enable or disable diagnostics.
+   * 
+   * @param diagnosticsEnabled true to rename the executor threads according to
+   *          the task they execute
+   * @see #isDiagnosticsEnabled()
+   */
+  public void setDiagnosticsEnabled(final boolean diagnosticsEnabled) {
+    this.diagnosticsEnabled = diagnosticsEnabled;
+  }
+
+  /**
+   * Enable or disable fail-fast.
+   * 
+   * @param failFast true to cancel the siblings of a failed task
+   * @see #isFailFast()
+   */
+  public void setFailFast(final boolean failFast) {
+    this.failFast = failFast;
+  }
+
+  /**
+   * Sets the tasks a joining thread may execute while waiting for the
+   * completion of the tasks it joined. It only applies to the executor threads
+   * of this class: the other backends have their own helping rules.
+   * 
+   * @param helpingPolicy the new helping policy
+   * @see #getStatistics()
+   */
+  public void setHelpingPolicy(final HelpingPolicy helpingPolicy) {
+    this.helpingPolicy = helpingPolicy;
+  }
+
+  /**
+   * Sets the idle time after which a surplus thread, i.e. a thread started to
+   * compensate a blocked thread, terminates.
+   * 
+   * @param time the keep alive time
+   * @param unit the unit of the time
+   */
+  public void setKeepAliveTime(final long time, final TimeUnit unit) {
+    if (time <= 0) {
+      throw new IllegalArgumentException("The keep alive time must be positive");
+    }
+    keepAliveNanos = unit.toNanos(time);
+  }
+
+  /**
+   * Sets the maximum number of foreign tasks, i.e. tasks of other batches,
+   * that can be nested in the stack of a thread by helping. A joining thread
+   * which reached the limit only executes the remaining tasks of the batch it
+   * joined, so that its stack does not grow with unrelated work.
+   * 
+   * @param maxHelpingDepth the maximum helping depth ({@link Integer#MAX_VALUE}
+   *          for no limit)
+   */
+  public void setMaxHelpingDepth(final int maxHelpingDepth) {
+    if (maxHelpingDepth < 0) {
+      throw new IllegalArgumentException("The maximum helping depth must be positive");
+    }
+    this.maxHelpingDepth = maxHelpingDepth;
+  }
+
+  /**
+   * Sets the number of queued tasks, including the deferred ones, from which
+   * the threads which are not executor threads wait before submitting tasks.
+   * Meanwhile, they execute queued tasks themselves. The submissions made by
+   * running tasks are never delayed.
+   * 
+   * @param maxQueuedTaskCount the maximum number of queued tasks
+   *          ({@link Integer#MAX_VALUE} for no limit)
+   * @throws UnsupportedOperationException if admission control is not
+   *           supported
+   * @see #isAdmissionControlSupported()
+   */
+  public void setMaxQueuedTaskCount(final int maxQueuedTaskCount) {
+    if (!isAdmissionControlSupported()) {
+      throw new UnsupportedOperationException("This executor does not support admission control");
+    }
+    if (maxQueuedTaskCount <= 0) {
+      throw new IllegalArgumentException("The maximum number of queued tasks must be positive");
+    }
+    this.maxQueuedTaskCount = maxQueuedTaskCount;
+  }
+
+  /**
+   * Sets the maximum number of executor threads, including the compensation
+   * threads. The default value is four times the thread count.
+   * 
+   * @param maxThreadCount the maximum number of threads
+   */
+  public void setMaxThreadCount(final int maxThreadCount) {
+    if (maxThreadCount < threadCount) {
+      throw new IllegalArgumentException("The maximum number of threads must be at least the thread count");
+    }
+    this.maxThreadCount = maxThreadCount;
+  }
+
+  /**
+   * Sets the maximum number of tasks of a resource category running
+   * concurrently, e.g. to bound the memory used by the tasks allocating large
+   * buffers. A queued task which would exceed the limit is deferred: the thread
+   * taking it goes on with other tasks and the task is queued again when a
+   * task of the category completes. The tasks executed sequentially by the
+   * calling thread and the subtasks of a task of the same category are not
+   * limited. A task waiting for tasks of another limited category may
+   * deadlock if all the permits of that category are held by waiting tasks.
+   * 
+   * @param category the resource category
+   * @param limit the maximum number of running tasks ({@link Integer#MAX_VALUE}
+   *          for no limit)
+   * @throws UnsupportedOperationException if admission control is not
+   *           supported
+   * @see RecursiveTask#setResourceCategory(Object)
+   * @see #isAdmissionControlSupported()
+   */
+  public void setResourceLimit(final Object category, final int limit) {
+    if (!isAdmissionControlSupported()) {
+      throw new UnsupportedOperationException("This executor does not support admission control");
+    }
+    if (limit <= 0) {
+      throw new IllegalArgumentException("The resource limit must be positive");
+    }
+    final ResourceLimit resourceLimit = resourceLimits.get(category);
+    if (resourceLimit != null) {
+      resourceLimit.setLimit(limit);
+    } else if (limit != Integer.MAX_VALUE) {
+      final ResourceLimit previous = resourceLimits.putIfAbsent(category, new ResourceLimit(this, limit));
+      if (previous != null) {
+        previous.setLimit(limit);
+      }
+    }
+  }
+
+  /**
+   * Sets the policy ordering the queued tasks.
+   * 
+   * @param schedulingPolicy the new scheduling policy
+   */
+  public void setSchedulingPolicy(final SchedulingPolicy schedulingPolicy) {
+    this.schedulingPolicy = schedulingPolicy;
+  }
+
+  /**
+   * Sets the number of execution threads. When the count grows, the missing
+   * threads are started by the next executions. When it shrinks, the surplus
+   * threads terminate as soon as their current task is done. The maximum
+   * number of threads is raised if needed.
+   * 
+   * @param threadCount the new thread count
+   * @throws UnsupportedOperationException if the executor cannot be resized
+   * @see #isResizable()
+   */
+  public void setThreadCount(final int threadCount) {
+    if (!isResizable()) {
+      throw new UnsupportedOperationException("The thread count of this executor cannot be changed");
+    }
+    if (threadCount <= 0) {
+      throw new IllegalArgumentException("The thread count must be positive");
+    }
+    final boolean surplus;
+    synchronized (this) {
+      this.threadCount = threadCount;
+      if (maxThreadCount < threadCount) {
+        maxThreadCount = threadCount;
+      }
+      surplus = runningThread - blockedThreadCount.get() > threadCount;
+      if (surplus) {
+        shrinking = true;
+      }
+    }
+    if (surplus) {
+      // wake up the waiting threads so that the surplus ones terminate
+      signalIdleThreads(Integer.MAX_VALUE);
+      synchronized (notificationObject) {
+        notificationObject.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Sets the priority of the execution threads. The running threads of a
+   * {@link ExecutorBackend#RECURSIVE} executor are updated, the other backends
+   * use it for the threads they start afterwards. The priority is capped by the
+   * maximum priority of the thread group.
+   * 
+   * @param threadPriority the priority
+   */
+  public void setThreadPriority(final int threadPriority) {
+    if (threadPriority < Thread.MIN_PRIORITY || threadPriority > Thread.MAX_PRIORITY) {
+      throw new IllegalArgumentException("Invalid thread priority " + threadPriority);
+    }
+    this.threadPriority = threadPriority;
+    for (final RecursiveExecutorThread worker : scheduler.getWorkers()) {
+      worker.setPriority(threadPriority);
+    }
+  }
+
+  /**
+   * Sets the tracer recording the executions. Tracing has no cost but a test
+   * when disabled.
+   * 
+   * @param tracer the tracer or null to disable tracing
+   */
+  public void setTracer(final TaskTracer tracer) {
+    this.tracer = tracer;
+  }
+
+  /**
+   * Checks if a range task should split itself, i.e. if the other threads could
+   * lack work.
+   * 
+   * @return true, if splitting is worth it
+   */
+  boolean shouldSplit() {
+    return threadCount > 0 && scheduler.getSurplusTaskCount(currentWorker()) < RecursiveTaskExecutor.SPLIT_THRESHOLD;
+  }
+
+  /**
+   * Unregister the MBean registered by {@link #registerMBean()}.
+   * 
+   * @throws JMException if the unregistration fails
+   */
+  public synchronized void unregisterMBean() throws JMException {
+    if (objectName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      objectName = null;
+    }
+  }
+
+  /**
+   * Wake up an executor thread if it is idle.
+   * 
+   * @param worker the executor thread
+   */
+  void signalWorker(final RecursiveExecutorThread worker) {
+    if (worker.signal()) {
+      idleThreadCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Wake up the threads able to execute tasks queued outside of the normal
+   * fork path: the idle threads and the threads waiting for their batches.
+   * 
+   * @param tasks the queued tasks
+   * @param count the number of tasks
+   */
+  void signalQueuedTasks(final RecursiveTask[] tasks, final int count) {
+    if (waitStrategy == WaitStrategy.POLLING) {
+      synchronized (notificationObject) {
+        notificationObject.notifyAll();
+      }
+    } else {
+      signalIdleThreads(count);
+      // the joining thread may be the only one able to execute them
+      for (int i = 0; i < count; ++i) {
+        tasks[i].getBatch().wakeWaiter();
+      }
+    }
+  }
+
+  /**
+   * Wake up idle threads.
+   * 
+   * @param count the maximum number of threads to wake up
+   */
+  private void signalIdleThreads(int count) {
+    if (count <= 0 || idleThreadCount.get() == 0) {
+      return;
+    }
+    for (final RecursiveExecutorThread worker : scheduler.getWorkers()) {
+      if (worker.signal()) {
+        idleThreadCount.decrementAndGet();
+        if (--count == 0) {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Terminate a surplus executor thread if more threads than the thread count
+   * are active.
+   * 
+   * @return true, if the calling thread must terminate
+   */
+  private synchronized boolean tryRetire() {
+    if (runningThread - blockedThreadCount.get() > threadCount) {
+      runningThread--;
+      return true;
+    }
+    shrinking = false;
+    return false;
+  }
+
+  // blocking
+  /**
+   * Take task.
+   * 
+   * @param worker the executor thread taking the task
+   * @return the recursive task or null if the thread must terminate since it
+   *         is not needed anymore, either because it has been idle for the
+   *         keep alive time or because the thread count has been reduced
+   * @throws InterruptedException the interrupted exception
+   */
+  RecursiveTask takeTask(final RecursiveExecutorThread worker) throws InterruptedException {
+    int rounds = 0;
+    long idleSince = System.nanoTime();
+    while (true) {
+      if (shrinking && tryRetire()) {
+        // the thread count has been reduced
+        return null;
+      }
+      RecursiveTask task = scheduler.poll(worker);
+      if (task != null) {
+        if (admit(task)) {
+          return task;
+        }
+        // deferred: look for another task
+        continue;
+      } else if (System.nanoTime() - idleSince >= keepAliveNanos) {
+        // idle for the keep alive time: terminate if not needed
+        if (tryRetire()) {
+          return null;
+        }
+        idleSince = System.nanoTime();
+      } else if (waitStrategy == WaitStrategy.POLLING) {
+        synchronized (notificationObject) {
+          notificationObject.wait(RecursiveTaskExecutor.NOTITY_WAIT);
+        }
+      } else if (rounds < waitStrategy.getRounds()) {
+        waitStrategy.pause();
+        rounds++;
+      } else {
+        // publish the idle state before checking a last time for tasks so that
+        // a concurrent enqueue either sees the idle state or enqueues before
+        // the check
+        worker.markIdle();
+        idleThreadCount.incrementAndGet();
+        task = scheduler.poll(worker);
+        if (task != null) {
+          if (worker.cancelIdle()) {
+            idleThreadCount.decrementAndGet();
+          }
+          if (admit(task)) {
+            return task;
+          }
+          rounds = 0;
+          continue;
+        }
+        while (worker.isIdle()) {
+          final long remaining = idleSince + keepAliveNanos - System.nanoTime();
+          if (remaining <= 0) {
+            // not signaled during the keep alive time
+            if (worker.cancelIdle()) {
+              idleThreadCount.decrementAndGet();
+            }
+            break;
+          }
+          LockSupport.parkNanos(this, remaining);
+          if (Thread.interrupted()) {
+            if (worker.cancelIdle()) {
+              idleThreadCount.decrementAndGet();
+            }
+            throw new InterruptedException();
+          }
         }
+        rounds = 0;
       }
     }
   }
@@ -16,10 +16,38 @@
  */
 package org.projectsforge.utils.tasksexecutor;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
- * A factory for accessing the default TastExecutor instance.
+ * A factory for accessing the default TastExecutor instance and the named
+ * pools. A named pool is an executor with its own threads, thread group and
+ * MBean so that a heavy workload does not starve the others. It is created on
+ * first use and configured by the following system properties, the missing
+ * ones defaulting to the settings of the default instance:
+ * <ul>
+ * <li>{@code org.projectsforge.utils.executorPool.<name>.threadCount}</li>
+ * <li>{@code org.projectsforge.utils.executorPool.<name>.maxThreadCount}</li>
+ * <li>{@code org.projectsforge.utils.executorPool.<name>.priority}: the
+ * priority of the threads</li>
+ * <li>{@code org.projectsforge.utils.executorPool.<name>.backend}</li>
+ * </ul>
  */
 public class RecursiveTaskExecutorFactory {
+  /** The name of the pool returned by {@link #getInstance()}. */
+  public static final String DEFAULT_POOL = "default";
+
+  /** The prefix of the system properties configuring the named pools. */
+  public static final String POOL_PROPERTY_PREFIX = "org.projectsforge.utils.executorPool.";
+
   /** The Constant DEFAULTTHREADGROUP. */
   private static final ThreadGroup DEFAULTTHREADGROUP = new ThreadGroup(
       "RecursiveTaskExecutor threads");
@@ -28,27 +56,273 @@ public class RecursiveTaskExecutorFactory {
     DEFAULTTHREADGROUP.setMaxPriority(Thread.NORM_PRIORITY - 1);
   }
 
+  /**
+   * The parent of the thread groups of the named pools. It is a child of the
+   * root thread group, so that the priority of a pool does not depend on the
+   * thread creating it.
+   */
+  private static final ThreadGroup POOLTHREADGROUP;
+
+  static {
+    ThreadGroup root = Thread.currentThread().getThreadGroup();
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    POOLTHREADGROUP = new ThreadGroup(root, "RecursiveTaskExecutor pools");
+    POOLTHREADGROUP.setMaxPriority(Thread.MAX_PRIORITY);
+  }
+
   /** The thread count. */
   private static int defaultThreadCount = Math.max(
       0,
       Integer.parseInt(System.getProperty("org.projectsforge.utils.executorThreadCount",
           Integer.toString(Runtime.getRuntime().availableProcessors()))));
 
-  /** The instance. */
-  private static RecursiveTaskExecutor instance = null;
+  /** The maximum thread count including the compensation threads. */
+  private static int defaultMaxThreadCount = Integer.parseInt(System.getProperty(
+      "org.projectsforge.utils.executorMaxThreadCount", Integer.toString(4 * defaultThreadCount)));
+
+  /** The idle time in seconds after which a compensation thread terminates. */
+  private static long defaultKeepAliveTime = Long.parseLong(System.getProperty(
+      "org.projectsforge.utils.executorKeepAliveTime", "60"));
+
+  /** The auto-sizing period in milliseconds, 0 to disable auto-sizing. */
+  private static long defaultAutoSizingPeriod = Long.parseLong(System.getProperty(
+      "org.projectsforge.utils.executorAutoSizingPeriod", "0"));
+
+  /** The number of queued tasks from which the external submitters wait. */
+  private static int defaultMaxQueuedTaskCount = Integer.parseInt(System.getProperty(
+      "org.projectsforge.utils.executorMaxQueuedTaskCount", Integer.toString(Integer.MAX_VALUE)));
+
+  /** The number of events kept per thread by the tracer, 0 to disable tracing. */
+  private static int defaultTraceCapacity = Integer.parseInt(System.getProperty(
+      "org.projectsforge.utils.executorTraceCapacity", "0"));
+
+  /** The scheduling mode. */
+  private static SchedulingMode defaultSchedulingMode = SchedulingMode.valueOf(System.getProperty(
+      "org.projectsforge.utils.executorSchedulingMode", SchedulingMode.GLOBAL_LIST.name()));
+
+  /** The wait strategy. */
+  private static WaitStrategy defaultWaitStrategy = WaitStrategy.valueOf(System.getProperty(
+      "org.projectsforge.utils.executorWaitStrategy", WaitStrategy.POLLING.name()));
+
+  /** The name of the execution backend. */
+  private static String defaultBackend = System.getProperty("org.projectsforge.utils.executorBackend",
+      ExecutorBackend.RECURSIVE.name());
+
+  /** The diagnostics flag. */
+  private static boolean defaultDiagnosticsEnabled = Boolean.parseBoolean(System.getProperty(
+      "org.projectsforge.utils.executorDiagnostics", "false"));
+
+  /** The scheduling policy: DEPTH_FIRST or LONGEST_TASK_FIRST. */
+  private static String defaultSchedulingPolicy = System.getProperty(
+      "org.projectsforge.utils.executorSchedulingPolicy", "DEPTH_FIRST");
+
+  /** The file persisting the statistics of the LONGEST_TASK_FIRST policy. */
+  private static File defaultTaskStatisticsFile = new File(System.getProperty(
+      "org.projectsforge.utils.executorTaskStatisticsFile", System.getProperty("user.home") + File.separatorChar
+          + ".projectsforge" + File.separatorChar + "utils" + File.separatorChar + "executors" + File.separatorChar
+          + "taskStatistics.properties"));
+
+  /** The fail-fast flag. */
+  private static boolean defaultFailFast = Boolean.parseBoolean(System.getProperty(
+      "org.projectsforge.utils.executorFailFast", "false"));
+
+  /** The helping policy. */
+  private static HelpingPolicy defaultHelpingPolicy = HelpingPolicy.valueOf(System.getProperty(
+      "org.projectsforge.utils.executorHelpingPolicy", HelpingPolicy.ANY_TASK.name()));
+
+  /** The maximum helping depth. */
+  private static int defaultMaxHelpingDepth = Integer.parseInt(System.getProperty(
+      "org.projectsforge.utils.executorMaxHelpingDepth", Integer.toString(Integer.MAX_VALUE)));
+
+  /** The instance, read without locking. */
+  private static volatile RecursiveTaskExecutor instance = null;
 
   /**
-   * Gets the RecursiveTaskExecutor instance.
+   * The named pools except the default one, read without locking and updated
+   * under the lock of the class.
+   */
+  private static final Map<String, RecursiveTaskExecutor> pools = new ConcurrentHashMap<>();
+
+  /** The logger. */
+  private static final Logger logger = LoggerFactory.getLogger(RecursiveTaskExecutorFactory.class);
+
+  /**
+   * Gets the scheduling mode used by {@link ExecutorBackend#RECURSIVE}.
    * 
-   * @return single instance of RecursiveTaskExecutorFactory
+   * @return the scheduling mode
+   */
+  static SchedulingMode getDefaultSchedulingMode() {
+    return defaultSchedulingMode;
+  }
+
+  /**
+   * Gets the wait strategy used by {@link ExecutorBackend#RECURSIVE}.
+   * 
+   * @return the wait strategy
    */
-  public static synchronized RecursiveTaskExecutor getInstance() {
+  static WaitStrategy getDefaultWaitStrategy() {
+    return defaultWaitStrategy;
+  }
+
+  /**
+   * Creates and configures an executor.
+   * 
+   * @param threadGroup the thread group
+   * @param threadCount the thread count
+   * @param maxThreadCount the maximum thread count
+   * @param backend the name of the execution backend
+   * @return the executor
+   */
+  private static RecursiveTaskExecutor createExecutor(final ThreadGroup threadGroup, final int threadCount,
+      final int maxThreadCount, final String backend) {
+    RecursiveTaskExecutorProvider provider = getProvider(backend);
+    if (provider == null) {
+      logger.warn("Unknown executor backend {}: using {}", backend, ExecutorBackend.RECURSIVE);
+      provider = ExecutorBackend.RECURSIVE;
+    } else if (!provider.isSupported()) {
+      logger.warn("Executor backend {} is not supported by this JVM: using {}", backend, ExecutorBackend.RECURSIVE);
+      provider = ExecutorBackend.RECURSIVE;
+    }
+    final RecursiveTaskExecutor executor = provider.createExecutor(threadGroup, threadCount);
+    executor.setDiagnosticsEnabled(defaultDiagnosticsEnabled);
+    executor.setFailFast(defaultFailFast);
+    executor.setHelpingPolicy(defaultHelpingPolicy);
+    executor.setMaxHelpingDepth(defaultMaxHelpingDepth);
+    executor.setMaxThreadCount(Math.max(threadCount, maxThreadCount));
+    executor.setKeepAliveTime(defaultKeepAliveTime, TimeUnit.SECONDS);
+    if (defaultTraceCapacity > 0) {
+      executor.setTracer(new TaskTracer(defaultTraceCapacity));
+    }
+    if (defaultMaxQueuedTaskCount != Integer.MAX_VALUE && executor.isAdmissionControlSupported()) {
+      executor.setMaxQueuedTaskCount(defaultMaxQueuedTaskCount);
+    }
+    if (defaultAutoSizingPeriod > 0 && executor.isResizable()) {
+      executor.enableAutoSizing(defaultAutoSizingPeriod, TimeUnit.MILLISECONDS);
+    }
+    if ("LONGEST_TASK_FIRST".equalsIgnoreCase(defaultSchedulingPolicy)) {
+      executor.setSchedulingPolicy(new LongestTaskFirstSchedulingPolicy(defaultTaskStatisticsFile, 0.1));
+    } else if (!"DEPTH_FIRST".equalsIgnoreCase(defaultSchedulingPolicy)) {
+      logger.warn("Unknown scheduling policy {}: using DEPTH_FIRST", defaultSchedulingPolicy);
+    }
+    try {
+      executor.registerMBean();
+    } catch (final JMException e) {
+      logger.warn("Unable to register the statistics of the executor", e);
+    }
+    return executor;
+  }
+
+  /**
+   * Creates the RecursiveTaskExecutor instance unless another thread did it.
+   * 
+   * @return the instance
+   */
+  private static synchronized RecursiveTaskExecutor createInstance() {
     if (instance == null) {
-      instance = new RecursiveTaskExecutor(DEFAULTTHREADGROUP, defaultThreadCount);
+      instance = createExecutor(DEFAULTTHREADGROUP, defaultThreadCount, defaultMaxThreadCount, defaultBackend);
     }
     return instance;
   }
 
+  /**
+   * Creates a named pool unless another thread did it.
+   * 
+   * @param name the name of the pool
+   * @return the executor of the pool
+   */
+  private static synchronized RecursiveTaskExecutor createPool(final String name) {
+    RecursiveTaskExecutor pool = pools.get(name);
+    if (pool == null) {
+      final String prefix = POOL_PROPERTY_PREFIX + name + ".";
+      final int threadCount = Math.max(0,
+          Integer.parseInt(System.getProperty(prefix + "threadCount", Integer.toString(defaultThreadCount))));
+      final int maxThreadCount = Integer.parseInt(System.getProperty(prefix + "maxThreadCount",
+          Integer.toString(Math.max(threadCount, defaultMaxThreadCount))));
+      final int priority = Integer.parseInt(System.getProperty(prefix + "priority",
+          Integer.toString(DEFAULTTHREADGROUP.getMaxPriority())));
+      final String backend = System.getProperty(prefix + "backend", defaultBackend);
+
+      final int threadPriority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, priority));
+      final ThreadGroup threadGroup = new ThreadGroup(POOLTHREADGROUP, "RecursiveTaskExecutor pool " + name);
+      threadGroup.setMaxPriority(threadPriority);
+      pool = createExecutor(threadGroup, threadCount, maxThreadCount, backend);
+      pool.setThreadPriority(threadPriority);
+      pools.put(name, pool);
+    }
+    return pool;
+  }
+
+  /**
+   * Gets the RecursiveTaskExecutor instance. Once it exists, no lock is taken.
+   * 
+   * @return single instance of RecursiveTaskExecutorFactory
+   */
+  public static RecursiveTaskExecutor getInstance() {
+    final RecursiveTaskExecutor current = instance;
+    return (current != null) ? current : createInstance();
+  }
+
+  /**
+   * Gets a named pool, creating it on first use. Once the pool exists, no lock
+   * is taken, so that it can be looked up on each use.
+   * 
+   * @param name the name of the pool or null for the default instance
+   * @return the executor of the pool
+   */
+  public static RecursiveTaskExecutor getPool(final String name) {
+    if (name == null || DEFAULT_POOL.equals(name)) {
+      return getInstance();
+    }
+    final RecursiveTaskExecutor pool = pools.get(name);
+    return (pool != null) ? pool : createPool(name);
+  }
+
+  /**
+   * Gets the names of the pools created so far, the default one included.
+   * 
+   * @return the names of the pools
+   */
+  public static synchronized List<String> getPoolNames() {
+    final List<String> names = new ArrayList<>();
+    names.add(DEFAULT_POOL);
+    names.addAll(pools.keySet());
+    return names;
+  }
+
+  /**
+   * Gets an execution backend by its name.
+   * 
+   * @param name the name of the backend
+   * @return the provider of the backend or null if no backend has this name
+   */
+  public static RecursiveTaskExecutorProvider getProvider(final String name) {
+    for (final RecursiveTaskExecutorProvider provider : getProviders()) {
+      if (provider.getName().equalsIgnoreCase(name)) {
+        return provider;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the available execution backends: the built-in ones followed by the
+   * ones declared as {@link ServiceLoader} services.
+   * 
+   * @return the providers
+   */
+  public static List<RecursiveTaskExecutorProvider> getProviders() {
+    final List<RecursiveTaskExecutorProvider> providers = new ArrayList<>();
+    for (final ExecutorBackend backend : ExecutorBackend.values()) {
+      providers.add(backend);
+    }
+    for (final RecursiveTaskExecutorProvider provider : ServiceLoader.load(RecursiveTaskExecutorProvider.class)) {
+      providers.add(provider);
+    }
+    return providers;
+  }
+
   /**
    * Sets the task executor.
    * 
@@ -57,4 +331,21 @@ public class RecursiveTaskExecutorFactory {
   public static synchronized void setTaskExecutor(final RecursiveTaskExecutor instance) {
     RecursiveTaskExecutorFactory.instance = instance;
   }
+
+  /**
+   * Sets the executor of a named pool. The previous executor is not shut down.
+   * 
+   * @param name the name of the pool
+   * @param executor the executor or null to recreate the pool from the system
+   *          properties on next use
+   */
+  public static synchronized void setPool(final String name, final RecursiveTaskExecutor executor) {
+    if (name == null || DEFAULT_POOL.equals(name)) {
+      instance = executor;
+    } else if (executor == null) {
+      pools.remove(name);
+    } else {
+      pools.put(name, executor);
+    }
+  }
 }
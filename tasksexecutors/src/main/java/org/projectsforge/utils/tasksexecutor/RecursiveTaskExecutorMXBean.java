@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The management interface exposing the statistics of a
+ * {@link RecursiveTaskExecutor}. The values are cumulative since the creation
+ * of the executor and approximate since they are read without synchronizing
+ * with the threads which update them. The statistics describe the queues and
+ * the threads of the executor: the backends delegating the execution to other
+ * threads do not report them.
+ * 
+ * @author Sébastien Aupetit
+ * @see RecursiveTaskExecutor#registerMBean()
+ */
+public interface RecursiveTaskExecutorMXBean {
+
+  /**
+   * Gets the number of executor threads blocked in a managed blocker.
+   * 
+   * @return the number of threads
+   * @see RecursiveTaskExecutor#managedBlock(ManagedBlocker)
+   */
+  int getBlockedThreadCount();
+
+  /**
+   * Gets the number of tasks executed by the executor threads after taking them
+   * from the queues.
+   * 
+   * @return the number of tasks
+   */
+  long getExecutedTaskCount();
+
+  /**
+   * Gets the number of tasks executed by threads waiting for the completion of
+   * the tasks they submitted.
+   * 
+   * @return the number of tasks
+   */
+  long getHelpedTaskCount();
+
+  /**
+   * Gets the number of joins during which the joining thread left queued tasks
+   * because they were shallower than the joined tasks.
+   * 
+   * @return the number of joins
+   * @see HelpingPolicy#DEEPER_TASKS
+   */
+  long getHelpRefusedByDepthCount();
+
+  /**
+   * Gets the number of joins during which the joining thread left the queued
+   * tasks of other batches because its maximum helping depth was reached.
+   * 
+   * @return the number of joins
+   * @see RecursiveTaskExecutor#setMaxHelpingDepth(int)
+   */
+  long getHelpRefusedByNestingCount();
+
+  /**
+   * Gets the number of executor threads currently parked waiting for tasks.
+   * 
+   * @return the number of threads
+   */
+  int getIdleThreadCount();
+
+  /**
+   * Gets the number of joins, i.e. of parallel executions of tasks.
+   * 
+   * @return the number of joins
+   */
+  long getJoinCount();
+
+  /**
+   * Gets the histogram of the durations of the joins. The bucket i counts the
+   * joins which lasted less than 2^i microseconds and more than the bucket
+   * before. The last bucket counts the longer joins.
+   * 
+   * @return the histogram
+   */
+  long[] getJoinTimeHistogram();
+
+  /**
+   * Gets the cumulated duration of the joins.
+   * 
+   * @return the duration in nanoseconds
+   */
+  long getJoinTimeNanos();
+
+  /**
+   * Gets the approximate number of queued tasks.
+   * 
+   * @return the number of tasks
+   */
+  int getQueuedTaskCount();
+
+  /**
+   * Gets the largest number of queued tasks observed. In work-stealing mode, it
+   * is the largest number of tasks observed in a single queue.
+   * 
+   * @return the high-water mark of the queues
+   */
+  int getQueuedTaskCountHighWaterMark();
+
+  /**
+   * Gets the number of running executor threads, including the threads started
+   * to compensate the blocked ones.
+   * 
+   * @return the number of threads
+   */
+  int getRunningThreadCount();
+
+  /**
+   * Gets the number of tasks stolen by an executor thread from the queue of
+   * another thread.
+   * 
+   * @return the number of tasks
+   */
+  long getStolenTaskCount();
+
+  /**
+   * Gets the number of executor threads.
+   * 
+   * @return the number of threads
+   */
+  int getThreadCount();
+
+  /**
+   * Gets the time spent by each running executor thread executing tasks, the
+   * task being executed included, in the order of {@link #getWorkerNames()}.
+   * 
+   * @return the durations in nanoseconds
+   */
+  long[] getWorkerBusyNanos();
+
+  /**
+   * Gets the time spent by each running executor thread waiting for tasks, in
+   * the order of {@link #getWorkerNames()}.
+   * 
+   * @return the durations in nanoseconds
+   */
+  long[] getWorkerIdleNanos();
+
+  /**
+   * Gets the names of the running executor threads.
+   * 
+   * @return the names
+   */
+  String[] getWorkerNames();
+}
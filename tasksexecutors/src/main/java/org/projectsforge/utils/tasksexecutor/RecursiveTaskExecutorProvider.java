@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The service provider interface of the execution backends of
+ * {@link RecursiveTaskExecutorFactory}. The built-in backends are listed by
+ * {@link ExecutorBackend}. Additional providers are discovered through
+ * {@link java.util.ServiceLoader} and selected by their name with the
+ * <code>org.projectsforge.utils.executorBackend</code> system property.
+ * 
+ * @author Sébastien Aupetit
+ */
+public interface RecursiveTaskExecutorProvider {
+
+  /**
+   * Creates an executor.
+   * 
+   * @param threadGroup the thread group of the created threads
+   * @param threadCount the number of execution threads (0 for a sequential
+   *          execution)
+   * @return the recursive task executor
+   */
+  RecursiveTaskExecutor createExecutor(ThreadGroup threadGroup, int threadCount);
+
+  /**
+   * Gets the name of the backend.
+   * 
+   * @return the name
+   */
+  String getName();
+
+  /**
+   * Checks if the backend is supported by the running JVM.
+   * 
+   * @return true, if supported
+   */
+  boolean isSupported();
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * A task which can be reused through a {@link RecyclableTaskPool} to avoid the
+ * allocation of a task per fork at high frequency fork sites. The data of an
+ * execution is given as a typed payload.
+ * <p>
+ * A task acquired from a pool returns to the pool of the current thread as
+ * soon as it has been successfully joined by
+ * {@link RecursiveTaskExecutor#join(RecursiveTask)},
+ * {@link RecursiveTaskExecutor#invokeAll(RecursiveTask[])} or an
+ * {@code execute} method. The task must not be used after that: the results
+ * must be stored in the payload or elsewhere by {@link #run()}. A failed task
+ * is not recycled so that it can be reported by the exception. Executing a
+ * released task raises an {@link IllegalStateException}.
+ * 
+ * @param <P> the type of the payload
+ * @author Sébastien Aupetit
+ */
+public abstract class RecyclableTask<P> extends RecursiveTask {
+
+  /** The pool the task belongs to or null if it has been created directly. */
+  private RecyclableTaskPool<P, ?> pool;
+
+  /** The payload. */
+  private P payload;
+
+  /** Indicate if the task is back in its pool. */
+  private boolean released = false;
+
+  /**
+   * Gets the payload.
+   * 
+   * @return the payload
+   */
+  public P getPayload() {
+    return payload;
+  }
+
+  /**
+   * Initialize the task acquired from a pool.
+   * 
+   * @param pool the pool
+   * @param payload the payload
+   */
+  void init(final RecyclableTaskPool<P, ?> pool, final P payload) {
+    this.pool = pool;
+    this.payload = payload;
+    released = false;
+  }
+
+  /**
+   * Checks if the task is back in its pool.
+   * 
+   * @return true, if released
+   */
+  boolean isReleased() {
+    return released;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTask#prepareExecution(org
+   * .projectsforge.utils.tasksexecutor.TaskBatch,
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor,
+   * java.lang.String, int, int,
+   * org.projectsforge.utils.tasksexecutor.CancellationToken,
+   * org.projectsforge.utils.tasksexecutor.CancellationToken)
+   */
+  @Override
+  void prepareExecution(final TaskBatch batch, final RecursiveTaskExecutor executor, final String threadName,
+      final int depth, final int level, final CancellationToken inheritedToken,
+      final CancellationToken failFastToken) {
+    if (released) {
+      throw new IllegalStateException("The task has been released to its pool");
+    }
+    super.prepareExecution(batch, executor, threadName, depth, level, inheritedToken, failFastToken);
+  }
+
+  /**
+   * Return the task to its pool if it has been successfully executed.
+   */
+  void release() {
+    if (pool == null || released || !isDone() || getException() != null) {
+      return;
+    }
+    released = true;
+    payload = null;
+    setAffinityKey(null);
+    setCancellationToken(null);
+    reset();
+    pool.recycle(this);
+  }
+
+  /**
+   * Reset the state of the task before it returns to its pool. Subclasses with
+   * their own state must override it so that the pool does not retain
+   * unnecessary objects.
+   */
+  protected void reset() {
+    // nothing to reset by default
+  }
+}
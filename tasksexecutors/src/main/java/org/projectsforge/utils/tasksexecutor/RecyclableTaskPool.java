@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.ArrayDeque;
+
+/**
+ * A pool of {@link RecyclableTask}. Each thread has its own free tasks so that
+ * acquiring and releasing a task requires no synchronization. The tasks are
+ * released to the pool of the thread which joins them, usually the thread
+ * which forked them.
+ * 
+ * @param <P> the type of the payload
+ * @param <T> the type of the tasks
+ * @author Sébastien Aupetit
+ */
+public abstract class RecyclableTaskPool<P, T extends RecyclableTask<P>> {
+
+  /** The default maximal number of free tasks kept per thread. */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /** The maximal number of free tasks kept per thread. */
+  private final int capacity;
+
+  /** The free tasks of the current thread. */
+  private final ThreadLocal<ArrayDeque<T>> freeTasks = new ThreadLocal<ArrayDeque<T>>() {
+    @Override
+    protected ArrayDeque<T> initialValue() {
+      return new ArrayDeque<>();
+    }
+  };
+
+  /**
+   * Instantiates a new pool keeping {@link #DEFAULT_CAPACITY} free tasks per
+   * thread.
+   */
+  public RecyclableTaskPool() {
+    this(RecyclableTaskPool.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Instantiates a new pool.
+   * 
+   * @param capacity the maximal number of free tasks kept per thread
+   */
+  public RecyclableTaskPool(final int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The capacity must be positive");
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * Acquire a task, reusing a free task of the current thread if any.
+   * 
+   * @param payload the payload of the task
+   * @return the task
+   */
+  public T acquire(final P payload) {
+    T task = freeTasks.get().pollLast();
+    if (task == null) {
+      task = create();
+    }
+    task.init(this, payload);
+    return task;
+  }
+
+  /**
+   * Creates a new task.
+   * 
+   * @return the task
+   */
+  protected abstract T create();
+
+  /**
+   * Gets the number of free tasks of the current thread.
+   * 
+   * @return the number of free tasks
+   */
+  public int getFreeTaskCount() {
+    return freeTasks.get().size();
+  }
+
+  /**
+   * Give back a released task to the free tasks of the current thread.
+   * 
+   * @param task the task
+   */
+  @SuppressWarnings("unchecked")
+  void recycle(final RecyclableTask<P> task) {
+    final ArrayDeque<T> tasks = freeTasks.get();
+    if (tasks.size() < capacity) {
+      tasks.addLast((T) task);
+    }
+  }
+}
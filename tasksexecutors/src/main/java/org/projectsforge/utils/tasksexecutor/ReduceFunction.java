@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * An associative function combining two partial results of
+ * {@link RecursiveTaskExecutor#parallelReduce}. The left operand always
+ * corresponds to elements located before the ones of the right operand.
+ * 
+ * @param <T> the type of the results
+ * @author Sébastien Aupetit
+ */
+public interface ReduceFunction<T> {
+
+  /**
+   * Combine two partial results.
+   * 
+   * @param left the left result
+   * @param right the right result
+   * @return the combined result
+   * @throws Exception the exception
+   */
+  T reduce(T left, T right) throws Exception;
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The limit of the number of tasks of a resource category running
+ * concurrently in an executor (internal use only). A task which can not get a
+ * permit is deferred: it leaves the queues of the executor and is queued again
+ * with a permit as soon as a task of the category completes. Deferring and
+ * releasing both check the other side afterwards so that no deferred task can
+ * be forgotten.
+ * 
+ * @author Sébastien Aupetit
+ * @see RecursiveTask#setResourceCategory(Object)
+ */
+final class ResourceLimit {
+
+  /** The executor. */
+  private final RecursiveTaskExecutor executor;
+
+  /** The maximum number of running tasks. */
+  private volatile int limit;
+
+  /** The number of running tasks. */
+  private final AtomicInteger running = new AtomicInteger();
+
+  /** The deferred tasks. */
+  private final ConcurrentLinkedQueue<RecursiveTask> deferred = new ConcurrentLinkedQueue<>();
+
+  /** The number of deferred tasks, since the size of the queue is not constant time. */
+  private final AtomicInteger deferredCount = new AtomicInteger();
+
+  /**
+   * The Constructor.
+   * 
+   * @param executor the executor
+   * @param limit the maximum number of running tasks
+   */
+  ResourceLimit(final RecursiveTaskExecutor executor, final int limit) {
+    this.executor = executor;
+    this.limit = limit;
+  }
+
+  /**
+   * Defer a task which can not get a permit.
+   * 
+   * @param task the task
+   */
+  void defer(final RecursiveTask task) {
+    deferred.add(task);
+    deferredCount.incrementAndGet();
+    // a permit may have been released meanwhile
+    drain();
+  }
+
+  /**
+   * Queue again the deferred tasks while permits are available.
+   */
+  void drain() {
+    while (deferredCount.get() > 0 && tryAcquire()) {
+      final RecursiveTask task = deferred.poll();
+      if (task == null) {
+        // taken by a concurrent drain
+        running.decrementAndGet();
+        continue;
+      }
+      deferredCount.decrementAndGet();
+      task.permit = this;
+      executor.resubmit(task);
+    }
+  }
+
+  /**
+   * Gets the number of deferred tasks.
+   * 
+   * @return the number of deferred tasks
+   */
+  int getDeferredCount() {
+    return deferredCount.get();
+  }
+
+  /**
+   * Gets the maximum number of running tasks.
+   * 
+   * @return the limit
+   */
+  int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Gets the number of running tasks.
+   * 
+   * @return the number of running tasks
+   */
+  int getRunningCount() {
+    return running.get();
+  }
+
+  /**
+   * Release the permit of a completed task.
+   */
+  void release() {
+    running.decrementAndGet();
+    drain();
+  }
+
+  /**
+   * Sets the maximum number of running tasks. The tasks already running are
+   * not affected.
+   * 
+   * @param limit the limit
+   */
+  void setLimit(final int limit) {
+    this.limit = limit;
+    drain();
+  }
+
+  /**
+   * Try to get a permit.
+   * 
+   * @return true, if the permit has been given
+   */
+  boolean tryAcquire() {
+    while (true) {
+      final int current = running.get();
+      if (current >= limit) {
+        return false;
+      }
+      if (running.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+}
@@ -5,38 +5,35 @@
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- *
+ * 
  * This program is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
  * GNU General Public License for more details.
- *
+ * 
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 package org.projectsforge.utils.tasksexecutor;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Map;
-import java.util.WeakHashMap;
-
 /**
- * Object storing task callstacks by thread using week reference on thread. <br>
- * The methods do not require to be fully thread safe. Only the Map level need
- * it.
+ * The way the queued tasks of a {@link RecursiveTaskExecutor} are stored and
+ * distributed to the executing threads.
  * 
- * @author seb
+ * @author Sébastien Aupetit
  */
-public class ThreadsCallStacks {
-  private final Map<Thread, Deque<RecursiveTask>> callStacks = new WeakHashMap<>();
+public enum SchedulingMode {
+
+  /**
+   * A single list shared by all the threads and ordered by depth. Every access
+   * to the list is synchronized.
+   */
+  GLOBAL_LIST,
 
-  public synchronized Deque<RecursiveTask> getThreadCallStack(final Thread thread) {
-    Deque<RecursiveTask> callStack = callStacks.get(thread);
-    if (callStack == null) {
-      callStack = new ArrayDeque<>();
-      callStacks.put(thread, callStack);
-    }
-    return callStack;
-  }
+  /**
+   * Each executor thread owns a lock-free deque. The owner pushes and pops the
+   * tasks it forks in LIFO order (deepest first) while idle threads steal the
+   * oldest (shallowest) tasks of the other threads in FIFO order.
+   */
+  WORK_STEALING;
 }
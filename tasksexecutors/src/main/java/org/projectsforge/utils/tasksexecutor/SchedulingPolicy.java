@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The policy choosing the order in which the tasks executed together are
+ * queued by a {@link RecursiveTaskExecutor}.
+ * 
+ * @author Sébastien Aupetit
+ * @see DepthFirstSchedulingPolicy
+ * @see LongestTaskFirstSchedulingPolicy
+ */
+public interface SchedulingPolicy {
+
+  /**
+   * Checks if the policy needs the execution time of the tasks. When true,
+   * {@link #taskExecuted(RecursiveTask, long)} is called after each task.
+   * 
+   * @return true, if the tasks must be timed
+   */
+  boolean isProfiling();
+
+  /**
+   * Gives the order in which tasks are queued. The last task of the returned
+   * array is the first one taken by the thread queuing the tasks. In
+   * {@link SchedulingMode#WORK_STEALING} mode, the first tasks of the array are
+   * the first ones stolen by the other threads. The given array must not be
+   * modified: a new array must be returned if the order changes.
+   * 
+   * @param <T> the type of the tasks
+   * @param tasks the tasks
+   * @param schedulingMode the scheduling mode of the executor
+   * @return the tasks in queuing order
+   */
+  <T extends RecursiveTask> T[] order(T[] tasks, SchedulingMode schedulingMode);
+
+  /**
+   * Record the execution time of a task. The time includes the execution of the
+   * tasks it executed itself.
+   * 
+   * @param task the task
+   * @param nanos the execution time in nanoseconds
+   */
+  void taskExecuted(RecursiveTask task, long nanos);
+}
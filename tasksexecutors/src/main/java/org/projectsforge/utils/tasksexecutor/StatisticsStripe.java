@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A stripe of the statistics of a {@link RecursiveTaskExecutor} (internal use
+ * only). Each executor thread owns a stripe which it updates with ordered
+ * writes, without any atomic read-modify-write instruction. The threads which
+ * are not executor threads share a stripe updated atomically. The stripes are
+ * padded to avoid false sharing and are summed when the statistics are read.
+ * 
+ * @author Sébastien Aupetit
+ */
+final class StatisticsStripe {
+
+  /** The index of the number of tasks taken by an executor thread. */
+  static final int EXECUTED_TASKS = 0;
+
+  /** The index of the number of tasks stolen from another thread. */
+  static final int STOLEN_TASKS = 1;
+
+  /** The index of the number of tasks executed by a thread while joining. */
+  static final int HELPED_TASKS = 2;
+
+  /** The index of the time spent executing tasks. */
+  static final int BUSY_NANOS = 3;
+
+  /** The index of the time spent waiting for tasks. */
+  static final int IDLE_NANOS = 4;
+
+  /** The index of the number of joins. */
+  static final int JOIN_COUNT = 5;
+
+  /** The index of the time spent joining. */
+  static final int JOIN_NANOS = 6;
+
+  /** The index of the number of joins refusing shallower tasks. */
+  static final int HELP_REFUSED_BY_DEPTH = 7;
+
+  /** The index of the number of joins refusing tasks at the helping limit. */
+  static final int HELP_REFUSED_BY_NESTING = 8;
+
+  /** The number of counters. */
+  static final int COUNTER_COUNT = 9;
+
+  /**
+   * The number of buckets of the join time histogram. Bucket i counts the joins
+   * lasting less than 2^i microseconds, the last bucket counts the longer ones.
+   */
+  static final int HISTOGRAM_SIZE = 24;
+
+  /** The number of padding slots on each side of the values. */
+  private static final int PADDING = 16;
+
+  /**
+   * Gets the histogram bucket of a duration.
+   * 
+   * @param nanos the duration in nanoseconds
+   * @return the bucket
+   */
+  static int bucketOf(final long nanos) {
+    final long micros = nanos / 1000;
+    final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return (bucket < StatisticsStripe.HISTOGRAM_SIZE) ? bucket : StatisticsStripe.HISTOGRAM_SIZE - 1;
+  }
+
+  /** The values: the counters followed by the histogram, padded. */
+  private final AtomicLongArray values = new AtomicLongArray(StatisticsStripe.COUNTER_COUNT
+      + StatisticsStripe.HISTOGRAM_SIZE + 2 * StatisticsStripe.PADDING);
+
+  /** Indicate if the stripe is updated by many threads. */
+  private final boolean shared;
+
+  /**
+   * Instantiates a new stripe.
+   * 
+   * @param shared true if the stripe can be updated concurrently by many
+   *          threads
+   */
+  StatisticsStripe(final boolean shared) {
+    this.shared = shared;
+  }
+
+  /**
+   * Add a value to a counter.
+   * 
+   * @param counter the index of the counter
+   * @param delta the value to add
+   */
+  void add(final int counter, final long delta) {
+    final int index = StatisticsStripe.PADDING + counter;
+    if (shared) {
+      values.addAndGet(index, delta);
+    } else {
+      values.lazySet(index, values.get(index) + delta);
+    }
+  }
+
+  /**
+   * Add the values of this stripe to other values.
+   * 
+   * @param counters the counters to update
+   * @param histogram the histogram to update or null
+   */
+  void addTo(final long[] counters, final long[] histogram) {
+    for (int i = 0; i < StatisticsStripe.COUNTER_COUNT; ++i) {
+      counters[i] += values.get(StatisticsStripe.PADDING + i);
+    }
+    if (histogram != null) {
+      for (int i = 0; i < StatisticsStripe.HISTOGRAM_SIZE; ++i) {
+        histogram[i] += values.get(StatisticsStripe.PADDING + StatisticsStripe.COUNTER_COUNT + i);
+      }
+    }
+  }
+
+  /**
+   * Gets the value of a counter.
+   * 
+   * @param counter the index of the counter
+   * @return the value
+   */
+  long get(final int counter) {
+    return values.get(StatisticsStripe.PADDING + counter);
+  }
+
+  /**
+   * Record a join.
+   * 
+   * @param nanos the duration of the join
+   */
+  void recordJoin(final long nanos) {
+    add(StatisticsStripe.JOIN_COUNT, 1);
+    add(StatisticsStripe.JOIN_NANOS, nanos);
+    add(StatisticsStripe.COUNTER_COUNT + StatisticsStripe.bucketOf(nanos), 1);
+  }
+
+  /**
+   * Add the values of another stripe to this one.
+   * 
+   * @param other the other stripe
+   */
+  void merge(final StatisticsStripe other) {
+    final int length = StatisticsStripe.COUNTER_COUNT + StatisticsStripe.HISTOGRAM_SIZE;
+    for (int i = 0; i < length; ++i) {
+      add(i, other.get(i));
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The tasks enqueued together by a call to
+ * {@link RecursiveTaskExecutor#execute(RecursiveTask[])} (internal use only).
+ * It counts the tasks which are not yet completed so that the joining thread
+ * can check the completion of the batch in constant time and is signaled only
+ * once, when the last task completes.
+ * 
+ * @author Sébastien Aupetit
+ */
+final class TaskBatch {
+
+  /** The updater of the pending field. */
+  private static final AtomicIntegerFieldUpdater<TaskBatch> PENDING = AtomicIntegerFieldUpdater.newUpdater(
+      TaskBatch.class, "pending");
+
+  /** The number of tasks not yet completed. */
+  private volatile int pending;
+
+  /** The notification object in {@link WaitStrategy#POLLING} mode. */
+  private final Object notificationObject;
+
+  /** The thread waiting for the completion of the tasks. */
+  private volatile Thread waiter;
+
+  /**
+   * Instantiates a new task batch.
+   * 
+   * @param notificationObject the notification object to notify on each
+   *          completion or null to unpark the waiting thread
+   * @param waiter the thread waiting for the completion of the tasks
+   * @param taskCount the number of tasks in the batch
+   */
+  TaskBatch(final Object notificationObject, final Thread waiter, final int taskCount) {
+    this.notificationObject = notificationObject;
+    this.waiter = waiter;
+    this.pending = taskCount;
+  }
+
+  /**
+   * Checks if all the tasks of the batch are completed.
+   * 
+   * @return true, if all the tasks are completed
+   */
+  boolean isDone() {
+    return pending == 0;
+  }
+
+  /**
+   * Wake up the waiting thread so that it checks the queues again, e.g. when a
+   * deferred task of the batch is queued again. In
+   * {@link WaitStrategy#POLLING} mode, the waiting thread checks them
+   * periodically.
+   */
+  void wakeWaiter() {
+    if (notificationObject == null) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  /**
+   * Sets the thread waiting for the completion of the tasks. A forked task can
+   * be joined by another thread than the forking one. The waiter must be set
+   * before checking the completion so that the signal can not be missed.
+   * 
+   * @param waiter the waiting thread
+   */
+  void setWaiter(final Thread waiter) {
+    this.waiter = waiter;
+  }
+
+  /**
+   * Signal that a task of the batch is done. The waiting thread is signaled
+   * when the last task completes.
+   */
+  void taskDone() {
+    if (TaskBatch.PENDING.decrementAndGet(this) != 0) {
+      return;
+    }
+    if (notificationObject != null) {
+      synchronized (notificationObject) {
+        notificationObject.notifyAll();
+      }
+    } else {
+      LockSupport.unpark(waiter);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The stack of the tasks being executed by a thread (internal use only). It is
+ * only accessed by its thread so that it requires no synchronization.
+ * 
+ * @author Sébastien Aupetit
+ */
+final class TaskCallStack {
+
+  /** The tasks. */
+  private RecursiveTask[] tasks = new RecursiveTask[32];
+
+  /** The number of tasks in the stack. */
+  private int size = 0;
+
+  /**
+   * The number of foreign tasks in the stack executed while waiting for the
+   * completion of other tasks.
+   */
+  int helpingDepth = 0;
+
+  /**
+   * Gets the task on the top of the stack.
+   * 
+   * @return the task or null if the stack is empty
+   */
+  RecursiveTask peek() {
+    return (size == 0) ? null : tasks[size - 1];
+  }
+
+  /**
+   * Pop a task from the stack.
+   * 
+   * @param task the expected task
+   */
+  void pop(final RecursiveTask task) {
+    if (size == 0 || tasks[size - 1] != task) {
+      throw new IllegalStateException("I removed a wrong task. It's a bug");
+    }
+    tasks[--size] = null;
+  }
+
+  /**
+   * Push a task on the stack.
+   * 
+   * @param task the task
+   */
+  void push(final RecursiveTask task) {
+    if (size == tasks.length) {
+      final RecursiveTask[] newTasks = new RecursiveTask[size << 1];
+      System.arraycopy(tasks, 0, newTasks, 0, size);
+      tasks = newTasks;
+    }
+    tasks[size++] = task;
+  }
+
+  /**
+   * Gets the number of tasks in the stack.
+   * 
+   * @return the size
+   */
+  int size() {
+    return size;
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A graph of tasks with dependencies. A task becomes runnable as soon as all
+ * the tasks it depends on are done, so that the independent parts of a
+ * pipeline run in parallel instead of being separated by successive calls to
+ * {@link RecursiveTaskExecutor#execute(RecursiveTask[])}. The tasks are forked
+ * on the threads of the executor by the task completing their last
+ * dependency, which is tracked with a lock-free counter.
+ * <p>
+ * The dependencies of a task must be added to the graph before the task, so
+ * that the graph is acyclic by construction. The tasks depending on a failed
+ * task are not executed. After an execution, the critical path, i.e. the
+ * chain of dependent tasks with the longest total execution time, bounds the
+ * duration of the execution whatever the number of threads.
+ * 
+ * @author Sébastien Aupetit
+ */
+public class TaskGraph {
+
+  /**
+   * A node of the graph executing a task and forking its successors (internal
+   * use only).
+   */
+  private static final class Node extends RecursiveTask {
+
+    /** The updater of the pendingDependencies field. */
+    private static final AtomicIntegerFieldUpdater<Node> PENDING_DEPENDENCIES = AtomicIntegerFieldUpdater
+        .newUpdater(Node.class, "pendingDependencies");
+
+    /** The executor. */
+    private final RecursiveTaskExecutor executor;
+
+    /** The task. */
+    final RecursiveTask task;
+
+    /** The index of the node in the graph. */
+    final int index;
+
+    /** The nodes of the tasks this task depends on. */
+    final Node[] dependencies;
+
+    /** The nodes of the tasks depending on this task. */
+    final List<Node> successors = new ArrayList<>();
+
+    /** The number of dependencies which are not done yet. */
+    private volatile int pendingDependencies;
+
+    /** Indicate if a dependency failed or was skipped. */
+    private volatile boolean dependencyFailed;
+
+    /** Indicate if the task failed or was skipped. */
+    boolean failed;
+
+    /** The execution time of the task in nanoseconds. */
+    long nanos;
+
+    Node(final RecursiveTaskExecutor executor, final RecursiveTask task, final int index, final Node[] dependencies) {
+      this.executor = executor;
+      this.task = task;
+      this.index = index;
+      this.dependencies = dependencies;
+    }
+
+    /**
+     * Reset the node before an execution of the graph.
+     */
+    void reset() {
+      pendingDependencies = dependencies.length;
+      dependencyFailed = false;
+      failed = false;
+      nanos = 0;
+    }
+
+    @Override
+    protected void run() {
+      failed = dependencyFailed;
+      if (!failed) {
+        final long start = System.nanoTime();
+        try {
+          executor.execute(new RecursiveTask[] { task });
+        } catch (final RecursiveTaskExecutorException e) {
+          failed = true;
+        }
+        nanos = System.nanoTime() - start;
+      }
+      for (final Node successor : successors) {
+        if (failed) {
+          successor.dependencyFailed = true;
+        }
+        if (Node.PENDING_DEPENDENCIES.decrementAndGet(successor) == 0) {
+          executor.fork(successor);
+        }
+      }
+    }
+  }
+
+  /** The executor. */
+  private final RecursiveTaskExecutor executor;
+
+  /** The nodes in the order of addition, which is a topological order. */
+  private final List<Node> nodes = new ArrayList<>();
+
+  /** The nodes indexed by task. */
+  private final Map<RecursiveTask, Node> nodesByTask = new IdentityHashMap<>();
+
+  /** The critical path of the last execution. */
+  private List<RecursiveTask> criticalPath = Collections.emptyList();
+
+  /** The duration of the critical path of the last execution. */
+  private long criticalPathNanos = 0;
+
+  /** The total execution time of the tasks of the last execution. */
+  private long totalNanos = 0;
+
+  /**
+   * Instantiates a new task graph.
+   * 
+   * @param executor the executor running the tasks
+   */
+  public TaskGraph(final RecursiveTaskExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Add a task to the graph.
+   * 
+   * @param <T> the generic type
+   * @param task the task
+   * @param dependencies the tasks which must be done before the task runs (they
+   *          must already belong to the graph)
+   * @return the task
+   */
+  public <T extends RecursiveTask> T add(final T task, final RecursiveTask... dependencies) {
+    if (nodesByTask.containsKey(task)) {
+      throw new IllegalArgumentException("The task already belongs to the graph");
+    }
+    final Node[] dependencyNodes = new Node[dependencies.length];
+    for (int i = 0; i < dependencies.length; ++i) {
+      dependencyNodes[i] = nodesByTask.get(dependencies[i]);
+      if (dependencyNodes[i] == null) {
+        throw new IllegalArgumentException("A dependency must be added to the graph before the tasks depending on it");
+      }
+    }
+    final Node node = new Node(executor, task, nodes.size(), dependencyNodes);
+    for (final Node dependencyNode : dependencyNodes) {
+      dependencyNode.successors.add(node);
+    }
+    nodes.add(node);
+    nodesByTask.put(task, node);
+    return task;
+  }
+
+  /**
+   * Compute the critical path of the last execution.
+   */
+  private void computeCriticalPath() {
+    // longest path ending at each node, following the topological order
+    final long[] finishes = new long[nodes.size()];
+    final Node[] criticalPredecessors = new Node[nodes.size()];
+    Node last = null;
+    long total = 0;
+    for (final Node node : nodes) {
+      long start = 0;
+      Node predecessor = null;
+      for (final Node dependency : node.dependencies) {
+        if (predecessor == null || finishes[dependency.index] > start) {
+          start = finishes[dependency.index];
+          predecessor = dependency;
+        }
+      }
+      criticalPredecessors[node.index] = predecessor;
+      finishes[node.index] = start + node.nanos;
+      total += node.nanos;
+      if (last == null || finishes[node.index] > finishes[last.index]) {
+        last = node;
+      }
+    }
+
+    final List<RecursiveTask> path = new ArrayList<>();
+    for (Node node = last; node != null; node = criticalPredecessors[node.index]) {
+      path.add(node.task);
+    }
+    Collections.reverse(path);
+    criticalPath = Collections.unmodifiableList(path);
+    criticalPathNanos = (last != null) ? finishes[last.index] : 0;
+    totalNanos = total;
+  }
+
+  /**
+   * Execute the tasks of the graph and wait for their completion. The tasks
+   * without dependency are forked first and each task is forked by the task
+   * completing its last dependency. The calling thread joins the tasks in the
+   * order of addition, executing inline the ones which have not been taken by
+   * another thread.
+   * 
+   * @throws RecursiveTaskExecutorException if at least a task raised an
+   *           exception
+   */
+  public void execute() throws RecursiveTaskExecutorException {
+    for (final Node node : nodes) {
+      node.reset();
+    }
+    for (final Node node : nodes) {
+      if (node.dependencies.length == 0) {
+        executor.fork(node);
+      }
+    }
+    // a node is forked before its last dependency is done, so joining in
+    // topological order never joins a node which is not forked yet
+    for (final Node node : nodes) {
+      executor.join(node);
+    }
+    computeCriticalPath();
+
+    final List<RecursiveTask> tasks = new ArrayList<>(nodes.size());
+    for (final Node node : nodes) {
+      // the skipped tasks are not reported
+      if (node.failed && !node.dependencyFailed) {
+        tasks.add(node.task);
+      }
+    }
+    if (!tasks.isEmpty()) {
+      throw new RecursiveTaskExecutorException(tasks);
+    }
+  }
+
+  /**
+   * Gets the critical path of the last execution: the chain of dependent tasks
+   * with the longest total execution time.
+   * 
+   * @return the tasks of the critical path, from the first one to the last one
+   */
+  public List<RecursiveTask> getCriticalPath() {
+    return criticalPath;
+  }
+
+  /**
+   * Gets the total execution time of the tasks of the critical path of the
+   * last execution. It is the minimal duration of an execution of the graph.
+   * 
+   * @return the duration in nanoseconds
+   */
+  public long getCriticalPathNanos() {
+    return criticalPathNanos;
+  }
+
+  /**
+   * Gets the sum of the execution times of the tasks of the last execution.
+   * Divided by {@link #getCriticalPathNanos()}, it gives the maximal speedup
+   * of the graph.
+   * 
+   * @return the duration in nanoseconds
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * Gets the number of tasks of the graph.
+   * 
+   * @return the number of tasks
+   */
+  public int size() {
+    return nodes.size();
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The base class of the structures storing the queued tasks of a
+ * {@link RecursiveTaskExecutor} (internal use only).
+ * 
+ * @author Sébastien Aupetit
+ */
+abstract class TaskScheduler {
+
+  /** The Constant NO_WORKERS. */
+  private static final RecursiveExecutorThread[] NO_WORKERS = new RecursiveExecutorThread[0];
+
+  /** The running executor threads (copy on write). */
+  private volatile RecursiveExecutorThread[] workers = TaskScheduler.NO_WORKERS;
+
+  /**
+   * Enqueue tasks. The last task of the array is the first one to be taken by
+   * the current thread.
+   * 
+   * @param worker the executor thread calling the method or null if the
+   *          calling thread is not an executor thread of the executor
+   * @param tasks the tasks
+   * @param depth the depth of the tasks
+   */
+  abstract void enqueue(RecursiveExecutorThread worker, RecursiveTask[] tasks, int depth);
+
+  /**
+   * Gets the approximate number of queued tasks.
+   * 
+   * @return the number of queued tasks
+   */
+  abstract int getQueuedTaskCount();
+
+  /**
+   * Gets the largest number of queued tasks observed.
+   * 
+   * @return the high-water mark
+   */
+  abstract int getQueuedTaskCountHighWaterMark();
+
+  /**
+   * Gets the approximate number of queued tasks that the current thread could
+   * give to the other threads. It must be cheap since it is used to decide if
+   * splitting a task is worth it.
+   * 
+   * @param worker the executor thread calling the method or null if the
+   *          calling thread is not an executor thread of the executor
+   * @return the number of surplus tasks
+   */
+  abstract int getSurplusTaskCount(RecursiveExecutorThread worker);
+
+  /**
+   * Gets the running executor threads.
+   * 
+   * @return the executor threads
+   */
+  final RecursiveExecutorThread[] getWorkers() {
+    return workers;
+  }
+
+  /**
+   * Record that an executor thread executes a task with an affinity key, so
+   * that the next tasks with the same key are sent to it. The default
+   * implementation ignores the affinity.
+   * 
+   * @param worker the executor thread
+   * @param affinityKey the affinity key
+   * @see RecursiveTask#setAffinityKey(Object)
+   */
+  void recordAffinity(final RecursiveExecutorThread worker, final Object affinityKey) {
+    // no affinity
+  }
+
+  /**
+   * Take a task to execute.
+   * 
+   * @param worker the executor thread calling the method or null if the
+   *          calling thread is not an executor thread of the executor
+   * @return the task or null if no task is available
+   */
+  abstract RecursiveTask poll(RecursiveExecutorThread worker);
+
+  /**
+   * Remove a task from the queue if it has not been taken yet, so that the
+   * thread joining it can execute it inline.
+   * 
+   * @param worker the executor thread calling the method or null if the
+   *          calling thread is not an executor thread of the executor
+   * @param task the task
+   * @return true, if the task has been removed
+   */
+  abstract boolean tryUnfork(RecursiveExecutorThread worker, RecursiveTask task);
+
+  /**
+   * Take a task to execute while waiting for the completion of a batch. Only
+   * the tasks accepted by the helping policy are taken.
+   * 
+   * @param worker the executor thread calling the method or null if the
+   *          calling thread is not an executor thread of the executor
+   * @param minLevel the minimal level of the task
+   * @param batch the batch the task must belong to or null for any batch
+   * @return the task or null if no acceptable task is available
+   */
+  abstract RecursiveTask poll(RecursiveExecutorThread worker, int minLevel, TaskBatch batch);
+
+  /**
+   * Notify that an executor thread is started.
+   * 
+   * @param worker the executor thread
+   */
+  synchronized void workerStarted(final RecursiveExecutorThread worker) {
+    final RecursiveExecutorThread[] oldWorkers = workers;
+    final RecursiveExecutorThread[] newWorkers = new RecursiveExecutorThread[oldWorkers.length + 1];
+    System.arraycopy(oldWorkers, 0, newWorkers, 0, oldWorkers.length);
+    newWorkers[oldWorkers.length] = worker;
+    workers = newWorkers;
+  }
+
+  /**
+   * Notify that an executor thread is terminating. The tasks it still owns must
+   * be made available to the other threads.
+   * 
+   * @param worker the executor thread
+   */
+  synchronized void workerTerminated(final RecursiveExecutorThread worker) {
+    final RecursiveExecutorThread[] oldWorkers = workers;
+    int index = -1;
+    for (int i = oldWorkers.length - 1; i >= 0; --i) {
+      if (oldWorkers[i] == worker) {
+        index = i;
+        break;
+      }
+    }
+    if (index != -1) {
+      final RecursiveExecutorThread[] newWorkers = new RecursiveExecutorThread[oldWorkers.length - 1];
+      System.arraycopy(oldWorkers, 0, newWorkers, 0, index);
+      System.arraycopy(oldWorkers, index + 1, newWorkers, index, newWorkers.length - index);
+      workers = newWorkers;
+    }
+  }
+}
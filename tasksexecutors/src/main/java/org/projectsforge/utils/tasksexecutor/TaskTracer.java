@@ -0,0 +1,399 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tracer recording the start and the end of the tasks, the forks and the
+ * joins of an executor, to display the layout of the task tree over the
+ * threads as a timeline. The trace is written in the Chrome trace event format
+ * which can be loaded in {@code chrome://tracing} or in Perfetto.
+ * <p>
+ * Each thread records its events in its own ring buffer without any
+ * synchronization, so that only the last events are kept when a buffer is
+ * full. The trace must be written once the traced executions are done.
+ * <p>
+ * A thread which is not a worker of a recursive executor, such as a virtual
+ * thread or a thread submitting tasks, releases its buffer as soon as its
+ * tasks and joins have ended, and the next threads reuse it. So the number of
+ * buffers is bounded by the number of threads executing tasks at the same time
+ * and a row of the trace can show several successive threads.
+ * <p>
+ * The forks and the joins are only recorded by the
+ * {@link ExecutorBackend#RECURSIVE} backend: the other backends only record the
+ * start and the end of the tasks.
+ * 
+ * @author Sébastien Aupetit
+ * @see RecursiveTaskExecutor#setTracer(TaskTracer)
+ */
+public final class TaskTracer {
+
+  /**
+   * The ring buffer of the events of a thread (internal use only). Only the
+   * thread owning it writes in it.
+   */
+  private static final class Ring {
+
+    /** The initial capacity of the buffer. */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** The identifier of the thread in the trace. */
+    final int tid;
+
+    /** The name of the last thread owning the buffer. */
+    volatile String threadName;
+
+    /** The maximal number of events. */
+    private final int maxCapacity;
+
+    /** The times of the events. */
+    long[] times;
+
+    /** The types of the events. */
+    byte[] types;
+
+    /** The classes of the tasks or null for a join. */
+    Class<?>[] taskClasses;
+
+    /** The names of the threads which created the task trees. */
+    String[] origins;
+
+    /** The depths of the tasks. */
+    int[] depths;
+
+    /** The levels of the tasks. */
+    int[] levels;
+
+    /** The number of recorded events, written after the event itself. */
+    volatile long count = 0;
+
+    /** The number of started tasks and joins which have not ended. */
+    int openSpans = 0;
+
+    Ring(final int tid, final String threadName, final int maxCapacity) {
+      this.tid = tid;
+      this.threadName = threadName;
+      this.maxCapacity = maxCapacity;
+      allocate(Math.min(Ring.INITIAL_CAPACITY, maxCapacity));
+    }
+
+    /**
+     * Add an event.
+     */
+    void add(final long time, final byte type, final Class<?> taskClass, final String origin, final int depth,
+        final int level) {
+      final long current = count;
+      if (current == times.length && current < maxCapacity) {
+        // the buffer is full but has not wrapped yet
+        grow();
+      }
+      final int index = (int) (current % times.length);
+      times[index] = time;
+      types[index] = type;
+      taskClasses[index] = taskClass;
+      origins[index] = origin;
+      depths[index] = depth;
+      levels[index] = level;
+      count = current + 1;
+    }
+
+    /**
+     * Allocate the arrays.
+     * 
+     * @param capacity the capacity
+     */
+    private void allocate(final int capacity) {
+      times = new long[capacity];
+      types = new byte[capacity];
+      taskClasses = new Class<?>[capacity];
+      origins = new String[capacity];
+      depths = new int[capacity];
+      levels = new int[capacity];
+    }
+
+    /**
+     * Double the capacity without exceeding the maximal capacity.
+     */
+    private void grow() {
+      final long[] oldTimes = times;
+      final byte[] oldTypes = types;
+      final Class<?>[] oldTaskClasses = taskClasses;
+      final String[] oldOrigins = origins;
+      final int[] oldDepths = depths;
+      final int[] oldLevels = levels;
+      final int size = oldTimes.length;
+      allocate((int) Math.min(maxCapacity, 2L * size));
+      System.arraycopy(oldTimes, 0, times, 0, size);
+      System.arraycopy(oldTypes, 0, types, 0, size);
+      System.arraycopy(oldTaskClasses, 0, taskClasses, 0, size);
+      System.arraycopy(oldOrigins, 0, origins, 0, size);
+      System.arraycopy(oldDepths, 0, depths, 0, size);
+      System.arraycopy(oldLevels, 0, levels, 0, size);
+    }
+  }
+
+  /** The type of the start of a task. */
+  static final byte TASK_START = 0;
+
+  /** The type of the end of a task. */
+  static final byte TASK_END = 1;
+
+  /** The type of the fork of a task. */
+  static final byte FORK = 2;
+
+  /** The type of the start of a join. */
+  static final byte JOIN_START = 3;
+
+  /** The type of the end of a join. */
+  static final byte JOIN_END = 4;
+
+  /** The default maximal number of events kept per thread. */
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  /**
+   * Gets the name of a class of tasks.
+   * 
+   * @param taskClass the class
+   * @return the name
+   */
+  private static String getTaskName(final Class<?> taskClass) {
+    final String name = taskClass.getName();
+    return name.substring(name.lastIndexOf('.') + 1);
+  }
+
+  /**
+   * Write a string as a JSON string.
+   * 
+   * @param writer the writer
+   * @param value the string
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static void writeString(final Writer writer, final String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+
+  /** The maximal number of events kept per thread. */
+  private final int capacity;
+
+  /** The origin of the times. */
+  private final long origin = System.nanoTime();
+
+  /** The identifier of the next thread. */
+  private final AtomicInteger nextTid = new AtomicInteger();
+
+  /** The buffers of all the threads. */
+  private final List<Ring> rings = new CopyOnWriteArrayList<>();
+
+  /** The buffers released by their threads, to be reused. */
+  private final Queue<Ring> freeRings = new ConcurrentLinkedQueue<>();
+
+  /** The buffer of the current thread. */
+  private final ThreadLocal<Ring> currentRing = new ThreadLocal<Ring>() {
+    @Override
+    protected Ring initialValue() {
+      final Thread thread = Thread.currentThread();
+      final String name = (thread instanceof RecursiveExecutorThread) ? ((RecursiveExecutorThread) thread)
+          .getBaseName() : thread.getName();
+      Ring ring = freeRings.poll();
+      if (ring == null) {
+        ring = new Ring(nextTid.incrementAndGet(), name, capacity);
+        rings.add(ring);
+      } else {
+        ring.threadName = name;
+      }
+      return ring;
+    }
+  };
+
+  /**
+   * Instantiates a new tracer keeping {@link #DEFAULT_CAPACITY} events per
+   * thread.
+   */
+  public TaskTracer() {
+    this(TaskTracer.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Instantiates a new tracer.
+   * 
+   * @param capacity the maximal number of events kept per thread
+   */
+  public TaskTracer(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive");
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * Gets the number of events kept by the tracer.
+   * 
+   * @return the number of events
+   */
+  public long getEventCount() {
+    long eventCount = 0;
+    for (final Ring ring : rings) {
+      eventCount += Math.min(ring.count, ring.times.length);
+    }
+    return eventCount;
+  }
+
+  /**
+   * Record an event of a task.
+   * 
+   * @param type the type of the event
+   * @param task the task
+   */
+  void record(final byte type, final RecursiveTask task) {
+    final Ring ring = currentRing.get();
+    ring.add(System.nanoTime(), type, task.getClass(), task.threadName, task.depth, task.level);
+    updateOpenSpans(ring, type);
+  }
+
+  /**
+   * Record an event of a join.
+   * 
+   * @param type the type of the event
+   * @param level the level of the joined tasks
+   */
+  void recordJoin(final byte type, final int level) {
+    final Ring ring = currentRing.get();
+    ring.add(System.nanoTime(), type, null, null, 0, level);
+    updateOpenSpans(ring, type);
+  }
+
+  /**
+   * Count the open spans of the buffer of the current thread and release it
+   * when they have all ended, unless the thread is a worker.
+   * 
+   * @param ring the buffer of the current thread
+   * @param type the type of the recorded event
+   */
+  private void updateOpenSpans(final Ring ring, final byte type) {
+    if (type == TaskTracer.TASK_START || type == TaskTracer.JOIN_START) {
+      ring.openSpans++;
+    } else if ((type == TaskTracer.TASK_END || type == TaskTracer.JOIN_END) && --ring.openSpans <= 0) {
+      ring.openSpans = 0;
+      if (!(Thread.currentThread() instanceof RecursiveExecutorThread)) {
+        // the thread may never record again, as a virtual thread running a
+        // single task
+        currentRing.remove();
+        freeRings.add(ring);
+      }
+    }
+  }
+
+  /**
+   * Write the trace in the Chrome trace event format.
+   * 
+   * @param file the file
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void writeChromeTrace(final File file) throws IOException {
+    try (final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+        Charset.forName("UTF-8")))) {
+      writeChromeTrace(writer);
+    }
+  }
+
+  /**
+   * Write the trace in the Chrome trace event format.
+   * 
+   * @param writer the writer
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void writeChromeTrace(final Writer writer) throws IOException {
+    writer.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+    boolean first = true;
+    for (final Ring ring : rings) {
+      if (!first) {
+        writer.write(',');
+      }
+      first = false;
+      writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + ring.tid + ",\"args\":{\"name\":");
+      writeString(writer, ring.threadName);
+      writer.write("}}");
+
+      final long count = ring.count;
+      final int size = ring.times.length;
+      // the unmatched ends of the overwritten starts are skipped
+      int openSpans = 0;
+      for (long k = Math.max(0, count - size); k < count; ++k) {
+        final int index = (int) (k % size);
+        final byte type = ring.types[index];
+        final String phase;
+        if (type == TaskTracer.TASK_START || type == TaskTracer.JOIN_START) {
+          phase = "B";
+          openSpans++;
+        } else if (type == TaskTracer.TASK_END || type == TaskTracer.JOIN_END) {
+          if (openSpans == 0) {
+            continue;
+          }
+          phase = "E";
+          openSpans--;
+        } else {
+          phase = "i";
+        }
+        final long nanos = ring.times[index] - origin;
+        final Class<?> taskClass = ring.taskClasses[index];
+        writer.write(",\n{\"name\":");
+        writeString(writer, (taskClass != null) ? getTaskName(taskClass) : "join");
+        writer.write(",\"cat\":\"" + ((type == TaskTracer.FORK) ? "fork" : (taskClass != null) ? "task" : "join")
+            + "\",\"ph\":\"" + phase + "\"");
+        if (type == TaskTracer.FORK) {
+          writer.write(",\"s\":\"t\"");
+        }
+        writer.write(",\"ts\":" + (nanos / 1000) + "." + String.format("%03d", nanos % 1000) + ",\"pid\":1,\"tid\":"
+            + ring.tid);
+        if (taskClass != null) {
+          writer.write(",\"args\":{\"thread\":");
+          writeString(writer, String.valueOf(ring.origins[index]));
+          writer.write(",\"depth\":" + ring.depths[index] + ",\"level\":" + ring.levels[index] + "}");
+        } else {
+          writer.write(",\"args\":{\"level\":" + ring.levels[index] + "}");
+        }
+        writer.write('}');
+      }
+    }
+    writer.write("\n]}\n");
+    writer.flush();
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link RecursiveTaskExecutor} running each task of a parallel execution in
+ * its own virtual thread. The thread joining the tasks executes the first one
+ * itself and blocks until the others are done, which is cheap for a virtual
+ * thread. A forked task starts at once in its own virtual thread. It suits
+ * tasks blocking on I/O. The virtual threads are obtained by
+ * reflection so that the class can be loaded by older JVMs, where
+ * {@link #isSupported()} returns false and the executor runs the tasks
+ * sequentially.
+ * 
+ * @author Sébastien Aupetit
+ * @see ExecutorBackend#VIRTUAL_THREADS
+ */
+public class VirtualThreadRecursiveTaskExecutor extends RecursiveTaskExecutor {
+
+  /**
+   * The runnable executing a task (internal use only).
+   */
+  private final class TaskRunnable implements Runnable {
+
+    /** The task. */
+    private final RecursiveTask task;
+
+    TaskRunnable(final RecursiveTask task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.execute();
+      } finally {
+        activeTaskCount.decrementAndGet();
+      }
+    }
+  }
+
+  /** The factory method of the virtual thread executor or null. */
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method method;
+    try {
+      method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (final NoSuchMethodException e) {
+      method = null;
+    }
+    NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = method;
+  }
+
+  /**
+   * Checks if the running JVM provides virtual threads.
+   * 
+   * @return true, if supported
+   */
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /** The executor service creating a virtual thread per task or null. */
+  private final ExecutorService executorService;
+
+  /** The number of tasks running in virtual threads. */
+  private final AtomicInteger activeTaskCount = new AtomicInteger();
+
+  /** The logger. */
+  private final Logger logger = LoggerFactory.getLogger(VirtualThreadRecursiveTaskExecutor.class);
+
+  /**
+   * Instantiates a new executor.
+   * 
+   * @param threadGroup the thread group (unused since virtual threads have no
+   *          thread group of their own)
+   * @param threadCount the expected parallelism used to limit the splitting of
+   *          parallel loops (0 for a sequential execution)
+   */
+  public VirtualThreadRecursiveTaskExecutor(final ThreadGroup threadGroup, final int threadCount) {
+    super(threadGroup, isSupported() ? threadCount : 0);
+    ExecutorService service = null;
+    if (isSupported()) {
+      try {
+        service = (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+      } catch (final ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to create the virtual thread executor", e);
+      }
+    } else {
+      logger.warn("Virtual threads are not supported by this JVM: tasks will be executed sequentially");
+    }
+    executorService = service;
+  }
+
+  /**
+   * Wait for the completion of a task running in a virtual thread.
+   * 
+   * @param future the future of the task
+   * @return true, if the current thread has been interrupted while waiting
+   */
+  private boolean await(final Future<?> future) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        future.get();
+        break;
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      } catch (final ExecutionException e) {
+        // never happens since the tasks catch their exceptions
+        logger.error("Unexpected failure of a task", e);
+        break;
+      }
+    }
+    return interrupted;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#forkTask(org.
+   * projectsforge.utils.tasksexecutor.RecursiveTask)
+   */
+  @Override
+  void forkTask(final RecursiveTask task) {
+    prepareTasks(new RecursiveTask[] { task }, null);
+    if (executorService == null) {
+      // the task is executed when joined
+      return;
+    }
+    activeTaskCount.incrementAndGet();
+    task.forkHandle = executorService.submit(new TaskRunnable(task));
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#getQueuedTaskCount
+   * ()
+   */
+  @Override
+  public int getQueuedTaskCount() {
+    return activeTaskCount.get();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#
+   * isAdmissionControlSupported()
+   */
+  @Override
+  public boolean isAdmissionControlSupported() {
+    // each task has its own virtual thread
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#isResizable()
+   */
+  @Override
+  public boolean isResizable() {
+    // the thread count only limits the splitting of the tasks
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#joinTask(org.
+   * projectsforge.utils.tasksexecutor.RecursiveTask)
+   */
+  @Override
+  void joinTask(final RecursiveTask task) {
+    if (task.isDone()) {
+      return;
+    }
+    final Future<?> future = (Future<?>) task.forkHandle;
+    if (future == null) {
+      task.execute();
+    } else if (await(future)) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#parallelExecute
+   * (org.projectsforge.utils.tasksexecutor.RecursiveTask[])
+   */
+  @Override
+  void parallelExecute(final RecursiveTask[] tasks) {
+    prepareTasks(tasks, null);
+    final Future<?>[] futures = new Future<?>[tasks.length];
+    for (int i = tasks.length - 1; i > 0; --i) {
+      activeTaskCount.incrementAndGet();
+      futures[i] = executorService.submit(new TaskRunnable(tasks[i]));
+    }
+    tasks[0].execute();
+
+    boolean interrupted = false;
+    for (int i = 1; i < futures.length; ++i) {
+      interrupted |= await(futures[i]);
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor#shouldSplit()
+   */
+  @Override
+  boolean shouldSplit() {
+    // a virtual thread is cheap but not free: keep a few tasks per carrier
+    return getThreadCount() > 0 && activeTaskCount.get() < 4 * getThreadCount();
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+/**
+ * The way the threads of a {@link RecursiveTaskExecutor} wait for new tasks and
+ * for the completion of the tasks they joined.
+ * 
+ * @author Sébastien Aupetit
+ */
+public enum WaitStrategy {
+
+  /**
+   * Every completed task notifies all the waiting threads through a shared
+   * monitor and the waiting threads poll the queued tasks every 50 ms.
+   */
+  POLLING(0),
+
+  /**
+   * Idle threads are parked individually and unparked when tasks are queued.
+   * A joining thread is parked and unparked by the tasks of the joined batch.
+   */
+  PARK(0),
+
+  /** Same as {@link #PARK} but the thread yields a few times before parking. */
+  YIELD(64),
+
+  /** Same as {@link #PARK} but the thread spins a while before parking. */
+  SPIN(1 << 10);
+
+  /** The number of spinning or yielding rounds before parking. */
+  private final int rounds;
+
+  /**
+   * Instantiates a new wait strategy.
+   * 
+   * @param rounds the number of rounds before parking
+   */
+  private WaitStrategy(final int rounds) {
+    this.rounds = rounds;
+  }
+
+  /**
+   * Gets the number of spinning or yielding rounds before parking.
+   * 
+   * @return the number of rounds
+   */
+  int getRounds() {
+    return rounds;
+  }
+
+  /**
+   * Wait a little before checking again the waited condition.
+   */
+  void pause() {
+    if (this == YIELD) {
+      Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free work-stealing deque of tasks. Only the owner thread can push and
+ * pop tasks at the top of the deque while any thread can steal tasks at the
+ * base of the deque. Slots are claimed by CAS so that a task is always given
+ * to exactly one thread.
+ * <p>
+ * Since the owner only pushes the children of the task it is executing, the
+ * depth of the tasks is non decreasing from the base to the top: popping gives
+ * the deepest task and stealing gives the shallowest one.
+ * 
+ * @author Sébastien Aupetit
+ */
+final class WorkStealingDeque {
+
+  /** The initial capacity of the deque (must be a power of 2). */
+  private static final int INITIAL_CAPACITY = 1 << 8;
+
+  /** The maximum capacity of the deque. */
+  private static final int MAXIMUM_CAPACITY = 1 << 26;
+
+  /** The slots. */
+  private volatile AtomicReferenceArray<RecursiveTask> array = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+  /** The index of the next slot to steal. */
+  private volatile int base;
+
+  /** The index of the next slot to push (written by the owner only). */
+  private volatile int top;
+
+  /** The largest number of tasks pushed and not taken (owner only). */
+  private int highWaterMark;
+
+  /**
+   * Grow the array. Must be called by the owner only.
+   */
+  private void grow() {
+    final AtomicReferenceArray<RecursiveTask> oldArray = array;
+    final int oldLength = oldArray.length();
+    final int length = oldLength << 1;
+    if (length > WorkStealingDeque.MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("Work-stealing deque capacity exceeded");
+    }
+    final AtomicReferenceArray<RecursiveTask> newArray = new AtomicReferenceArray<>(length);
+    array = newArray;
+
+    // move the tasks as if they were stolen from the old array
+    final int oldMask = oldLength - 1;
+    final int mask = length - 1;
+    final int t = top;
+    for (int b = base; b - t < 0; ++b) {
+      final RecursiveTask task = oldArray.get(b & oldMask);
+      if (task != null && oldArray.compareAndSet(b & oldMask, task, null)) {
+        newArray.set(b & mask, task);
+      }
+    }
+  }
+
+  /**
+   * Gets the largest number of queued tasks observed by the owner.
+   * 
+   * @return the high-water mark
+   */
+  int getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  /**
+   * Checks if the deque is empty.
+   * 
+   * @return true, if the deque is empty
+   */
+  boolean isEmpty() {
+    return base - top >= 0;
+  }
+
+  /**
+   * Pop the task at the top of the deque. Must be called by the owner only.
+   * 
+   * @return the task or null if the deque is empty
+   */
+  RecursiveTask pop() {
+    final AtomicReferenceArray<RecursiveTask> a = array;
+    final int mask = a.length() - 1;
+    int s;
+    while ((s = top - 1) - base >= 0) {
+      final int index = s & mask;
+      final RecursiveTask task = a.get(index);
+      if (task == null) {
+        // the last task was stolen concurrently
+        break;
+      }
+      if (a.compareAndSet(index, task, null)) {
+        top = s;
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Pop the task at the top of the deque if it is acceptable. Must be called by
+   * the owner only.
+   * 
+   * @param minLevel the minimal level of the task
+   * @param batch the batch the task must belong to or null for any batch
+   * @return the task or null if the deque is empty or if the top task is not
+   *         acceptable
+   */
+  RecursiveTask pop(final int minLevel, final TaskBatch batch) {
+    final AtomicReferenceArray<RecursiveTask> a = array;
+    final int s = top - 1;
+    if (s - base >= 0) {
+      final int index = s & (a.length() - 1);
+      final RecursiveTask task = a.get(index);
+      if (task != null && task.level >= minLevel && (batch == null || task.getBatch() == batch)
+          && a.compareAndSet(index, task, null)) {
+        top = s;
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Push a task at the top of the deque. Must be called by the owner only.
+   * 
+   * @param task the task
+   */
+  void push(final RecursiveTask task) {
+    final AtomicReferenceArray<RecursiveTask> a = array;
+    final int mask = a.length() - 1;
+    final int s = top;
+    a.lazySet(s & mask, task);
+    top = s + 1;
+    final int size = s + 1 - base;
+    if (size > highWaterMark) {
+      highWaterMark = size;
+    }
+    if (size >= mask) {
+      grow();
+    }
+  }
+
+  /**
+   * Pop a task if it is at the top of the deque. Must be called by the owner
+   * only.
+   * 
+   * @param task the expected task
+   * @return true, if the task has been popped
+   */
+  boolean tryUnpush(final RecursiveTask task) {
+    final AtomicReferenceArray<RecursiveTask> a = array;
+    final int s = top - 1;
+    if (s - base >= 0) {
+      final int index = s & (a.length() - 1);
+      if (a.get(index) == task && a.compareAndSet(index, task, null)) {
+        top = s;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the approximate number of queued tasks.
+   * 
+   * @return the number of queued tasks
+   */
+  int size() {
+    final int n = top - base;
+    return (n < 0) ? 0 : n;
+  }
+
+  /**
+   * Steal the task at the base of the deque. Can be called by any thread.
+   * 
+   * @return the task or null if the deque is empty
+   */
+  RecursiveTask steal() {
+    return steal(0, null);
+  }
+
+  /**
+   * Steal the task at the base of the deque if it is acceptable. Can be called
+   * by any thread.
+   * 
+   * @param minLevel the minimal level of the task
+   * @param batch the batch the task must belong to or null for any batch
+   * @return the task or null if the deque is empty or if the base task is not
+   *         acceptable
+   */
+  RecursiveTask steal(final int minLevel, final TaskBatch batch) {
+    int b;
+    while ((b = base) - top < 0) {
+      final AtomicReferenceArray<RecursiveTask> a = array;
+      final int index = b & (a.length() - 1);
+      final RecursiveTask task = a.get(index);
+      if (base == b) {
+        if (task != null) {
+          if (task.level < minLevel || (batch != null && task.getBatch() != batch)) {
+            break;
+          }
+          if (a.compareAndSet(index, task, null)) {
+            base = b + 1;
+            return task;
+          }
+        } else if (b + 1 == top) {
+          // the last task is being popped by the owner
+          break;
+        }
+      }
+    }
+    return null;
+  }
+}
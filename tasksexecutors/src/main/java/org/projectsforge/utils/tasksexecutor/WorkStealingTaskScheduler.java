@@ -0,0 +1,369 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The scheduler implementing {@link SchedulingMode#WORK_STEALING} (internal use
+ * only). Each executor thread owns a {@link WorkStealingDeque}. The tasks
+ * submitted by the threads which are not executor threads are stored in a
+ * shared submission deque whose owner side is protected by a lock. A task with
+ * an affinity key is sent to the {@link Mailbox} of the thread which executed
+ * the last task with the same key. The threads are found with a lossy table
+ * indexed by the hash of the keys.
+ * 
+ * @author Sébastien Aupetit
+ */
+class WorkStealingTaskScheduler extends TaskScheduler {
+
+  /** The size of the affinity table (must be a power of 2). */
+  private static final int AFFINITY_TABLE_SIZE = 1 << 12;
+
+  /**
+   * Gets the index of an affinity key in the affinity table.
+   * 
+   * @param affinityKey the affinity key
+   * @return the index
+   */
+  private static int affinityIndex(final Object affinityKey) {
+    final int hash = affinityKey.hashCode();
+    return (hash ^ (hash >>> 16)) & (WorkStealingTaskScheduler.AFFINITY_TABLE_SIZE - 1);
+  }
+
+  /** The executor threads which executed the last tasks of the affinity keys. */
+  private final AtomicReferenceArray<RecursiveExecutorThread> affinities = new AtomicReferenceArray<>(
+      WorkStealingTaskScheduler.AFFINITY_TABLE_SIZE);
+
+  /** The tasks submitted by external threads. */
+  private final WorkStealingDeque submissions = new WorkStealingDeque();
+
+  /** The high-water mark of the deques of the terminated threads. */
+  private volatile int retiredHighWaterMark = 0;
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#enqueue(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread,
+   * org.projectsforge.utils.tasksexecutor.RecursiveTask[], int)
+   */
+  @Override
+  void enqueue(final RecursiveExecutorThread worker, final RecursiveTask[] tasks, final int depth) {
+    if (worker != null) {
+      final WorkStealingDeque deque = worker.deque;
+      for (final RecursiveTask task : tasks) {
+        if (!post(worker, task)) {
+          deque.push(task);
+        }
+      }
+    } else {
+      synchronized (submissions) {
+        for (final RecursiveTask task : tasks) {
+          if (!post(null, task)) {
+            submissions.push(task);
+          }
+        }
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.TaskScheduler#getQueuedTaskCount()
+   */
+  @Override
+  int getQueuedTaskCount() {
+    int count = submissions.size();
+    for (final RecursiveExecutorThread worker : getWorkers()) {
+      count += worker.deque.size() + worker.mailbox.size();
+    }
+    return count;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#
+   * getQueuedTaskCountHighWaterMark()
+   */
+  @Override
+  int getQueuedTaskCountHighWaterMark() {
+    int highWaterMark = Math.max(retiredHighWaterMark, submissions.getHighWaterMark());
+    for (final RecursiveExecutorThread worker : getWorkers()) {
+      highWaterMark = Math.max(highWaterMark, worker.deque.getHighWaterMark());
+    }
+    return highWaterMark;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.TaskScheduler#getSurplusTaskCount(org
+   * .projectsforge.utils.tasksexecutor.RecursiveExecutorThread)
+   */
+  @Override
+  int getSurplusTaskCount(final RecursiveExecutorThread worker) {
+    if (worker != null) {
+      return worker.deque.size();
+    } else {
+      return submissions.size();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#poll(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread)
+   */
+  @Override
+  RecursiveTask poll(final RecursiveExecutorThread worker) {
+    RecursiveTask task;
+    if (worker != null) {
+      // the deepest task of the thread first, then the tasks sent to it
+      task = worker.deque.pop();
+      if (task == null) {
+        task = worker.mailbox.poll();
+      }
+      if (task == null) {
+        task = steal(worker);
+        if (task == null) {
+          task = submissions.steal();
+        }
+        if (task == null) {
+          task = stealMailbox(worker, 0, null);
+        }
+        if (task != null) {
+          worker.statistics.add(StatisticsStripe.STOLEN_TASKS, 1);
+        }
+      }
+    } else {
+      if (submissions.isEmpty()) {
+        task = null;
+      } else {
+        synchronized (submissions) {
+          task = submissions.pop();
+        }
+      }
+      if (task == null) {
+        task = steal(null);
+      }
+      if (task == null) {
+        task = stealMailbox(null, 0, null);
+      }
+    }
+    return task;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#poll(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread, int,
+   * org.projectsforge.utils.tasksexecutor.TaskBatch)
+   */
+  @Override
+  RecursiveTask poll(final RecursiveExecutorThread worker, final int minLevel, final TaskBatch batch) {
+    RecursiveTask task;
+    if (worker != null) {
+      task = worker.deque.pop(minLevel, batch);
+      if (task == null) {
+        task = worker.mailbox.poll(minLevel, batch);
+      }
+      if (task == null) {
+        task = steal(worker, minLevel, batch);
+        if (task == null) {
+          task = submissions.steal(minLevel, batch);
+        }
+        if (task == null) {
+          task = stealMailbox(worker, minLevel, batch);
+        }
+        if (task != null) {
+          worker.statistics.add(StatisticsStripe.STOLEN_TASKS, 1);
+        }
+      }
+    } else {
+      if (submissions.isEmpty()) {
+        task = null;
+      } else {
+        synchronized (submissions) {
+          task = submissions.pop(minLevel, batch);
+        }
+      }
+      if (task == null) {
+        task = steal(null, minLevel, batch);
+      }
+      if (task == null) {
+        task = stealMailbox(null, minLevel, batch);
+      }
+    }
+    return task;
+  }
+
+  /**
+   * Send a task with an affinity key to the executor thread which executed the
+   * last task with the same key.
+   * 
+   * @param worker the executor thread enqueuing the task or null
+   * @param task the task
+   * @return true, if the task has been sent, false if it must be enqueued by
+   *         the current thread
+   */
+  private boolean post(final RecursiveExecutorThread worker, final RecursiveTask task) {
+    final Object affinityKey = task.affinityKey;
+    if (affinityKey == null) {
+      return false;
+    }
+    final RecursiveExecutorThread preferred = affinities.get(WorkStealingTaskScheduler.affinityIndex(affinityKey));
+    if (preferred == null || preferred == worker || !preferred.mailbox.post(task)) {
+      return false;
+    }
+    preferred.getTaskExecutor().signalWorker(preferred);
+    return true;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.TaskScheduler#recordAffinity(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread, java.lang.Object)
+   */
+  @Override
+  void recordAffinity(final RecursiveExecutorThread worker, final Object affinityKey) {
+    final int index = WorkStealingTaskScheduler.affinityIndex(affinityKey);
+    // avoid writing the shared table when the affinity does not change
+    if (affinities.get(index) != worker) {
+      affinities.lazySet(index, worker);
+    }
+  }
+
+  /**
+   * Steal the shallowest task of another executor thread.
+   * 
+   * @param thief the stealing executor thread or null
+   * @return the task or null if no task can be stolen
+   */
+  private RecursiveTask steal(final RecursiveExecutorThread thief) {
+    return steal(thief, 0, null);
+  }
+
+  /**
+   * Steal the shallowest task of another executor thread if it is acceptable.
+   * 
+   * @param thief the stealing executor thread or null
+   * @param minLevel the minimal level of the task
+   * @param batch the batch the task must belong to or null for any batch
+   * @return the task or null if no acceptable task can be stolen
+   */
+  private RecursiveTask steal(final RecursiveExecutorThread thief, final int minLevel, final TaskBatch batch) {
+    final RecursiveExecutorThread[] victims = getWorkers();
+    final int count = victims.length;
+    if (count == 0) {
+      return null;
+    }
+    final int start = ThreadLocalRandom.current().nextInt(count);
+    for (int i = 0; i < count; ++i) {
+      final RecursiveExecutorThread victim = victims[(start + i) % count];
+      if (victim != thief) {
+        final RecursiveTask task = victim.deque.steal(minLevel, batch);
+        if (task != null) {
+          return task;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Take a task sent to another executor thread: it is the last resort of a
+   * thread which has nothing else to do.
+   * 
+   * @param thief the stealing executor thread or null
+   * @param minLevel the minimal level of the task
+   * @param batch the batch the task must belong to or null for any batch
+   * @return the task or null if no acceptable task can be taken
+   */
+  private RecursiveTask stealMailbox(final RecursiveExecutorThread thief, final int minLevel, final TaskBatch batch) {
+    for (final RecursiveExecutorThread victim : getWorkers()) {
+      if (victim != thief && !victim.mailbox.isEmpty()) {
+        final RecursiveTask task = (minLevel <= 0 && batch == null) ? victim.mailbox.poll() : victim.mailbox.poll(
+            minLevel, batch);
+        if (task != null) {
+          return task;
+        }
+      }
+    }
+    return null;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see org.projectsforge.utils.tasksexecutor.TaskScheduler#tryUnfork(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread,
+   * org.projectsforge.utils.tasksexecutor.RecursiveTask)
+   */
+  @Override
+  boolean tryUnfork(final RecursiveExecutorThread worker, final RecursiveTask task) {
+    if (task.affinityKey != null) {
+      // the task may have been sent to another thread
+      for (final RecursiveExecutorThread owner : getWorkers()) {
+        if (owner.mailbox.tryRemove(task)) {
+          return true;
+        }
+      }
+    }
+    // only the last forked task can be taken back, as in a fork/join pool
+    if (worker != null) {
+      return worker.deque.tryUnpush(task);
+    } else {
+      synchronized (submissions) {
+        return submissions.tryUnpush(task);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.projectsforge.utils.tasksexecutor.TaskScheduler#workerTerminated(org.
+   * projectsforge.utils.tasksexecutor.RecursiveExecutorThread)
+   */
+  @Override
+  void workerTerminated(final RecursiveExecutorThread worker) {
+    super.workerTerminated(worker);
+    // no more tasks can be sent to the thread
+    worker.mailbox.close();
+    // give the remaining tasks to the other threads
+    RecursiveTask[] moved = new RecursiveTask[worker.deque.size() + worker.mailbox.size() + 1];
+    int count = 0;
+    synchronized (submissions) {
+      retiredHighWaterMark = Math.max(retiredHighWaterMark, worker.deque.getHighWaterMark());
+      RecursiveTask task;
+      while ((task = worker.deque.steal()) != null || (task = worker.mailbox.poll()) != null) {
+        submissions.push(task);
+        if (count == moved.length) {
+          moved = Arrays.copyOf(moved, 2 * count);
+        }
+        moved[count++] = task;
+      }
+    }
+    if (count > 0) {
+      // the other threads may be parked and the joining threads waiting
+      worker.getTaskExecutor().signalQueuedTasks(moved, count);
+    }
+  }
+}
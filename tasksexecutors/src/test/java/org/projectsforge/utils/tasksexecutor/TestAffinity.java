@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+public class TestAffinity {
+
+  static class PartitionTask extends RecursiveTask {
+
+    private final AtomicIntegerArray visits;
+
+    private final int index;
+
+    PartitionTask(final AtomicIntegerArray visits, final int index, final int partition) {
+      this.visits = visits;
+      this.index = index;
+      setAffinityKey(partition);
+    }
+
+    @Override
+    protected void run() throws Exception {
+      visits.incrementAndGet(index);
+    }
+  }
+
+  private static RecursiveTask newTask(final Object affinityKey) {
+    final RecursiveTask task = new RecursiveTask() {
+      @Override
+      protected void run() throws Exception {
+        // nothing to do
+      }
+    };
+    task.setAffinityKey(affinityKey);
+    return task;
+  }
+
+  @Test
+  public void testExecution() throws RecursiveTaskExecutorException {
+    for (final WaitStrategy waitStrategy : new WaitStrategy[] { WaitStrategy.POLLING, WaitStrategy.PARK }) {
+      final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testExecution"), 4,
+          SchedulingMode.WORK_STEALING, waitStrategy);
+      final int size = 1000;
+      final AtomicIntegerArray visits = new AtomicIntegerArray(size);
+      for (int round = 0; round < 10; ++round) {
+        final PartitionTask[] tasks = new PartitionTask[size];
+        for (int i = 0; i < size; ++i) {
+          tasks[i] = new PartitionTask(visits, i, i % 8);
+        }
+        executor.execute(tasks);
+
+        // the forked tasks can be sent to other threads too
+        final PartitionTask first = executor.fork(new PartitionTask(visits, 0, 1));
+        final PartitionTask second = executor.fork(new PartitionTask(visits, 1, 2));
+        executor.join(second);
+        executor.join(first);
+      }
+      for (int i = 0; i < size; ++i) {
+        assertEquals((i < 2) ? 20 : 10, visits.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testMailboxes() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testMailboxes"), 2,
+        SchedulingMode.WORK_STEALING);
+    final TaskScheduler scheduler = executor.scheduler;
+    final RecursiveExecutorThread first = new RecursiveExecutorThread(executor, new ThreadGroup("first"), 0);
+    final RecursiveExecutorThread second = new RecursiveExecutorThread(executor, new ThreadGroup("second"), 1);
+    scheduler.workerStarted(first);
+    scheduler.workerStarted(second);
+    scheduler.recordAffinity(first, "A");
+
+    // the task with the key is sent to the first thread
+    final RecursiveTask keyed = newTask("A");
+    final RecursiveTask other = newTask(null);
+    scheduler.enqueue(second, new RecursiveTask[] { keyed, other }, 1);
+    assertEquals(2, scheduler.getQueuedTaskCount());
+    assertSame(keyed, scheduler.poll(first));
+    assertSame(other, scheduler.poll(second));
+
+    // an idle thread takes the tasks sent to the other threads
+    final RecursiveTask fallback = newTask("A");
+    scheduler.enqueue(null, new RecursiveTask[] { fallback }, 1);
+    assertSame(fallback, scheduler.poll(second));
+    assertNull(scheduler.poll(second));
+
+    // a task sent to another thread can be taken back by the joining thread
+    final RecursiveTask forked = newTask("A");
+    scheduler.enqueue(second, new RecursiveTask[] { forked }, 1);
+    assertTrue(scheduler.tryUnfork(second, forked));
+    assertFalse(scheduler.tryUnfork(second, forked));
+
+    // the tasks of a terminated thread are given to the other threads
+    final RecursiveTask orphan = newTask("A");
+    scheduler.enqueue(second, new RecursiveTask[] { orphan }, 1);
+    scheduler.workerTerminated(first);
+    assertSame(orphan, scheduler.poll(second));
+    final RecursiveTask late = newTask("A");
+    scheduler.enqueue(second, new RecursiveTask[] { late }, 1);
+    assertSame(late, scheduler.poll(second));
+    assertEquals(0, scheduler.getQueuedTaskCount());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertTrue;
+import java.lang.management.ManagementFactory;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestAllocations {
+
+  class LeafTask extends RecursiveTask {
+
+    @SuppressWarnings("unused")
+    private int value;
+
+    @Override
+    protected void run() throws Exception {
+      value++;
+    }
+  }
+
+  private final int taskCount = 1000;
+
+  private final int warmUpCount = 2000;
+
+  private final int tryCount = 500;
+
+  private long allocatedBytes(final com.sun.management.ThreadMXBean threadMXBean, final long[] threadIds) {
+    long total = 0;
+    for (final long bytes : threadMXBean.getThreadAllocatedBytes(threadIds)) {
+      total += bytes;
+    }
+    return total;
+  }
+
+  private void checkAllocations(final RecursiveTaskExecutor executor, final ThreadGroup threadGroup)
+      throws RecursiveTaskExecutorException {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+    final LeafTask[] tasks = new LeafTask[taskCount];
+    for (int i = 0; i < taskCount; ++i) {
+      tasks[i] = new LeafTask();
+    }
+
+    for (int i = 0; i < warmUpCount; ++i) {
+      executor.execute(tasks);
+    }
+
+    final Thread[] threads = new Thread[threadGroup.activeCount() + 1];
+    final int threadCount = threadGroup.enumerate(threads);
+    final long[] threadIds = new long[threadCount + 1];
+    for (int i = 0; i < threadCount; ++i) {
+      threadIds[i] = threads[i].getId();
+    }
+    threadIds[threadCount] = Thread.currentThread().getId();
+
+    final long before = allocatedBytes(threadMXBean, threadIds);
+    for (int i = 0; i < tryCount; ++i) {
+      executor.execute(tasks);
+    }
+    final long after = allocatedBytes(threadMXBean, threadIds);
+
+    // only a few objects per batch are allowed
+    final double bytesPerTask = (double) (after - before) / (tryCount * taskCount);
+    System.err.println(executor.getSchedulingMode() + "/" + executor.getWaitStrategy() + " : " + bytesPerTask
+        + " allocated bytes per task");
+    assertTrue("Too many allocations per executed task: " + bytesPerTask, bytesPerTask < 1);
+  }
+
+  @Test
+  public void testGlobalList() throws RecursiveTaskExecutorException {
+    final ThreadGroup threadGroup = new ThreadGroup("TestAllocations-GlobalList");
+    checkAllocations(new RecursiveTaskExecutor(threadGroup, 2, SchedulingMode.GLOBAL_LIST, WaitStrategy.PARK),
+        threadGroup);
+  }
+
+  @Test
+  public void testSequential() throws RecursiveTaskExecutorException {
+    final ThreadGroup threadGroup = new ThreadGroup("TestAllocations-Sequential");
+    checkAllocations(new RecursiveTaskExecutor(threadGroup, 0), threadGroup);
+  }
+
+  @Test
+  public void testWorkStealing() throws RecursiveTaskExecutorException {
+    final ThreadGroup threadGroup = new ThreadGroup("TestAllocations-WorkStealing");
+    checkAllocations(new RecursiveTaskExecutor(threadGroup, 2, SchedulingMode.WORK_STEALING, WaitStrategy.PARK),
+        threadGroup);
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestCancellation {
+
+  class FailingTask extends RecursiveTask {
+
+    private final boolean failing;
+
+    FailingTask(final boolean failing) {
+      this.failing = failing;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      runCount.incrementAndGet();
+      if (failing) {
+        throw new IllegalStateException("failure");
+      }
+    }
+  }
+
+  private final AtomicInteger runCount = new AtomicInteger();
+
+  private FailingTask[] createTasks(final int count, final int failingIndex) {
+    final FailingTask[] tasks = new FailingTask[count];
+    for (int i = 0; i < count; ++i) {
+      tasks[i] = new FailingTask(i == failingIndex);
+    }
+    return tasks;
+  }
+
+  @Test
+  public void testCancelledBeforeExecution() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testCancelled"), 4,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    final CancellationToken token = new CancellationToken();
+    token.cancel();
+    final FailingTask[] tasks = createTasks(10, -1);
+    for (final FailingTask task : tasks) {
+      task.setCancellationToken(token);
+    }
+    try {
+      executor.execute(tasks);
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertEquals(10, e.getTasks().size());
+      for (final RecursiveTask task : e.getTasks()) {
+        assertTrue(task.getException() instanceof CancellationException);
+      }
+    }
+    assertEquals(0, runCount.get());
+  }
+
+  @Test
+  public void testDeadline() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testDeadline"), 2,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    final CancellationToken token = new CancellationToken(null, 100, TimeUnit.MILLISECONDS);
+    final int size = 100000;
+    try {
+      executor.parallelFor(0, size, new IndexConsumer() {
+        @Override
+        public void accept(final int index) throws InterruptedException {
+          runCount.incrementAndGet();
+          Thread.sleep(1);
+        }
+      }, token);
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      // expected
+    }
+    assertTrue(token.isCancelled());
+    assertTrue(runCount.get() < size);
+  }
+
+  @Test
+  public void testFailFast() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testFailFast"), 0);
+    executor.setFailFast(true);
+    final FailingTask[] tasks = createTasks(10, 0);
+    try {
+      executor.execute(tasks);
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      // all the tasks failed: the first one and the cancelled ones
+      assertEquals(10, e.getTasks().size());
+    }
+    assertEquals(1, runCount.get());
+    assertTrue(tasks[0].getException() instanceof IllegalStateException);
+    for (int i = 1; i < tasks.length; ++i) {
+      assertTrue(tasks[i].getException() instanceof CancellationException);
+    }
+
+    // without fail-fast, every task runs
+    executor.setFailFast(false);
+    runCount.set(0);
+    try {
+      executor.execute(tasks);
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertEquals(1, e.getTasks().size());
+    }
+    assertEquals(10, runCount.get());
+  }
+
+  @Test
+  public void testFailFastParallel() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testFailFastParallel"), 4,
+        SchedulingMode.GLOBAL_LIST, WaitStrategy.PARK);
+    executor.setFailFast(true);
+    final FailingTask[] tasks = createTasks(1000, 999);
+    try {
+      executor.execute(tasks);
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      int failures = 0;
+      for (final RecursiveTask task : e.getTasks()) {
+        if (!(task.getException() instanceof CancellationException)) {
+          failures++;
+        }
+      }
+      assertEquals(1, failures);
+      // the tasks which did not run were cancelled
+      assertEquals(tasks.length, runCount.get() + e.getTasks().size() - 1);
+    }
+  }
+
+  @Test
+  public void testFailFastNestedToken() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testFailFastNestedToken"), 4,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    executor.setFailFast(true);
+    final FailingTask[] grandChildren = createTasks(10, -1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final RecursiveTask failing = new RecursiveTask() {
+      @Override
+      protected void run() throws Exception {
+        // fail once the sibling is running
+        started.await();
+        runCount.incrementAndGet();
+        throw new IllegalStateException("failure");
+      }
+    };
+    final RecursiveTask nested = new RecursiveTask() {
+      @Override
+      protected void run() throws Exception {
+        started.countDown();
+        // wait for the failure of the sibling
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!isCancelled() && System.currentTimeMillis() < deadline) {
+          Thread.sleep(1);
+        }
+        executor.execute(grandChildren);
+      }
+    };
+    nested.setCancellationToken(new CancellationToken());
+    try {
+      executor.execute(new RecursiveTask[] { nested, failing });
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertEquals(2, e.getTasks().size());
+    }
+    // the given token does not stop the fail-fast cancellation
+    assertTrue(nested.getException() instanceof RecursiveTaskExecutorException);
+    assertEquals(1, runCount.get());
+    for (final FailingTask task : grandChildren) {
+      assertTrue(task.getException() instanceof CancellationException);
+    }
+  }
+
+  @Test
+  public void testInheritance() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testInheritance"), 4,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    final CancellationToken token = new CancellationToken();
+    final RecursiveTask child = new RecursiveTask() {
+      @Override
+      protected void run() throws Exception {
+        assertSame(token, getCancellationToken());
+        assertSame(token, executor.getCurrentCancellationToken());
+        token.cancel();
+      }
+    };
+    final FailingTask[] grandChildren = createTasks(10, -1);
+    final RecursiveTask parent = new RecursiveTask() {
+      @Override
+      protected void run() throws Exception {
+        executor.execute(new RecursiveTask[] { child });
+        executor.execute(grandChildren);
+      }
+    };
+    parent.setCancellationToken(token);
+    try {
+      executor.execute(new RecursiveTask[] { parent });
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertTrue(parent.getException() instanceof RecursiveTaskExecutorException);
+    }
+    assertTrue(child.getException() == null);
+    assertEquals(0, runCount.get());
+  }
+}
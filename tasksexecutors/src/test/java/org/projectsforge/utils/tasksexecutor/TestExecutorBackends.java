@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestExecutorBackends {
+
+  class TreeTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final int remainingDepth;
+
+    TreeTask(final RecursiveTaskExecutor executor, final int remainingDepth) {
+      this.executor = executor;
+      this.remainingDepth = remainingDepth;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      counter.incrementAndGet();
+      if (remainingDepth > 0) {
+        final TreeTask[] children = new TreeTask[width];
+        for (int i = 0; i < width; ++i) {
+          children[i] = new TreeTask(executor, remainingDepth - 1);
+        }
+        executor.execute(children);
+      }
+    }
+  }
+
+  private final int width = 4;
+
+  private final int depth = 4;
+
+  private final AtomicInteger counter = new AtomicInteger();
+
+  @Test
+  public void testBackends() throws RecursiveTaskExecutorException {
+    for (final RecursiveTaskExecutorProvider provider : RecursiveTaskExecutorFactory.getProviders()) {
+      if (!provider.isSupported()) {
+        continue;
+      }
+      final RecursiveTaskExecutor executor = provider.createExecutor(new ThreadGroup("TestExecutorBackends"), 2);
+      // the threads do not outlive the test for long
+      executor.setKeepAliveTime(100, TimeUnit.MILLISECONDS);
+      counter.set(0);
+      executor.execute(new TreeTask[] { new TreeTask(executor, depth) });
+      // 1 + 4 + 16 + 64 + 256
+      assertEquals(341, counter.get());
+    }
+  }
+}
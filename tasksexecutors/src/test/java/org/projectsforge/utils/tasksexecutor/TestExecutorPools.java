@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+public class TestExecutorPools {
+
+  @Test
+  public void testDefaultPool() {
+    assertSame(RecursiveTaskExecutorFactory.getInstance(),
+        RecursiveTaskExecutorFactory.getPool(RecursiveTaskExecutorFactory.DEFAULT_POOL));
+    assertSame(RecursiveTaskExecutorFactory.getInstance(), RecursiveTaskExecutorFactory.getPool(null));
+  }
+
+  @Test
+  public void testNamedPool() throws RecursiveTaskExecutorException, JMException {
+    final String prefix = RecursiveTaskExecutorFactory.POOL_PROPERTY_PREFIX + "testNamedPool.";
+    System.setProperty(prefix + "threadCount", "2");
+    System.setProperty(prefix + "maxThreadCount", "3");
+    System.setProperty(prefix + "priority", Integer.toString(Thread.MIN_PRIORITY));
+    System.setProperty(prefix + "backend", ExecutorBackend.RECURSIVE.name());
+    try {
+      final RecursiveTaskExecutor pool = RecursiveTaskExecutorFactory.getPool("testNamedPool");
+      assertSame(pool, RecursiveTaskExecutorFactory.getPool("testNamedPool"));
+      assertNotSame(RecursiveTaskExecutorFactory.getInstance(), pool);
+      assertTrue(RecursiveTaskExecutorFactory.getPoolNames().contains("testNamedPool"));
+      assertEquals(2, pool.getThreadCount());
+      assertEquals(3, pool.getMaxThreadCount());
+
+      // the tasks run on the threads of the pool only
+      final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+      pool.parallelFor(0, 1000, new IndexConsumer() {
+        @Override
+        public void accept(final int index) {
+          threads.add(Thread.currentThread());
+        }
+      });
+      for (final Thread thread : threads) {
+        if (thread instanceof RecursiveExecutorThread) {
+          assertEquals("RecursiveTaskExecutor pool testNamedPool", thread.getThreadGroup().getName());
+          assertEquals(Thread.MIN_PRIORITY, thread.getPriority());
+        }
+      }
+
+      // the pool is monitored independently
+      final ObjectName name = pool.registerMBean();
+      assertTrue(name.getKeyProperty("name").contains("testNamedPool"));
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    } finally {
+      RecursiveTaskExecutorFactory.setPool("testNamedPool", null);
+      System.clearProperty(prefix + "threadCount");
+      System.clearProperty(prefix + "maxThreadCount");
+      System.clearProperty(prefix + "priority");
+      System.clearProperty(prefix + "backend");
+    }
+  }
+
+  @Test
+  public void testPoolPriority() throws RecursiveTaskExecutorException {
+    final String prefix = RecursiveTaskExecutorFactory.POOL_PROPERTY_PREFIX + "testPoolPriority.";
+    System.setProperty(prefix + "threadCount", "2");
+    System.setProperty(prefix + "priority", Integer.toString(Thread.NORM_PRIORITY + 2));
+    System.setProperty(prefix + "backend", ExecutorBackend.RECURSIVE.name());
+    try {
+      // the pool is created by an execution thread of a low priority group
+      final RecursiveTaskExecutor[] pool = new RecursiveTaskExecutor[1];
+      final ThreadGroup lowPriority = new ThreadGroup("testPoolPriority");
+      lowPriority.setMaxPriority(Thread.MIN_PRIORITY);
+      new RecursiveTaskExecutor(lowPriority, 1).execute(new RecursiveTask[] { new RecursiveTask() {
+        @Override
+        protected void run() throws Exception {
+          pool[0] = RecursiveTaskExecutorFactory.getPool("testPoolPriority");
+        }
+      }, new RecursiveTask() {
+        @Override
+        protected void run() throws Exception {
+          // nothing to do
+        }
+      } });
+
+      pool[0].parallelFor(0, 1000, new IndexConsumer() {
+        @Override
+        public void accept(final int index) {
+          // the execution starts the threads of the pool
+        }
+      });
+      int workerCount = 0;
+      for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+        if (thread instanceof RecursiveExecutorThread
+            && ((RecursiveExecutorThread) thread).getTaskExecutor() == pool[0]) {
+          assertEquals(Thread.NORM_PRIORITY + 2, thread.getPriority());
+          ++workerCount;
+        }
+      }
+      assertTrue(workerCount > 0);
+    } finally {
+      RecursiveTaskExecutorFactory.setPool("testPoolPriority", null);
+      System.clearProperty(prefix + "threadCount");
+      System.clearProperty(prefix + "priority");
+      System.clearProperty(prefix + "backend");
+    }
+  }
+
+  @Test
+  public void testSetPool() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testSetPool"), 1);
+    RecursiveTaskExecutorFactory.setPool("testSetPool", executor);
+    try {
+      assertSame(executor, RecursiveTaskExecutorFactory.getPool("testSetPool"));
+    } finally {
+      RecursiveTaskExecutorFactory.setPool("testSetPool", null);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestFork {
+
+  static class FibonacciTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final int n;
+
+    private final boolean useInvokeAll;
+
+    long result;
+
+    FibonacciTask(final RecursiveTaskExecutor executor, final int n, final boolean useInvokeAll) {
+      this.executor = executor;
+      this.n = n;
+      this.useInvokeAll = useInvokeAll;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      if (n < 2) {
+        result = n;
+        return;
+      }
+      final FibonacciTask left = new FibonacciTask(executor, n - 1, useInvokeAll);
+      final FibonacciTask right = new FibonacciTask(executor, n - 2, useInvokeAll);
+      if (useInvokeAll) {
+        executor.invokeAll(left, right);
+      } else {
+        // the left child is joined first so that it is taken back and executed
+        // inline while the right one may be stolen
+        executor.fork(right);
+        executor.fork(left);
+        executor.join(left);
+        executor.join(right);
+      }
+      result = left.result + right.result;
+    }
+  }
+
+  private void checkExecutor(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    for (int run = 0; run < 5; ++run) {
+      final FibonacciTask forked = executor.fork(new FibonacciTask(executor, 20, false));
+      executor.join(forked);
+      assertEquals(6765, forked.result);
+
+      final FibonacciTask invoked = new FibonacciTask(executor, 20, true);
+      executor.execute(new FibonacciTask[] { invoked });
+      assertEquals(6765, invoked.result);
+    }
+
+    // joining twice is harmless
+    final FibonacciTask task = executor.fork(new FibonacciTask(executor, 10, false));
+    executor.join(task);
+    executor.join(task);
+    assertTrue(task.isDone());
+    assertEquals(55, task.result);
+
+    final RecursiveTask failing = executor.fork(new RecursiveTask() {
+      @Override
+      protected void run() throws Exception {
+        throw new IllegalStateException("failure");
+      }
+    });
+    try {
+      executor.join(failing);
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertEquals(1, e.getTasks().size());
+    }
+  }
+
+  @Test
+  public void testForkJoinBackend() throws RecursiveTaskExecutorException {
+    checkExecutor(ExecutorBackend.FORK_JOIN.createExecutor(new ThreadGroup("testForkJoinBackend"), 4));
+  }
+
+  @Test
+  public void testGlobalList() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testGlobalList"), 4, SchedulingMode.GLOBAL_LIST));
+  }
+
+  @Test
+  public void testGlobalListPark() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testGlobalListPark"), 4, SchedulingMode.GLOBAL_LIST,
+        WaitStrategy.PARK));
+  }
+
+  @Test
+  public void testSequential() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testSequential"), 0));
+  }
+
+  @Test
+  public void testVirtualThreads() throws RecursiveTaskExecutorException {
+    Assume.assumeTrue(ExecutorBackend.VIRTUAL_THREADS.isSupported());
+    checkExecutor(ExecutorBackend.VIRTUAL_THREADS.createExecutor(new ThreadGroup("testVirtualThreads"), 4));
+  }
+
+  @Test
+  public void testWorkStealing() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testWorkStealing"), 4, SchedulingMode.WORK_STEALING,
+        WaitStrategy.PARK));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestHelpingPolicy {
+
+  class TreeTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final int remainingDepth;
+
+    TreeTask(final RecursiveTaskExecutor executor, final int remainingDepth) {
+      this.executor = executor;
+      this.remainingDepth = remainingDepth;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      counter.incrementAndGet();
+      final TaskCallStack callStack = executor.getCallStack(Thread.currentThread());
+      if (callStack.helpingDepth > executor.getMaxHelpingDepth()) {
+        throw new IllegalStateException("Helping depth exceeded: " + callStack.helpingDepth);
+      }
+      // the tasks nested in the stack of a thread must be deeper and deeper
+      final Integer enclosingLevel = enclosingLevels.get();
+      if (executor.getHelpingPolicy() == HelpingPolicy.DEEPER_TASKS && enclosingLevel != null
+          && level <= enclosingLevel) {
+        throw new IllegalStateException("Shallower task " + level + " executed inside " + enclosingLevel);
+      }
+      enclosingLevels.set(level);
+      try {
+        if (remainingDepth > 0) {
+          final TreeTask[] children = new TreeTask[width];
+          for (int i = 0; i < width; ++i) {
+            children[i] = new TreeTask(executor, remainingDepth - 1);
+          }
+          executor.execute(children);
+        }
+      } finally {
+        enclosingLevels.set(enclosingLevel);
+      }
+    }
+  }
+
+  private final int width = 4;
+
+  private final AtomicInteger counter = new AtomicInteger();
+
+  private final ThreadLocal<Integer> enclosingLevels = new ThreadLocal<>();
+
+  private void checkExecutor(final RecursiveTaskExecutor executor, final HelpingPolicy helpingPolicy,
+      final int maxHelpingDepth) throws RecursiveTaskExecutorException {
+    executor.setHelpingPolicy(helpingPolicy);
+    executor.setMaxHelpingDepth(maxHelpingDepth);
+    for (int run = 0; run < 10; ++run) {
+      counter.set(0);
+      executor.execute(new TreeTask[] { new TreeTask(executor, 5), new TreeTask(executor, 5) });
+      // 2 * (1 + 4 + ... + 4^5)
+      assertEquals(2730, counter.get());
+    }
+  }
+
+  @Test
+  public void testDeeperTasks() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testDeeperTasksGlobalList"), 4,
+        SchedulingMode.GLOBAL_LIST, WaitStrategy.PARK), HelpingPolicy.DEEPER_TASKS, Integer.MAX_VALUE);
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testDeeperTasksWorkStealing"), 4,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK), HelpingPolicy.DEEPER_TASKS, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testMaxHelpingDepth() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testMaxHelpingDepthGlobalList"), 4,
+        SchedulingMode.GLOBAL_LIST, WaitStrategy.POLLING), HelpingPolicy.ANY_TASK, 1);
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testMaxHelpingDepthWorkStealing"), 4,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK), HelpingPolicy.ANY_TASK, 0);
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testBothGlobalList"), 4, SchedulingMode.GLOBAL_LIST,
+        WaitStrategy.PARK), HelpingPolicy.DEEPER_TASKS, 0);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TestManagedBlocker {
+
+  static class RendezVousTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final CountDownLatch latch;
+
+    RendezVousTask(final RecursiveTaskExecutor executor, final CountDownLatch latch) {
+      this.executor = executor;
+      this.latch = latch;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      latch.countDown();
+      // all the tasks must be running at the same time to be released
+      executor.managedBlock(new ManagedBlocker() {
+        @Override
+        public boolean block() throws InterruptedException {
+          if (!latch.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Not enough threads to run the tasks together");
+          }
+          return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+          return latch.getCount() == 0;
+        }
+      });
+    }
+  }
+
+  private void checkCompensation(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    final int taskCount = 8;
+    for (int run = 0; run < 2; ++run) {
+      final CountDownLatch latch = new CountDownLatch(taskCount);
+      final RendezVousTask[] tasks = new RendezVousTask[taskCount];
+      for (int i = 0; i < taskCount; ++i) {
+        tasks[i] = new RendezVousTask(executor, latch);
+      }
+      executor.execute(tasks);
+    }
+  }
+
+  @Test
+  public void testCompensation() throws RecursiveTaskExecutorException, InterruptedException {
+    for (final WaitStrategy waitStrategy : new WaitStrategy[] { WaitStrategy.POLLING, WaitStrategy.PARK }) {
+      final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testCompensation"), 2,
+          SchedulingMode.WORK_STEALING, waitStrategy);
+      executor.setMaxThreadCount(16);
+      executor.setKeepAliveTime(100, TimeUnit.MILLISECONDS);
+      checkCompensation(executor);
+      assertEquals(0, executor.getStatistics().getBlockedThreadCount());
+
+      // the compensation threads terminate once idle
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (executor.getStatistics().getRunningThreadCount() > 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+      assertEquals(2, executor.getStatistics().getRunningThreadCount());
+    }
+  }
+
+  @Test
+  public void testForkJoinBackend() throws RecursiveTaskExecutorException {
+    checkCompensation(ExecutorBackend.FORK_JOIN.createExecutor(new ThreadGroup("testForkJoinBackend"), 2));
+  }
+
+  @Test
+  public void testMaxThreadCount() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testMaxThreadCount"), 2);
+    assertEquals(8, executor.getMaxThreadCount());
+    try {
+      executor.setMaxThreadCount(1);
+      fail("An exception was expected");
+    } catch (final IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestRecursiveTaskExecutor {
+
+  class CountingTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final int remainingDepth;
+
+    private final int width;
+
+    CountingTask(final RecursiveTaskExecutor executor, final int remainingDepth, final int width) {
+      this.executor = executor;
+      this.remainingDepth = remainingDepth;
+      this.width = width;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      counter.incrementAndGet();
+      if (remainingDepth > 0) {
+        final CountingTask[] children = new CountingTask[width];
+        for (int i = 0; i < width; ++i) {
+          children[i] = new CountingTask(executor, remainingDepth - 1, width);
+        }
+        executor.execute(children);
+      }
+    }
+  }
+
+  private final AtomicInteger counter = new AtomicInteger();
+
+  private void checkExceptions(final RecursiveTaskExecutor executor) {
+    final List<RecursiveTask> tasks = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      final int id = i;
+      tasks.add(new RecursiveTask() {
+        @Override
+        protected void run() throws Exception {
+          if (id % 3 == 0) {
+            throw new IllegalArgumentException("failure " + id);
+          }
+        }
+      });
+    }
+    try {
+      executor.execute(tasks.toArray(new RecursiveTask[tasks.size()]));
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertEquals(4, e.getTasks().size());
+    }
+  }
+
+  private void checkTree(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    for (int run = 0; run < 20; ++run) {
+      counter.set(0);
+      executor.execute(new CountingTask[] { new CountingTask(executor, 6, 5), new CountingTask(executor, 3, 2) });
+      // 1 + 5 + ... + 5^6 and 1 + 2 + 4 + 8
+      assertEquals(19531 + 15, counter.get());
+    }
+  }
+
+  private void checkExecutor(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    checkTree(executor);
+    checkExceptions(executor);
+    checkParallelLoops(executor);
+  }
+
+  private void checkParallelLoops(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    final int size = 100000;
+    final AtomicIntegerArray visits = new AtomicIntegerArray(size);
+    executor.parallelFor(0, size, new IndexConsumer() {
+      @Override
+      public void accept(final int index) {
+        visits.incrementAndGet(index);
+      }
+    });
+    for (int i = 0; i < size; ++i) {
+      assertEquals(1, visits.get(i));
+    }
+
+    final Integer[] inputs = new Integer[size];
+    for (int i = 0; i < size; ++i) {
+      inputs[i] = i;
+    }
+    final Long[] outputs = new Long[size];
+    final MapFunction<Integer, Long> square = new MapFunction<Integer, Long>() {
+      @Override
+      public Long apply(final Integer input) {
+        return (long) input * input;
+      }
+    };
+    executor.parallelMap(inputs, outputs, square);
+    for (int i = 0; i < size; ++i) {
+      assertEquals((long) i * i, outputs[i].longValue());
+    }
+
+    // a non commutative reduction checks that the order is preserved
+    final String digits = executor.parallelReduce(Arrays.copyOf(inputs, 1000), "", new MapFunction<Integer, String>() {
+      @Override
+      public String apply(final Integer input) {
+        return Integer.toString(input % 10);
+      }
+    }, new ReduceFunction<String>() {
+      @Override
+      public String reduce(final String left, final String right) {
+        return left + right;
+      }
+    });
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      expected.append(i % 10);
+    }
+    assertEquals(expected.toString(), digits);
+
+    // a failure does not stop the loop and each failed index is reported
+    final AtomicInteger processed = new AtomicInteger();
+    try {
+      executor.parallelFor(0, size, new IndexConsumer() {
+        @Override
+        public void accept(final int index) {
+          processed.incrementAndGet();
+          if (index % 1000 == 500) {
+            throw new IllegalStateException("failure " + index);
+          }
+        }
+      });
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertEquals(size, processed.get());
+      assertEquals(size / 1000, e.getTasks().size());
+      final BitSet failed = new BitSet();
+      for (final RecursiveTask task : e.getTasks()) {
+        final FailedIndexTask failure = (FailedIndexTask) task;
+        assertEquals("failure " + failure.getIndex(), failure.getException().getMessage());
+        failed.set(failure.getIndex());
+      }
+      for (int i = 500; i < size; i += 1000) {
+        assertTrue(failed.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testForkJoin() throws RecursiveTaskExecutorException {
+    checkExecutor(ExecutorBackend.FORK_JOIN.createExecutor(new ThreadGroup("testForkJoin"), 4));
+  }
+
+  @Test
+  public void testGlobalList() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testGlobalList"), 4, SchedulingMode.GLOBAL_LIST));
+  }
+
+  @Test
+  public void testGlobalListPark() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testGlobalListPark"), 4, SchedulingMode.GLOBAL_LIST,
+        WaitStrategy.PARK));
+  }
+
+  @Test
+  public void testSequential() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testSequential"), 0));
+  }
+
+  @Test
+  public void testVirtualThreads() throws RecursiveTaskExecutorException {
+    Assume.assumeTrue(ExecutorBackend.VIRTUAL_THREADS.isSupported());
+    checkExecutor(ExecutorBackend.VIRTUAL_THREADS.createExecutor(new ThreadGroup("testVirtualThreads"), 4));
+  }
+
+  @Test
+  public void testWorkStealing() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testWorkStealing"), 4, SchedulingMode.WORK_STEALING));
+  }
+
+  @Test
+  public void testWorkStealingSpin() throws RecursiveTaskExecutorException {
+    checkExecutor(new RecursiveTaskExecutor(new ThreadGroup("testWorkStealingSpin"), 4, SchedulingMode.WORK_STEALING,
+        WaitStrategy.SPIN));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestRecyclableTask {
+
+  /**
+   * The payload: the input and the output of a square computation.
+   */
+  static class Square {
+
+    final int input;
+
+    long output;
+
+    Square(final int input) {
+      this.input = input;
+    }
+  }
+
+  static class SquareTask extends RecyclableTask<Square> {
+
+    @Override
+    protected void run() throws Exception {
+      final Square square = getPayload();
+      if (square.input < 0) {
+        throw new IllegalArgumentException("negative input");
+      }
+      square.output = (long) square.input * square.input;
+    }
+  }
+
+  static class SquareTaskPool extends RecyclableTaskPool<Square, SquareTask> {
+
+    int created = 0;
+
+    @Override
+    protected SquareTask create() {
+      created++;
+      return new SquareTask();
+    }
+  }
+
+  private void checkForkJoin(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    final SquareTaskPool pool = new SquareTaskPool();
+    final int count = 16;
+    for (int round = 0; round < 100; ++round) {
+      final Square[] squares = new Square[count];
+      final SquareTask[] tasks = new SquareTask[count];
+      for (int i = 0; i < count; ++i) {
+        squares[i] = new Square(round + i);
+        tasks[i] = executor.fork(pool.acquire(squares[i]));
+      }
+      for (int i = count - 1; i >= 0; --i) {
+        executor.join(tasks[i]);
+      }
+      for (int i = 0; i < count; ++i) {
+        assertEquals((long) (round + i) * (round + i), squares[i].output);
+        assertNull(tasks[i].getPayload());
+      }
+    }
+    // the tasks are reused from one round to the next
+    assertEquals(count, pool.created);
+    assertEquals(count, pool.getFreeTaskCount());
+  }
+
+  @Test
+  public void testExecute() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testExecute"), 2,
+        SchedulingMode.WORK_STEALING);
+    final SquareTaskPool pool = new SquareTaskPool();
+    for (int round = 0; round < 100; ++round) {
+      final Square first = new Square(round);
+      final Square second = new Square(round + 1);
+      executor.execute(new SquareTask[] { pool.acquire(first), pool.acquire(second) });
+      executor.invokeAll(pool.acquire(first), pool.acquire(second));
+      assertEquals((long) (round + 1) * (round + 1), second.output);
+    }
+    assertEquals(2, pool.created);
+  }
+
+  @Test
+  public void testFailedTaskNotRecycled() {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testFailedTaskNotRecycled"), 2);
+    final SquareTaskPool pool = new SquareTaskPool();
+    final SquareTask failed = pool.acquire(new Square(-1));
+    try {
+      executor.join(executor.fork(failed));
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertSame(failed, e.getTasks().get(0));
+    }
+    assertEquals(0, pool.getFreeTaskCount());
+    assertNotSame(failed, pool.acquire(new Square(1)));
+  }
+
+  @Test
+  public void testForkJoin() throws RecursiveTaskExecutorException {
+    checkForkJoin(new RecursiveTaskExecutor(new ThreadGroup("testForkJoin"), 0));
+    for (final SchedulingMode schedulingMode : SchedulingMode.values()) {
+      checkForkJoin(new RecursiveTaskExecutor(new ThreadGroup("testForkJoin"), 2, schedulingMode));
+    }
+    checkForkJoin(ExecutorBackend.FORK_JOIN.createExecutor(new ThreadGroup("testForkJoin"), 2));
+  }
+
+  @Test
+  public void testReleasedTaskRejected() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testReleasedTaskRejected"), 2);
+    final SquareTaskPool pool = new SquareTaskPool();
+    final SquareTask task = pool.acquire(new Square(2));
+    executor.execute(new SquareTask[] { task });
+    try {
+      executor.execute(new SquareTask[] { task });
+      fail("An exception was expected");
+    } catch (final IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testVirtualThreads() throws RecursiveTaskExecutorException {
+    Assume.assumeTrue(ExecutorBackend.VIRTUAL_THREADS.isSupported());
+    checkForkJoin(ExecutorBackend.VIRTUAL_THREADS.createExecutor(new ThreadGroup("testVirtualThreads"), 2));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+public class TestResize {
+
+  private void checkExecution(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    final int size = 10000;
+    final AtomicIntegerArray visits = new AtomicIntegerArray(size);
+    executor.parallelFor(0, size, new IndexConsumer() {
+      @Override
+      public void accept(final int index) {
+        visits.incrementAndGet(index);
+      }
+    });
+    for (int i = 0; i < size; ++i) {
+      assertEquals(1, visits.get(i));
+    }
+  }
+
+  private void waitForRunningThreadCount(final RecursiveTaskExecutor executor, final int expected)
+      throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (executor.getStatistics().getRunningThreadCount() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, executor.getStatistics().getRunningThreadCount());
+  }
+
+  @Test
+  public void testAutoSizing() throws RecursiveTaskExecutorException, InterruptedException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testAutoSizing"), 4,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    checkExecution(executor);
+    executor.enableAutoSizing(10, TimeUnit.MILLISECONDS);
+    try {
+      assertTrue(executor.isAutoSizingEnabled());
+      // an idle executor shrinks to a single thread
+      waitForRunningThreadCount(executor, 1);
+      assertEquals(1, executor.getThreadCount());
+      checkExecution(executor);
+    } finally {
+      executor.disableAutoSizing();
+    }
+    assertFalse(executor.isAutoSizingEnabled());
+  }
+
+  @Test
+  public void testBusyTimeOfRunningTasks() throws InterruptedException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testBusyTimeOfRunningTasks"),
+        2, SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    final CountDownLatch started = new CountDownLatch(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final RecursiveTask[] tasks = new RecursiveTask[3];
+    for (int i = 0; i < tasks.length; ++i) {
+      tasks[i] = new RecursiveTask() {
+        @Override
+        protected void run() throws Exception {
+          started.countDown();
+          release.await();
+        }
+      };
+    }
+    final Thread caller = new Thread() {
+      @Override
+      public void run() {
+        try {
+          executor.execute(tasks);
+        } catch (final RecursiveTaskExecutorException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    caller.start();
+    try {
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      // the long tasks are accounted before they end, so the auto-sizer sees
+      // the threads as busy
+      final long before = executor.statistics.getBusyNanos();
+      Thread.sleep(50);
+      assertTrue(executor.statistics.getBusyNanos() - before >= TimeUnit.MILLISECONDS.toNanos(50));
+    } finally {
+      release.countDown();
+      caller.join();
+    }
+  }
+
+  @Test
+  public void testComputeThreadCount() {
+    final long period = 1000000;
+    // busy threads with queued tasks
+    assertEquals(3, AutoSizer.computeThreadCount(2, 2 * period, period, 10, 8));
+    // limited by the available processors
+    assertEquals(2, AutoSizer.computeThreadCount(2, 2 * period, period, 10, 2));
+    assertEquals(2, AutoSizer.computeThreadCount(4, 4 * period, period, 10, 2));
+    // busy threads without queued tasks
+    assertEquals(2, AutoSizer.computeThreadCount(2, 2 * period, period, 0, 8));
+    // mostly idle threads
+    assertEquals(1, AutoSizer.computeThreadCount(2, period / 2, period, 10, 8));
+    assertEquals(1, AutoSizer.computeThreadCount(1, 0, period, 0, 8));
+  }
+
+  @Test
+  public void testNotResizable() {
+    final RecursiveTaskExecutor[] executors = new RecursiveTaskExecutor[] {
+        new RecursiveTaskExecutor(new ThreadGroup("testNotResizable"), 0),
+        ExecutorBackend.FORK_JOIN.createExecutor(new ThreadGroup("testNotResizable"), 2) };
+    for (final RecursiveTaskExecutor executor : executors) {
+      assertFalse(executor.isResizable());
+      try {
+        executor.setThreadCount(4);
+        fail("An exception was expected");
+      } catch (final UnsupportedOperationException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testShrinkWithQueuedTasks() throws InterruptedException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testShrinkWithQueuedTasks"), 4,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    final AtomicIntegerArray visits = new AtomicIntegerArray(2000);
+    final Thread caller = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int run = 0; run < 20; ++run) {
+            // the affinity keys queue tasks in the mailboxes of the threads
+            final RecursiveTask[] tasks = new RecursiveTask[visits.length() / 20];
+            for (int i = 0; i < tasks.length; ++i) {
+              final int index = run * tasks.length + i;
+              tasks[i] = new RecursiveTask() {
+                @Override
+                protected void run() throws Exception {
+                  visits.incrementAndGet(index);
+                  Thread.yield();
+                }
+              };
+              tasks[i].setAffinityKey(Integer.valueOf(i % 8));
+            }
+            executor.execute(tasks);
+          }
+        } catch (final RecursiveTaskExecutorException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    caller.start();
+    // the retiring threads leave their queued tasks to the parked ones
+    for (int i = 0; caller.isAlive() && i < 200; ++i) {
+      executor.setThreadCount(1 + i % 4);
+      Thread.sleep(1);
+    }
+    caller.join(10000);
+    assertFalse(caller.isAlive());
+    for (int i = 0; i < visits.length(); ++i) {
+      assertEquals(1, visits.get(i));
+    }
+  }
+
+  @Test
+  public void testSetThreadCount() throws RecursiveTaskExecutorException, InterruptedException {
+    for (final WaitStrategy waitStrategy : WaitStrategy.values()) {
+      for (final SchedulingMode schedulingMode : SchedulingMode.values()) {
+        final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testSetThreadCount"), 4,
+            schedulingMode, waitStrategy);
+        assertTrue(executor.isResizable());
+        checkExecution(executor);
+        assertEquals(4, executor.getStatistics().getRunningThreadCount());
+
+        // the surplus threads terminate without waiting for the keep alive time
+        executor.setThreadCount(1);
+        waitForRunningThreadCount(executor, 1);
+        checkExecution(executor);
+
+        // the missing threads are started by the next execution
+        executor.setThreadCount(40);
+        assertEquals(40, executor.getMaxThreadCount());
+        checkExecution(executor);
+        assertEquals(40, executor.getStatistics().getRunningThreadCount());
+        executor.setThreadCount(2);
+        waitForRunningThreadCount(executor, 2);
+      }
+    }
+    try {
+      new RecursiveTaskExecutor(new ThreadGroup("testSetThreadCount"), 2).setThreadCount(0);
+      fail("An exception was expected");
+    } catch (final IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
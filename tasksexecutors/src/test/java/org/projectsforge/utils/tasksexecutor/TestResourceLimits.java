@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestResourceLimits {
+
+  private static final String HEAVY = "heavy";
+
+  /**
+   * A task of the heavy category recording the largest number of heavy tasks
+   * running concurrently.
+   */
+  class HeavyTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final int childCount;
+
+    HeavyTask(final RecursiveTaskExecutor executor, final int childCount) {
+      this.executor = executor;
+      this.childCount = childCount;
+      setResourceCategory(TestResourceLimits.HEAVY);
+    }
+
+    @Override
+    protected void run() throws Exception {
+      final int current = running.incrementAndGet();
+      int max;
+      while ((max = maxRunning.get()) < current && !maxRunning.compareAndSet(max, current)) {
+        continue;
+      }
+      try {
+        Thread.sleep(2);
+      } finally {
+        running.decrementAndGet();
+      }
+      executedCount.incrementAndGet();
+      if (childCount > 0) {
+        // the children run under the permit of their parent
+        final HeavyTask[] children = new HeavyTask[childCount];
+        for (int i = 0; i < childCount; ++i) {
+          children[i] = executor.fork(new HeavyTask(executor, 0));
+        }
+        for (final HeavyTask child : children) {
+          executor.join(child);
+        }
+      }
+    }
+  }
+
+  private final AtomicInteger running = new AtomicInteger();
+
+  private final AtomicInteger maxRunning = new AtomicInteger();
+
+  private final AtomicInteger executedCount = new AtomicInteger();
+
+  private void checkLimit(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    executor.setResourceLimit(TestResourceLimits.HEAVY, 2);
+    assertEquals(2, executor.getResourceLimit(TestResourceLimits.HEAVY));
+    running.set(0);
+    maxRunning.set(0);
+    executedCount.set(0);
+    final RecursiveTask[] tasks = new RecursiveTask[20];
+    for (int i = 0; i < tasks.length; ++i) {
+      tasks[i] = new HeavyTask(executor, 0);
+    }
+    executor.execute(tasks);
+    assertEquals(tasks.length, executedCount.get());
+    assertTrue(maxRunning.get() <= 2);
+    assertEquals(0, executor.getDeferredTaskCount());
+    assertEquals(0, executor.getResourceUsage(TestResourceLimits.HEAVY));
+  }
+
+  private void checkNested(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    executor.setResourceLimit(TestResourceLimits.HEAVY, 1);
+    executedCount.set(0);
+    executor.execute(new RecursiveTask[] { new HeavyTask(executor, 4), new HeavyTask(executor, 4),
+        new HeavyTask(executor, 4) });
+    assertEquals(15, executedCount.get());
+    assertEquals(0, executor.getDeferredTaskCount());
+  }
+
+  @Test
+  public void testBackpressure() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testBackpressure"), 1,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    executor.setMaxQueuedTaskCount(4);
+    executedCount.set(0);
+    final HeavyTask[] tasks = new HeavyTask[50];
+    for (int i = 0; i < tasks.length; ++i) {
+      tasks[i] = executor.fork(new HeavyTask(executor, 0));
+      // only this thread submits: the queue can not exceed the bound
+      assertTrue(executor.getQueuedTaskCount() <= 4);
+    }
+    for (final HeavyTask task : tasks) {
+      executor.join(task);
+    }
+    assertEquals(tasks.length, executedCount.get());
+  }
+
+  @Test
+  public void testGlobalList() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testGlobalList"), 4,
+        SchedulingMode.GLOBAL_LIST);
+    checkLimit(executor);
+    checkNested(executor);
+  }
+
+  @Test
+  public void testSingleTasks() throws Exception {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testSingleTasks"), 2,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    executor.setResourceLimit(TestResourceLimits.HEAVY, 1);
+    final Thread[] threads = new Thread[4];
+    final AtomicInteger failures = new AtomicInteger();
+    for (int i = 0; i < threads.length; ++i) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 10; ++j) {
+              executor.execute(new RecursiveTask[] { new HeavyTask(executor, 0) });
+            }
+          } catch (final RecursiveTaskExecutorException e) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+    assertEquals(40, executedCount.get());
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void testUnsupported() {
+    final RecursiveTaskExecutor executor = ExecutorBackend.FORK_JOIN.createExecutor(new ThreadGroup(
+        "testUnsupported"), 2);
+    assertFalse(executor.isAdmissionControlSupported());
+    try {
+      executor.setResourceLimit(TestResourceLimits.HEAVY, 1);
+      fail("An exception was expected");
+    } catch (final UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWorkStealing() throws RecursiveTaskExecutorException {
+    for (final WaitStrategy waitStrategy : WaitStrategy.values()) {
+      final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testWorkStealing"), 4,
+          SchedulingMode.WORK_STEALING, waitStrategy);
+      checkLimit(executor);
+      checkNested(executor);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestSchedulingPolicy {
+
+  static class FastTask extends RecursiveTask {
+
+    @Override
+    protected void run() throws Exception {
+      executionCount.incrementAndGet();
+    }
+  }
+
+  static class SlowTask extends RecursiveTask {
+
+    @Override
+    protected void run() throws Exception {
+      executionCount.incrementAndGet();
+      Thread.sleep(2);
+    }
+  }
+
+  static class MediumTask extends RecursiveTask {
+
+    @Override
+    protected void run() throws Exception {
+      executionCount.incrementAndGet();
+    }
+  }
+
+  private static final AtomicInteger executionCount = new AtomicInteger();
+
+  private RecursiveTask[] createTasks() {
+    return new RecursiveTask[] { new SlowTask(), new FastTask(), new MediumTask(), new FastTask(), new SlowTask() };
+  }
+
+  private LongestTaskFirstSchedulingPolicy createTrainedPolicy(final File file) {
+    final LongestTaskFirstSchedulingPolicy policy = new LongestTaskFirstSchedulingPolicy(file, 0.5);
+    policy.taskExecuted(new FastTask(), 10);
+    policy.taskExecuted(new MediumTask(), 100);
+    policy.taskExecuted(new SlowTask(), 1000);
+    return policy;
+  }
+
+  @Test
+  public void testDecayedAverage() {
+    final LongestTaskFirstSchedulingPolicy policy = createTrainedPolicy(null);
+    policy.taskExecuted(new SlowTask(), 2000);
+    assertEquals(1500, policy.getAverageNanos(SlowTask.class), 0);
+    assertEquals(0, policy.getAverageNanos(RecursiveTask.class), 0);
+  }
+
+  @Test
+  public void testExecution() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testExecution"), 2,
+        SchedulingMode.WORK_STEALING, WaitStrategy.PARK);
+    final LongestTaskFirstSchedulingPolicy policy = new LongestTaskFirstSchedulingPolicy();
+    executor.setSchedulingPolicy(policy);
+    executionCount.set(0);
+    final RecursiveTask[] tasks = createTasks();
+    final RecursiveTask[] copy = tasks.clone();
+    for (int i = 0; i < 10; ++i) {
+      executor.execute(tasks);
+    }
+    assertEquals(50, executionCount.get());
+    // the array of the caller is not reordered
+    assertArrayEquals(copy, tasks);
+    assertTrue(policy.getAverageNanos(SlowTask.class) > policy.getAverageNanos(FastTask.class));
+  }
+
+  @Test
+  public void testGlobalListOrder() {
+    final RecursiveTask[] tasks = createTasks();
+    final RecursiveTask[] ordered = createTrainedPolicy(null).order(tasks, SchedulingMode.GLOBAL_LIST);
+    // the last task is taken first
+    assertArrayEquals(new RecursiveTask[] { tasks[3], tasks[1], tasks[2], tasks[4], tasks[0] }, ordered);
+  }
+
+  @Test
+  public void testPersistence() throws IOException {
+    final File file = File.createTempFile("taskStatistics", ".properties");
+    try {
+      createTrainedPolicy(file).saveStatistics();
+      final LongestTaskFirstSchedulingPolicy policy = new LongestTaskFirstSchedulingPolicy(file, 0.5);
+      assertEquals(1000, policy.getAverageNanos(SlowTask.class), 0);
+      assertEquals(100, policy.getAverageNanos(MediumTask.class), 0);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testUniformTasks() {
+    final RecursiveTask[] tasks = new RecursiveTask[] { new SlowTask(), new SlowTask() };
+    assertSame(tasks, createTrainedPolicy(null).order(tasks, SchedulingMode.WORK_STEALING));
+    final RecursiveTask[] mixed = createTasks();
+    assertSame(mixed, new DepthFirstSchedulingPolicy().order(mixed, SchedulingMode.WORK_STEALING));
+  }
+
+  @Test
+  public void testWorkStealingOrder() {
+    final RecursiveTask[] tasks = createTasks();
+    final RecursiveTask[] ordered = createTrainedPolicy(null).order(tasks, SchedulingMode.WORK_STEALING);
+    // the owner pops the last task, the thieves steal the first ones
+    assertArrayEquals(new RecursiveTask[] { tasks[4], tasks[1], tasks[3], tasks[2], tasks[0] }, ordered);
+  }
+}
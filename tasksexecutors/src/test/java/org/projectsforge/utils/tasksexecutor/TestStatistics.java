@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+public class TestStatistics {
+
+  class TreeTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final int remainingDepth;
+
+    TreeTask(final RecursiveTaskExecutor executor, final int remainingDepth) {
+      this.executor = executor;
+      this.remainingDepth = remainingDepth;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      if (remainingDepth > 0) {
+        final TreeTask[] children = new TreeTask[width];
+        for (int i = 0; i < width; ++i) {
+          children[i] = new TreeTask(executor, remainingDepth - 1);
+        }
+        executor.execute(children);
+      }
+    }
+  }
+
+  private final int width = 4;
+
+  private final int depth = 6;
+
+  private void checkStatistics(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException,
+      JMException {
+    // 4 + 4^2 + ... + 4^6 tasks and one join per internal node
+    final int taskCount = 5460;
+    final int joinCount = 1365;
+    executor.execute(new TreeTask[] { new TreeTask(executor, depth - 1), new TreeTask(executor, depth - 1),
+        new TreeTask(executor, depth - 1), new TreeTask(executor, depth - 1) });
+
+    final RecursiveTaskExecutorMXBean statistics = executor.getStatistics();
+    // the executor threads publish their counters after the execution of the
+    // tasks and register themselves once started
+    final long deadline = System.currentTimeMillis() + 10000;
+    while ((statistics.getExecutedTaskCount() + statistics.getHelpedTaskCount() < taskCount || statistics
+        .getWorkerNames().length < executor.getThreadCount()) && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+    assertEquals(taskCount, statistics.getExecutedTaskCount() + statistics.getHelpedTaskCount());
+    assertEquals(joinCount, statistics.getJoinCount());
+    long histogramCount = 0;
+    for (final long count : statistics.getJoinTimeHistogram()) {
+      histogramCount += count;
+    }
+    assertEquals(joinCount, histogramCount);
+    assertTrue(statistics.getJoinTimeNanos() > 0);
+    assertTrue(statistics.getQueuedTaskCountHighWaterMark() >= width);
+    assertEquals(executor.getThreadCount(), statistics.getWorkerNames().length);
+    assertEquals(executor.getThreadCount(), statistics.getWorkerBusyNanos().length);
+    assertEquals(executor.getThreadCount(), statistics.getWorkerIdleNanos().length);
+
+    final ObjectName name = executor.registerMBean();
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertEquals(Long.valueOf(statistics.getJoinCount()), server.getAttribute(name, "JoinCount"));
+      assertArrayEquals(statistics.getWorkerNames(), (String[]) server.getAttribute(name, "WorkerNames"));
+    } finally {
+      executor.unregisterMBean();
+    }
+  }
+
+  @Test
+  public void testGlobalList() throws RecursiveTaskExecutorException, JMException {
+    checkStatistics(new RecursiveTaskExecutor(new ThreadGroup("testGlobalList"), 4, SchedulingMode.GLOBAL_LIST,
+        WaitStrategy.PARK));
+  }
+
+  @Test
+  public void testWorkStealing() throws RecursiveTaskExecutorException, JMException {
+    checkStatistics(new RecursiveTaskExecutor(new ThreadGroup("testWorkStealing"), 4, SchedulingMode.WORK_STEALING,
+        WaitStrategy.PARK));
+  }
+}
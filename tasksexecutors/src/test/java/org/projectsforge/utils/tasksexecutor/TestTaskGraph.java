@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestTaskGraph {
+
+  static class StepTask extends RecursiveTask {
+
+    private final AtomicInteger clock;
+
+    private final long sleepMillis;
+
+    private final StepTask[] predecessors;
+
+    volatile int step = -1;
+
+    StepTask(final AtomicInteger clock, final long sleepMillis, final StepTask... predecessors) {
+      this.clock = clock;
+      this.sleepMillis = sleepMillis;
+      this.predecessors = predecessors;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      for (final StepTask predecessor : predecessors) {
+        if (predecessor.step < 0) {
+          throw new IllegalStateException("A predecessor is not done");
+        }
+      }
+      Thread.sleep(sleepMillis);
+      step = clock.incrementAndGet();
+    }
+  }
+
+  private void checkGraph(final RecursiveTaskExecutor executor) throws RecursiveTaskExecutorException {
+    final AtomicInteger clock = new AtomicInteger();
+    final TaskGraph graph = new TaskGraph(executor);
+    // C needs A and B, D only needs B
+    final StepTask a = graph.add(new StepTask(clock, 40));
+    final StepTask b = graph.add(new StepTask(clock, 1));
+    final StepTask c = graph.add(new StepTask(clock, 20, a, b), a, b);
+    final StepTask d = graph.add(new StepTask(clock, 1, b), b);
+    assertEquals(4, graph.size());
+
+    for (int run = 0; run < 3; ++run) {
+      graph.execute();
+      for (final StepTask task : new StepTask[] { a, b, c, d }) {
+        assertTrue(task.isDone());
+        assertTrue(task.step > 0);
+      }
+      assertEquals(Arrays.<RecursiveTask> asList(a, c), graph.getCriticalPath());
+      assertTrue(graph.getCriticalPathNanos() >= 60000000L);
+      assertTrue(graph.getTotalNanos() >= graph.getCriticalPathNanos());
+    }
+  }
+
+  private void checkFailure(final RecursiveTaskExecutor executor) {
+    final AtomicInteger clock = new AtomicInteger();
+    final TaskGraph graph = new TaskGraph(executor);
+    final StepTask a = graph.add(new StepTask(clock, 0));
+    final RecursiveTask failing = graph.add(new RecursiveTask() {
+      @Override
+      protected void run() throws Exception {
+        throw new IllegalStateException("failure");
+      }
+    }, a);
+    final StepTask skipped = graph.add(new StepTask(clock, 0), failing);
+    final StepTask independent = graph.add(new StepTask(clock, 0), a);
+    try {
+      graph.execute();
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      assertEquals(Arrays.asList(failing), e.getTasks());
+    }
+    assertFalse(skipped.isDone());
+    assertTrue(independent.step > 0);
+  }
+
+  @Test
+  public void testForkJoinBackend() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = ExecutorBackend.FORK_JOIN.createExecutor(
+        new ThreadGroup("testForkJoinBackend"), 4);
+    checkGraph(executor);
+    checkFailure(executor);
+  }
+
+  @Test
+  public void testGlobalList() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testGlobalList"), 4,
+        SchedulingMode.GLOBAL_LIST, WaitStrategy.PARK);
+    checkGraph(executor);
+    checkFailure(executor);
+  }
+
+  @Test
+  public void testInvalidDependency() {
+    final TaskGraph graph = new TaskGraph(new RecursiveTaskExecutor(new ThreadGroup("testInvalidDependency"), 0));
+    final StepTask a = new StepTask(new AtomicInteger(), 0);
+    try {
+      graph.add(new StepTask(new AtomicInteger(), 0), a);
+      fail("An exception was expected");
+    } catch (final IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSequential() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testSequential"), 0);
+    checkGraph(executor);
+    checkFailure(executor);
+  }
+
+  @Test
+  public void testWorkStealing() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testWorkStealing"), 4,
+        SchedulingMode.WORK_STEALING);
+    checkGraph(executor);
+    checkFailure(executor);
+  }
+}
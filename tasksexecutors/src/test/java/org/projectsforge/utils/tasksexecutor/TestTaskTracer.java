@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.tasksexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class TestTaskTracer {
+
+  static class TreeTask extends RecursiveTask {
+
+    private final RecursiveTaskExecutor executor;
+
+    private final int remainingDepth;
+
+    TreeTask(final RecursiveTaskExecutor executor, final int remainingDepth) {
+      this.executor = executor;
+      this.remainingDepth = remainingDepth;
+    }
+
+    @Override
+    protected void run() throws Exception {
+      if (remainingDepth > 0) {
+        executor.execute(new TreeTask[] { new TreeTask(executor, remainingDepth - 1),
+            new TreeTask(executor, remainingDepth - 1) });
+      }
+    }
+  }
+
+  private static int count(final String text, final String pattern) {
+    int count = 0;
+    int index = text.indexOf(pattern);
+    while (index != -1) {
+      count++;
+      index = text.indexOf(pattern, index + pattern.length());
+    }
+    return count;
+  }
+
+  private String trace(final TaskTracer tracer) throws IOException {
+    final StringWriter writer = new StringWriter();
+    tracer.writeChromeTrace(writer);
+    return writer.toString();
+  }
+
+  @Test
+  public void testDisabled() throws RecursiveTaskExecutorException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testDisabled"), 2);
+    assertNull(executor.getTracer());
+    executor.execute(new TreeTask[] { new TreeTask(executor, 4), new TreeTask(executor, 4) });
+  }
+
+  @Test
+  public void testRingBuffer() throws RecursiveTaskExecutorException, IOException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testRingBuffer"), 0);
+    final TaskTracer tracer = new TaskTracer(8);
+    executor.setTracer(tracer);
+    executor.execute(new TreeTask[] { new TreeTask(executor, 6), new TreeTask(executor, 6) });
+    // a single thread keeps its last 8 events
+    assertEquals(8, tracer.getEventCount());
+    final String json = trace(tracer);
+    // the ends of the overwritten starts are skipped
+    assertTrue(count(json, "\"ph\":\"B\"") >= count(json, "\"ph\":\"E\""));
+  }
+
+  @Test
+  public void testReusedRings() throws InterruptedException, IOException {
+    final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testReusedRings"), 0);
+    final TaskTracer tracer = new TaskTracer();
+    executor.setTracer(tracer);
+    for (int i = 0; i < 100; ++i) {
+      final Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            executor.execute(new TreeTask[] { new TreeTask(executor, 2) });
+          } catch (final RecursiveTaskExecutorException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      thread.start();
+      thread.join();
+    }
+    // the successive threads share a single buffer
+    final String json = trace(tracer);
+    assertEquals(1, count(json, "\"name\":\"thread_name\""));
+    assertEquals(100 * 7, count(json, "\"cat\":\"task\",\"ph\":\"B\""));
+  }
+
+  @Test
+  public void testTrace() throws RecursiveTaskExecutorException, IOException {
+    for (final SchedulingMode schedulingMode : SchedulingMode.values()) {
+      final RecursiveTaskExecutor executor = new RecursiveTaskExecutor(new ThreadGroup("testTrace"), 2,
+          schedulingMode);
+      final TaskTracer tracer = new TaskTracer();
+      executor.setTracer(tracer);
+      executor.execute(new TreeTask[] { new TreeTask(executor, 5), new TreeTask(executor, 5) });
+      executor.setTracer(null);
+
+      final String json = trace(tracer);
+      assertTrue(json.startsWith("{\"displayTimeUnit\":\"ns\",\"traceEvents\":["));
+      assertTrue(json.trim().endsWith("]}"));
+      // 2 + 4 + ... + 64 tasks
+      final int taskCount = 126;
+      assertEquals(taskCount, count(json, "\"name\":\"TestTaskTracer$TreeTask\",\"cat\":\"task\",\"ph\":\"B\""));
+      assertEquals(taskCount, count(json, "\"name\":\"TestTaskTracer$TreeTask\",\"cat\":\"task\",\"ph\":\"E\""));
+      assertEquals(taskCount, count(json, "\"cat\":\"fork\",\"ph\":\"i\""));
+      // one join per execution
+      final int joinCount = taskCount / 2;
+      assertEquals(joinCount, count(json, "\"cat\":\"join\",\"ph\":\"B\""));
+      assertEquals(joinCount, count(json, "\"cat\":\"join\",\"ph\":\"E\""));
+      assertTrue(count(json, "\"name\":\"thread_name\"") >= 1);
+      assertTrue(json.contains("\"thread\":\"" + Thread.currentThread().getName() + "\""));
+    }
+  }
+}
@@ -20,7 +20,9 @@ import java.io.File;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutor;
 import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -163,6 +165,9 @@ public abstract class Visitor<TInput, TState, TOutput> {
   /** The profiled. */
   private final boolean profiled;
 
+  /** The name of the executor pool running the parallel visits. */
+  private volatile String executorPool = RecursiveTaskExecutorFactory.DEFAULT_POOL;
+
   /**
    * Instantiates a new visitor.
    * 
@@ -189,6 +194,24 @@ public abstract class Visitor<TInput, TState, TOutput> {
     return defaultVisitingMode;
   }
 
+  /**
+   * Gets the executor running the parallel visits.
+   * 
+   * @return the executor
+   */
+  public RecursiveTaskExecutor getExecutor() {
+    return RecursiveTaskExecutorFactory.getPool(executorPool);
+  }
+
+  /**
+   * Gets the name of the executor pool running the parallel visits.
+   * 
+   * @return the name of the pool
+   */
+  public String getExecutorPool() {
+    return executorPool;
+  }
+
   /**
    * Gets the logger.
    * 
@@ -267,4 +290,14 @@ public abstract class Visitor<TInput, TState, TOutput> {
       throws RecursiveTaskExecutorException {
     return (TOutput[]) delegator.recurseAll(this, visitingMode, objects, state);
   }
+
+  /**
+   * Sets the executor pool running the parallel visits.
+   * 
+   * @param executorPool the name of the pool (see
+   *          {@link RecursiveTaskExecutorFactory#getPool(String)})
+   */
+  public void setExecutorPool(final String executorPool) {
+    this.executorPool = executorPool == null ? RecursiveTaskExecutorFactory.DEFAULT_POOL : executorPool;
+  }
 }
@@ -19,9 +19,8 @@ package org.projectsforge.utils.visitor;
 import java.lang.reflect.Array;
 import java.util.Collection;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.projectsforge.utils.tasksexecutor.IndexConsumer;
 import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
-import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorFactory;
-import org.projectsforge.utils.tasksexecutor.RecursiveTask;
 
 /**
  * An internal interface used by {@link Visitor} to reduce the cost of
@@ -96,39 +95,19 @@ public abstract class VisitorDelegator {
    * @param state the state
    * @return the object[]
    * @throws RecursiveTaskExecutorException
+   * @see #recurseParallelNonVoidOutput(Visitor, Object[], Object)
    */
   @SuppressWarnings("rawtypes")
   public final Object[] recurseParallelNonVoidOutput(final Visitor visitor,
       final Collection objects, final Object state) throws RecursiveTaskExecutorException {
-    final int size = objects.size();
-    if (size == 1) {
-      for (final Object object : objects) {
-        final Object[] array = (Object[]) Array.newInstance(outputClass, 1);
-        array[0] = recurse(visitor, object, state);
-        return array;
-      }
-      throw new IllegalStateException("This code must not be reached.");
-    } else {
-      final RecursiveTask[] tasks = new RecursiveTask[size];
-      final Object[] outputs = (Object[]) Array.newInstance(outputClass, size);
-      int i = 0;
-      for (final Object object : objects) {
-        final int id = i;
-        tasks[i] = new RecursiveTask() {
-          @Override
-          public void run() throws Exception {
-            outputs[id] = recurse(visitor, object, state);
-          }
-        };
-        i++;
-      }
-      RecursiveTaskExecutorFactory.getInstance().execute(tasks);
-      return outputs;
-    }
+    return recurseParallelNonVoidOutput(visitor, objects.toArray(), state);
   }
 
   /**
-   * Recurse parallel non void output.
+   * Recurse parallel non void output. A failed visit does not stop the visit
+   * of the other objects: the exception reports each failed object with a
+   * {@link org.projectsforge.utils.tasksexecutor.FailedIndexTask} giving its
+   * index.
    * 
    * @param visitor the visitor
    * @param objects the objects
@@ -140,25 +119,18 @@ public abstract class VisitorDelegator {
   public final Object[] recurseParallelNonVoidOutput(final Visitor visitor, final Object[] objects,
       final Object state) throws RecursiveTaskExecutorException {
     final int size = objects.length;
+    final Object[] outputs = (Object[]) Array.newInstance(outputClass, size);
     if (size == 1) {
-      final Object[] array = (Object[]) Array.newInstance(outputClass, 1);
-      array[0] = recurse(visitor, objects[0], state);
-      return array;
+      outputs[0] = recurse(visitor, objects[0], state);
     } else {
-      final RecursiveTask[] tasks = new RecursiveTask[size];
-      final Object[] outputs = (Object[]) Array.newInstance(outputClass, size);
-      for (int i = size - 1; i >= 0; --i) {
-        final int id = i;
-        tasks[i] = new RecursiveTask() {
-          @Override
-          public void run() throws RecursiveTaskExecutorException {
-            outputs[id] = recurse(visitor, objects[id], state);
-          }
-        };
-      }
-      RecursiveTaskExecutorFactory.getInstance().execute(tasks);
-      return outputs;
+      visitor.getExecutor().parallelFor(0, size, new IndexConsumer() {
+        @Override
+        public void accept(final int index) throws RecursiveTaskExecutorException {
+          outputs[index] = recurse(visitor, objects[index], state);
+        }
+      });
     }
+    return outputs;
   }
 
   /**
@@ -167,44 +139,30 @@ public abstract class VisitorDelegator {
    * @param visitor the visitor
    * @param objects the objects
    * @param state the state
-   * @return the object[]
+   * @return the output in a one element array for a single object, null
+   *         otherwise
    * @throws RecursiveTaskExecutorException
+   * @see #recurseParallelVoidOutput(Visitor, Object[], Object)
    */
   @SuppressWarnings("rawtypes")
   public final Object[] recurseParallelVoidOutput(final Visitor visitor, final Collection objects,
       final Object state) throws RecursiveTaskExecutorException {
-    final int size = objects.size();
-    if (size == 1) {
-      for (final Object object : objects) {
-        final Object[] array = (Object[]) Array.newInstance(outputClass, 1);
-        array[0] = recurse(visitor, object, state);
-        return array;
-      }
-      return null;
-    } else {
-      final RecursiveTask[] tasks = new RecursiveTask[size];
-      int i = 0;
-      for (final Object object : objects) {
-        tasks[i] = new RecursiveTask() {
-          @Override
-          public final void run() throws RecursiveTaskExecutorException {
-            recurse(visitor, object, state);
-          }
-        };
-        i++;
-      }
-      RecursiveTaskExecutorFactory.getInstance().execute(tasks);
-      return null;
+    if (objects.size() == 1) {
+      final Object[] array = (Object[]) Array.newInstance(outputClass, 1);
+      array[0] = recurse(visitor, objects.iterator().next(), state);
+      return array;
     }
+    return recurseParallelVoidOutput(visitor, objects.toArray(), state);
   }
 
   /**
-   * Recurse parallel void output.
+   * Recurse parallel void output. A failed visit does not stop the visit of
+   * the other objects.
    * 
    * @param visitor the visitor
    * @param objects the objects
    * @param state the state
-   * @return the object[]
+   * @return null
    * @throws RecursiveTaskExecutorException
    */
   @SuppressWarnings("rawtypes")
@@ -213,21 +171,15 @@ public abstract class VisitorDelegator {
     final int size = objects.length;
     if (size == 1) {
       recurse(visitor, objects[0], state);
-      return null;
     } else {
-      final RecursiveTask[] tasks = new RecursiveTask[size];
-      for (int i = size - 1; i >= 0; --i) {
-        final int id = i;
-        tasks[i] = new RecursiveTask() {
-          @Override
-          public final void run() throws RecursiveTaskExecutorException {
-            recurse(visitor, objects[id], state);
-          }
-        };
-      }
-      RecursiveTaskExecutorFactory.getInstance().execute(tasks);
-      return null;
+      visitor.getExecutor().parallelFor(0, size, new IndexConsumer() {
+        @Override
+        public void accept(final int index) throws RecursiveTaskExecutorException {
+          recurse(visitor, objects[index], state);
+        }
+      });
     }
+    return null;
   }
 
   /**
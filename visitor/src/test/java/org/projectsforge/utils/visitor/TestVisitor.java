@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Sébastien Aupetit <sebtic@projectforge.org>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectsforge.utils.visitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+import org.projectsforge.utils.tasksexecutor.FailedIndexTask;
+import org.projectsforge.utils.tasksexecutor.RecursiveTask;
+import org.projectsforge.utils.tasksexecutor.RecursiveTaskExecutorException;
+
+public class TestVisitor {
+
+  /**
+   * A visitor squaring its inputs, which fails on the multiples of ten.
+   */
+  public static class SquareVisitor extends Visitor<Integer, Object, Integer> {
+
+    final AtomicIntegerArray visits = new AtomicIntegerArray(SIZE);
+
+    public SquareVisitor() {
+      super(VisitingMode.PARALLEL);
+    }
+
+    public Integer visit(final Integer input) {
+      visits.incrementAndGet(input);
+      if (input % 10 == 0) {
+        throw new IllegalStateException("failure " + input);
+      }
+      return input * input;
+    }
+  }
+
+  /**
+   * A visitor without output.
+   */
+  public static class CountingVisitor extends Visitor<Integer, Object, Void> {
+
+    final AtomicIntegerArray visits = new AtomicIntegerArray(SIZE);
+
+    public CountingVisitor() {
+      super(VisitingMode.PARALLEL);
+    }
+
+    public void visit(final Integer input) {
+      visits.incrementAndGet(input);
+    }
+  }
+
+  private static final int SIZE = 1000;
+
+  @Test
+  public void testParallelFailures() {
+    final SquareVisitor visitor = new SquareVisitor();
+    final Integer[] inputs = new Integer[SIZE];
+    for (int i = 0; i < SIZE; ++i) {
+      inputs[i] = i;
+    }
+    try {
+      visitor.recurse(inputs, null);
+      fail("An exception was expected");
+    } catch (final RecursiveTaskExecutorException e) {
+      // every object is visited and every failure is reported
+      for (int i = 0; i < SIZE; ++i) {
+        assertEquals(1, visitor.visits.get(i));
+      }
+      assertEquals(SIZE / 10, e.getTasks().size());
+      final BitSet failed = new BitSet();
+      for (final RecursiveTask task : e.getTasks()) {
+        final FailedIndexTask failure = (FailedIndexTask) task;
+        assertEquals("failure " + failure.getIndex(), failure.getException().getMessage());
+        failed.set(failure.getIndex());
+      }
+      for (int i = 0; i < SIZE; i += 10) {
+        assertTrue(failed.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelVoidOutput() throws RecursiveTaskExecutorException {
+    final CountingVisitor visitor = new CountingVisitor();
+    // a single object gives its output in a one element array
+    assertEquals(1, visitor.recurse(Collections.singletonList(3), null).length);
+    assertEquals(1, visitor.visits.get(3));
+  }
+}